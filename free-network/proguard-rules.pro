@@ -19,3 +19,6 @@
 # If you keep the line number information, uncomment this to
 # hide the original source file name.
 #-renamesourcefileattribute SourceFile
+
+# 缓存策略通过CacheMode中的类名反射创建
+-keep class com.frewen.network.cache.strategy.** { <init>(); }
@@ -1,10 +1,10 @@
 package com.frewen.network.api;
 
-import android.database.Observable;
-
 import java.util.List;
 import java.util.Map;
 
+import io.reactivex.Observable;
+
 import okhttp3.MultipartBody;
 import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
@@ -13,6 +13,7 @@ import retrofit2.http.DELETE;
 import retrofit2.http.FieldMap;
 import retrofit2.http.FormUrlEncoded;
 import retrofit2.http.GET;
+import retrofit2.http.HeaderMap;
 import retrofit2.http.Headers;
 import retrofit2.http.Multipart;
 import retrofit2.http.POST;
@@ -32,7 +33,8 @@ import retrofit2.http.Url;
 public interface ApiService {
 
     @GET()
-    Observable<ResponseBody> get(@Url String url, @QueryMap Map<String, String> maps);
+    Observable<ResponseBody> get(@Url String url, @HeaderMap Map<String, String> headers,
+                                 @QueryMap Map<String, String> maps);
 
     @POST()
     @FormUrlEncoded
@@ -0,0 +1,142 @@
+package com.frewen.network.cache;
+
+import com.frewen.network.cache.core.CacheCore;
+import com.frewen.network.cache.model.CacheResult;
+import com.frewen.network.cache.strategy.IStrategy;
+import com.frewen.network.logger.Logger;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.lang.reflect.Type;
+import java.util.EnumMap;
+import java.util.Map;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.ObservableSource;
+import io.reactivex.ObservableTransformer;
+
+/**
+ * @filename: RxCache
+ * @introduction: 按照{@link CacheMode}组合缓存和网络请求。数据使用Gson序列化之后保存在{@link CacheCore}中，
+ * 每种CacheMode对应strategy包中的一个{@link IStrategy}，通过{@link #transformer}接入请求的Observable
+ * @author: Frewen.Wong
+ * @time: 2019/4/26 11:00
+ * Copyright ©2019 Frewen.Wong. All Rights Reserved.
+ */
+public final class RxCache {
+    private static final String TAG = "RxCache";
+    private static final Map<CacheMode, IStrategy> STRATEGIES = new EnumMap<>(CacheMode.class);
+
+    private final CacheCore mCacheCore;
+    private final Gson mGson;
+
+    /**
+     * @param directory     磁盘缓存目录
+     * @param diskMaxSize   磁盘缓存大小（字节）
+     * @param memoryMaxSize 内存缓存大小（字节）
+     */
+    public RxCache(File directory, long diskMaxSize, int memoryMaxSize) {
+        this(new CacheCore(directory, diskMaxSize, memoryMaxSize), new Gson());
+    }
+
+    public RxCache(CacheCore cacheCore, Gson gson) {
+        this.mCacheCore = cacheCore;
+        this.mGson = gson;
+    }
+
+    public CacheCore getCacheCore() {
+        return mCacheCore;
+    }
+
+    /**
+     * 读取缓存，没有缓存、缓存过期或者无法解析时直接结束，不发送数据
+     *
+     * @param type   数据类型
+     * @param key    请求的指纹
+     * @param maxAge 缓存有效期（毫秒），小于0表示永久有效
+     */
+    public <T> Observable<CacheResult<T>> load(final Type type, final String key, final long maxAge) {
+        return Observable.create(new ObservableOnSubscribe<CacheResult<T>>() {
+            @Override
+            public void subscribe(ObservableEmitter<CacheResult<T>> emitter) {
+                CacheCore.Entry entry = mCacheCore.load(key, maxAge);
+                if (entry != null) {
+                    T data = null;
+                    try {
+                        data = mGson.fromJson(entry.payload, type);
+                    } catch (JsonParseException e) {
+                        // 数据类型已经变化，旧的缓存不再可用
+                        Logger.eTag(TAG, "parse cache failed:" + e.getMessage());
+                        mCacheCore.remove(key);
+                    }
+                    if (data != null && !emitter.isDisposed()) {
+                        emitter.onNext(new CacheResult<>(true, data, entry.hash));
+                    }
+                }
+                if (!emitter.isDisposed()) {
+                    emitter.onComplete();
+                }
+            }
+        });
+    }
+
+    /**
+     * 保存网络请求的结果
+     *
+     * @return 网络数据，payloadHash是序列化之后的MD5
+     */
+    public <T> CacheResult<T> save(String key, T data) {
+        String payload = mGson.toJson(data);
+        CacheCore.Entry entry = mCacheCore.save(key, payload);
+        return new CacheResult<>(false, data, entry.hash);
+    }
+
+    public void remove(String key) {
+        mCacheCore.remove(key);
+    }
+
+    public void clear() {
+        mCacheCore.clear();
+    }
+
+    /**
+     * 按照缓存策略把网络请求转换成缓存结果
+     *
+     * @param cacheMode 缓存模式
+     * @param key       请求的指纹
+     * @param maxAge    缓存有效期（毫秒），小于0表示永久有效
+     * @param type      数据类型，用于解析缓存
+     */
+    public <T> ObservableTransformer<T, CacheResult<T>> transformer(CacheMode cacheMode, final String key,
+                                                                    final long maxAge, final Type type) {
+        final IStrategy strategy = getStrategy(cacheMode);
+        return new ObservableTransformer<T, CacheResult<T>>() {
+            @Override
+            public ObservableSource<CacheResult<T>> apply(Observable<T> upstream) {
+                return strategy.execute(RxCache.this, key, maxAge, upstream, type);
+            }
+        };
+    }
+
+    /**
+     * CacheMode中的类名对应strategy包中的实现，策略没有状态，每种只创建一个
+     */
+    static IStrategy getStrategy(CacheMode cacheMode) {
+        synchronized (STRATEGIES) {
+            IStrategy strategy = STRATEGIES.get(cacheMode);
+            if (strategy == null) {
+                String className = IStrategy.class.getPackage().getName() + "." + cacheMode.getClassName();
+                try {
+                    strategy = (IStrategy) Class.forName(className).newInstance();
+                } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+                    throw new IllegalStateException("loadStrategy(" + className + ") err!" + e.getMessage(), e);
+                }
+                STRATEGIES.put(cacheMode, strategy);
+            }
+            return strategy;
+        }
+    }
+}
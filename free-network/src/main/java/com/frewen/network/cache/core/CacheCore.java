@@ -0,0 +1,231 @@
+package com.frewen.network.cache.core;
+
+import android.util.LruCache;
+
+import com.frewen.network.logger.Logger;
+import com.frewen.network.utils.CommonUtils;
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @filename: CacheCore
+ * @introduction: 两级缓存：内存中的LruCache在前，磁盘上限定大小的DiskLruCache在后。
+ * 缓存内容是序列化之后的字符串，同时保存写入时间和内容的MD5，比较数据是否变化时只需要比较MD5
+ * @author: Frewen.Wong
+ * @time: 2019/4/26 10:20
+ * Copyright ©2019 Frewen.Wong. All Rights Reserved.
+ */
+public class CacheCore {
+    private static final String TAG = "CacheCore";
+    private static final String CHARSET = "UTF-8";
+    private static final int DISK_APP_VERSION = 1;
+
+    private final LruCache<String, Entry> mMemoryCache;
+    private final File mDirectory;
+    private final long mDiskMaxSize;
+    private DiskLruCache mDiskCache;
+
+    /**
+     * @param directory     磁盘缓存目录
+     * @param diskMaxSize   磁盘缓存大小（字节）
+     * @param memoryMaxSize 内存缓存大小（字节）
+     */
+    public CacheCore(File directory, long diskMaxSize, int memoryMaxSize) {
+        this.mDirectory = directory;
+        this.mDiskMaxSize = diskMaxSize;
+        this.mMemoryCache = new LruCache<String, Entry>(memoryMaxSize) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.payload.length() * 2;
+            }
+        };
+    }
+
+    /**
+     * 读取缓存，先读内存再读磁盘，磁盘命中时放入内存
+     *
+     * @param key    请求的指纹
+     * @param maxAge 缓存有效期（毫秒），小于0表示永久有效
+     * @return 没有缓存或者已经过期时返回null
+     */
+    public synchronized Entry load(String key, long maxAge) {
+        String name = CommonUtils.md5(key);
+        Entry entry = mMemoryCache.get(name);
+        if (entry == null) {
+            entry = loadFromDisk(name);
+            if (entry != null) {
+                mMemoryCache.put(name, entry);
+            }
+        }
+        if (entry != null && maxAge >= 0 && System.currentTimeMillis() - entry.time > maxAge) {
+            remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * 同时写入内存和磁盘，磁盘写入失败时只保留在内存中
+     */
+    public synchronized Entry save(String key, String payload) {
+        String name = CommonUtils.md5(key);
+        Entry entry = new Entry(System.currentTimeMillis(), CommonUtils.md5(payload), payload);
+        mMemoryCache.put(name, entry);
+        DiskLruCache disk = disk();
+        if (disk == null) {
+            return entry;
+        }
+        DiskLruCache.Editor editor = null;
+        try {
+            editor = disk.edit(name);
+            if (editor == null) {
+                return entry;
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(editor.newOutputStream(0)));
+            try {
+                out.writeLong(entry.time);
+                out.writeUTF(entry.hash);
+                out.write(payload.getBytes(CHARSET));
+            } finally {
+                out.close();
+            }
+            editor.commit();
+            editor = null;
+        } catch (IOException e) {
+            Logger.eTag(TAG, "save disk cache failed:" + e.getMessage());
+        } finally {
+            abortQuietly(editor);
+        }
+        return entry;
+    }
+
+    public synchronized void remove(String key) {
+        String name = CommonUtils.md5(key);
+        mMemoryCache.remove(name);
+        DiskLruCache disk = disk();
+        if (disk != null) {
+            try {
+                disk.remove(name);
+            } catch (IOException e) {
+                Logger.eTag(TAG, "remove disk cache failed:" + e.getMessage());
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        mMemoryCache.evictAll();
+        DiskLruCache disk = disk();
+        if (disk == null) {
+            return;
+        }
+        try {
+            // delete()之后缓存关闭，下次使用时重新打开
+            disk.delete();
+        } catch (IOException e) {
+            Logger.eTag(TAG, "clear disk cache failed:" + e.getMessage());
+        }
+        mDiskCache = null;
+    }
+
+    /**
+     * 磁盘缓存已经使用的大小
+     */
+    public synchronized long getDiskSize() {
+        DiskLruCache disk = disk();
+        return (disk != null) ? disk.size() : 0;
+    }
+
+    private Entry loadFromDisk(String name) {
+        DiskLruCache disk = disk();
+        if (disk == null) {
+            return null;
+        }
+        DiskLruCache.Snapshot snapshot = null;
+        try {
+            snapshot = disk.get(name);
+            if (snapshot == null) {
+                return null;
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(snapshot.getInputStream(0)));
+            long time = in.readLong();
+            String hash = in.readUTF();
+            String payload = new String(readFully(in), CHARSET);
+            return new Entry(time, hash, payload);
+        } catch (IOException e) {
+            Logger.eTag(TAG, "load disk cache failed:" + e.getMessage());
+            try {
+                disk.remove(name);
+            } catch (IOException ignored) {
+            }
+            return null;
+        } finally {
+            if (snapshot != null) {
+                snapshot.close();
+            }
+        }
+    }
+
+    /**
+     * 第一次使用时打开磁盘缓存
+     */
+    private DiskLruCache disk() {
+        if (mDiskCache == null || mDiskCache.isClosed()) {
+            try {
+                mDiskCache = DiskLruCache.open(mDirectory, DISK_APP_VERSION, 1, mDiskMaxSize);
+            } catch (IOException e) {
+                Logger.eTag(TAG, "open disk cache failed:" + e.getMessage());
+                mDiskCache = null;
+            }
+        }
+        return mDiskCache;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            out.write(buffer, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    private static void abortQuietly(DiskLruCache.Editor editor) {
+        if (editor == null) {
+            return;
+        }
+        try {
+            editor.abort();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * 一条缓存
+     */
+    public static final class Entry {
+        /**
+         * 写入时间
+         */
+        public final long time;
+        /**
+         * 缓存内容的MD5
+         */
+        public final String hash;
+        public final String payload;
+
+        Entry(long time, String hash, String payload) {
+            this.time = time;
+            this.hash = hash;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.frewen.network.cache.model;
+
+/**
+ * @filename: CacheResult
+ * @introduction: 缓存策略返回的结果，区分数据来自缓存还是网络
+ * @author: Frewen.Wong
+ * @time: 2019/4/26 10:50
+ * Copyright ©2019 Frewen.Wong. All Rights Reserved.
+ */
+public class CacheResult<T> {
+    private final boolean isFromCache;
+    private final T data;
+    /**
+     * 数据序列化之后的MD5，不使用缓存时为null
+     */
+    private final String payloadHash;
+
+    public CacheResult(boolean isFromCache, T data, String payloadHash) {
+        this.isFromCache = isFromCache;
+        this.data = data;
+        this.payloadHash = payloadHash;
+    }
+
+    public boolean isFromCache() {
+        return isFromCache;
+    }
+
+    public T getData() {
+        return data;
+    }
+
+    public String getPayloadHash() {
+        return payloadHash;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheResult{" +
+                "isFromCache=" + isFromCache +
+                ", data=" + data +
+                '}';
+    }
+}
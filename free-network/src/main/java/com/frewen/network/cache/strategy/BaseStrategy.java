@@ -0,0 +1,54 @@
+package com.frewen.network.cache.strategy;
+
+import com.frewen.network.cache.RxCache;
+import com.frewen.network.cache.model.CacheResult;
+import com.frewen.network.logger.Logger;
+
+import java.lang.reflect.Type;
+import java.util.NoSuchElementException;
+
+import io.reactivex.Observable;
+import io.reactivex.functions.Function;
+
+/**
+ * @filename: BaseStrategy
+ * @introduction: 读取缓存和请求网络（成功后写入缓存）的公共实现
+ * @author: Frewen.Wong
+ * @time: 2019/4/26 11:25
+ * Copyright ©2019 Frewen.Wong. All Rights Reserved.
+ */
+public abstract class BaseStrategy implements IStrategy {
+    private static final String TAG = "CacheStrategy";
+
+    /**
+     * 读取缓存，没有可用的缓存时直接结束
+     */
+    <T> Observable<CacheResult<T>> loadCache(RxCache rxCache, String key, long maxAge, Type type) {
+        return rxCache.load(type, key, maxAge);
+    }
+
+    /**
+     * 读取缓存，没有可用的缓存时返回错误
+     */
+    <T> Observable<CacheResult<T>> loadCacheOrError(RxCache rxCache, String key, long maxAge, Type type) {
+        return this.<T>loadCache(rxCache, key, maxAge, type)
+                .switchIfEmpty(Observable.<CacheResult<T>>error(new NoSuchElementException("no cache:" + key)));
+    }
+
+    /**
+     * 请求网络，成功之后写入缓存。写入缓存失败不影响网络数据的返回
+     */
+    <T> Observable<CacheResult<T>> loadRemote(final RxCache rxCache, final String key, Observable<T> source) {
+        return source.map(new Function<T, CacheResult<T>>() {
+            @Override
+            public CacheResult<T> apply(T data) {
+                try {
+                    return rxCache.save(key, data);
+                } catch (RuntimeException e) {
+                    Logger.eTag(TAG, "save cache failed:" + e.getMessage());
+                    return new CacheResult<>(false, data, null);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,35 @@
+package com.frewen.network.cache.strategy;
+
+import com.frewen.network.cache.RxCache;
+import com.frewen.network.cache.model.CacheResult;
+
+import java.lang.reflect.Type;
+
+import io.reactivex.Observable;
+import io.reactivex.functions.Function;
+
+/**
+ * @filename: CacheAndRemoteDistinctStrategy
+ * @introduction: 先返回缓存（如果有），再请求网络，网络数据与缓存的MD5相同时不再返回，避免界面重复刷新
+ * @author: Frewen.Wong
+ * @time: 2019/4/26 12:00
+ * Copyright ©2019 Frewen.Wong. All Rights Reserved.
+ */
+public final class CacheAndRemoteDistinctStrategy extends BaseStrategy {
+    @Override
+    public <T> Observable<CacheResult<T>> execute(RxCache rxCache, String key, long maxAge,
+                                                  Observable<T> source, Type type) {
+        Observable<CacheResult<T>> cache = loadCache(rxCache, key, maxAge, type);
+        Observable<CacheResult<T>> remote = loadRemote(rxCache, key, source);
+        // 只比较序列化之后的MD5，不需要逐字段比较数据
+        return Observable.concat(cache, remote)
+                .distinctUntilChanged(new Function<CacheResult<T>, String>() {
+                    @Override
+                    public String apply(CacheResult<T> result) {
+                        String hash = result.getPayloadHash();
+                        // 没有MD5（写入缓存失败）时不去重
+                        return (hash != null) ? hash : String.valueOf(System.identityHashCode(result));
+                    }
+                });
+    }
+}
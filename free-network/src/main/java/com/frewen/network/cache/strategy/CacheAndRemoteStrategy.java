@@ -0,0 +1,25 @@
+package com.frewen.network.cache.strategy;
+
+import com.frewen.network.cache.RxCache;
+import com.frewen.network.cache.model.CacheResult;
+
+import java.lang.reflect.Type;
+
+import io.reactivex.Observable;
+
+/**
+ * @filename: CacheAndRemoteStrategy
+ * @introduction: 先返回缓存（如果有），再请求网络，网络数据总是返回，会回调两次
+ * @author: Frewen.Wong
+ * @time: 2019/4/26 11:55
+ * Copyright ©2019 Frewen.Wong. All Rights Reserved.
+ */
+public final class CacheAndRemoteStrategy extends BaseStrategy {
+    @Override
+    public <T> Observable<CacheResult<T>> execute(RxCache rxCache, String key, long maxAge,
+                                                  Observable<T> source, Type type) {
+        Observable<CacheResult<T>> cache = loadCache(rxCache, key, maxAge, type);
+        Observable<CacheResult<T>> remote = loadRemote(rxCache, key, source);
+        return Observable.concat(cache, remote);
+    }
+}
@@ -0,0 +1,25 @@
+package com.frewen.network.cache.strategy;
+
+import com.frewen.network.cache.RxCache;
+import com.frewen.network.cache.model.CacheResult;
+
+import java.lang.reflect.Type;
+
+import io.reactivex.Observable;
+
+/**
+ * @filename: FirstCacheStategy
+ * @introduction: 先读取缓存，没有可用的缓存时再请求网络。类名与CacheMode.FIRSTCACHE中的一致
+ * @author: Frewen.Wong
+ * @time: 2019/4/26 11:45
+ * Copyright ©2019 Frewen.Wong. All Rights Reserved.
+ */
+public final class FirstCacheStategy extends BaseStrategy {
+    @Override
+    public <T> Observable<CacheResult<T>> execute(RxCache rxCache, String key, long maxAge,
+                                                  Observable<T> source, Type type) {
+        Observable<CacheResult<T>> cache = loadCache(rxCache, key, maxAge, type);
+        // 缓存为空时才会订阅网络请求
+        return cache.switchIfEmpty(loadRemote(rxCache, key, source));
+    }
+}
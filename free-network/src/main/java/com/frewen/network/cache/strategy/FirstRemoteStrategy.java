@@ -0,0 +1,32 @@
+package com.frewen.network.cache.strategy;
+
+import com.frewen.network.cache.RxCache;
+import com.frewen.network.cache.model.CacheResult;
+
+import java.lang.reflect.Type;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.functions.Function;
+
+/**
+ * @filename: FirstRemoteStrategy
+ * @introduction: 先请求网络，网络请求失败时读取缓存，缓存也没有时返回网络请求的错误
+ * @author: Frewen.Wong
+ * @time: 2019/4/26 11:50
+ * Copyright ©2019 Frewen.Wong. All Rights Reserved.
+ */
+public final class FirstRemoteStrategy extends BaseStrategy {
+    @Override
+    public <T> Observable<CacheResult<T>> execute(RxCache rxCache, String key, long maxAge,
+                                                  Observable<T> source, Type type) {
+        final Observable<CacheResult<T>> cache = loadCache(rxCache, key, maxAge, type);
+        return loadRemote(rxCache, key, source)
+                .onErrorResumeNext(new Function<Throwable, ObservableSource<CacheResult<T>>>() {
+                    @Override
+                    public ObservableSource<CacheResult<T>> apply(Throwable throwable) {
+                        return cache.switchIfEmpty(Observable.<CacheResult<T>>error(throwable));
+                    }
+                });
+    }
+}
@@ -0,0 +1,27 @@
+package com.frewen.network.cache.strategy;
+
+import com.frewen.network.cache.RxCache;
+import com.frewen.network.cache.model.CacheResult;
+
+import java.lang.reflect.Type;
+
+import io.reactivex.Observable;
+
+/**
+ * @filename: IStrategy
+ * @introduction: 缓存策略，实现类的类名与{@link com.frewen.network.cache.CacheMode}中的类名一致，需要有无参构造方法
+ * @author: Frewen.Wong
+ * @time: 2019/4/26 11:20
+ * Copyright ©2019 Frewen.Wong. All Rights Reserved.
+ */
+public interface IStrategy {
+    /**
+     * @param rxCache 缓存
+     * @param key     请求的指纹
+     * @param maxAge  缓存有效期（毫秒），小于0表示永久有效
+     * @param source  网络请求
+     * @param type    数据类型，用于解析缓存
+     */
+    <T> Observable<CacheResult<T>> execute(RxCache rxCache, String key, long maxAge, Observable<T> source,
+                                           Type type);
+}
@@ -0,0 +1,29 @@
+package com.frewen.network.cache.strategy;
+
+import com.frewen.network.cache.RxCache;
+import com.frewen.network.cache.model.CacheResult;
+
+import java.lang.reflect.Type;
+
+import io.reactivex.Observable;
+import io.reactivex.functions.Function;
+
+/**
+ * @filename: NoStrategy
+ * @introduction: 不使用缓存，只请求网络，也不写入缓存
+ * @author: Frewen.Wong
+ * @time: 2019/4/26 11:30
+ * Copyright ©2019 Frewen.Wong. All Rights Reserved.
+ */
+public final class NoStrategy implements IStrategy {
+    @Override
+    public <T> Observable<CacheResult<T>> execute(RxCache rxCache, String key, long maxAge,
+                                                  Observable<T> source, Type type) {
+        return source.map(new Function<T, CacheResult<T>>() {
+            @Override
+            public CacheResult<T> apply(T data) {
+                return new CacheResult<>(false, data, null);
+            }
+        });
+    }
+}
@@ -0,0 +1,23 @@
+package com.frewen.network.cache.strategy;
+
+import com.frewen.network.cache.RxCache;
+import com.frewen.network.cache.model.CacheResult;
+
+import java.lang.reflect.Type;
+
+import io.reactivex.Observable;
+
+/**
+ * @filename: OnlyCacheStrategy
+ * @introduction: 只读取缓存，没有可用的缓存时返回NoSuchElementException
+ * @author: Frewen.Wong
+ * @time: 2019/4/26 11:40
+ * Copyright ©2019 Frewen.Wong. All Rights Reserved.
+ */
+public final class OnlyCacheStrategy extends BaseStrategy {
+    @Override
+    public <T> Observable<CacheResult<T>> execute(RxCache rxCache, String key, long maxAge,
+                                                  Observable<T> source, Type type) {
+        return loadCacheOrError(rxCache, key, maxAge, type);
+    }
+}
@@ -0,0 +1,23 @@
+package com.frewen.network.cache.strategy;
+
+import com.frewen.network.cache.RxCache;
+import com.frewen.network.cache.model.CacheResult;
+
+import java.lang.reflect.Type;
+
+import io.reactivex.Observable;
+
+/**
+ * @filename: OnlyRemoteStrategy
+ * @introduction: 仅请求网络，成功之后写入缓存
+ * @author: Frewen.Wong
+ * @time: 2019/4/26 11:35
+ * Copyright ©2019 Frewen.Wong. All Rights Reserved.
+ */
+public final class OnlyRemoteStrategy extends BaseStrategy {
+    @Override
+    public <T> Observable<CacheResult<T>> execute(RxCache rxCache, String key, long maxAge,
+                                                  Observable<T> source, Type type) {
+        return loadRemote(rxCache, key, source);
+    }
+}
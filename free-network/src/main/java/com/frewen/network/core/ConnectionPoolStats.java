@@ -0,0 +1,128 @@
+package com.frewen.network.core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+
+/**
+ * @filename: ConnectionPoolStats
+ * @introduction: 共享连接池的统计：空闲和活跃连接数、正在执行和排队的请求数，
+ * 以及连接复用率（获取连接的次数中没有新建连接的比例）
+ * @author: Frewen.Wong
+ * @time: 2019/4/26 15:10
+ * Copyright ©2019 Frewen.Wong. All Rights Reserved.
+ */
+public class ConnectionPoolStats {
+    private final ConnectionPool mConnectionPool;
+    private final Dispatcher mDispatcher;
+    private final AtomicLong mAcquiredCount = new AtomicLong();
+    private final AtomicLong mConnectCount = new AtomicLong();
+    private final AtomicLong mConnectFailedCount = new AtomicLong();
+
+    ConnectionPoolStats(ConnectionPool connectionPool, Dispatcher dispatcher) {
+        this.mConnectionPool = connectionPool;
+        this.mDispatcher = dispatcher;
+    }
+
+    /**
+     * 空闲连接数
+     */
+    public int getIdleConnectionCount() {
+        return mConnectionPool.idleConnectionCount();
+    }
+
+    /**
+     * 正在使用的连接数
+     */
+    public int getActiveConnectionCount() {
+        return Math.max(0, mConnectionPool.connectionCount() - mConnectionPool.idleConnectionCount());
+    }
+
+    public int getRunningCallCount() {
+        return mDispatcher.runningCallsCount();
+    }
+
+    public int getQueuedCallCount() {
+        return mDispatcher.queuedCallsCount();
+    }
+
+    /**
+     * 请求获取连接的次数
+     */
+    public long getAcquiredCount() {
+        return mAcquiredCount.get();
+    }
+
+    /**
+     * 新建连接（TCP连接）的次数
+     */
+    public long getConnectCount() {
+        return mConnectCount.get();
+    }
+
+    public long getConnectFailedCount() {
+        return mConnectFailedCount.get();
+    }
+
+    /**
+     * 连接复用率，还没有请求时为0
+     */
+    public double getReuseRate() {
+        long acquired = mAcquiredCount.get();
+        if (acquired == 0) {
+            return 0;
+        }
+        return Math.max(0, acquired - mConnectCount.get()) / (double) acquired;
+    }
+
+    /**
+     * 统计用的EventListener，所有请求共用一个实例
+     */
+    EventListener.Factory eventListenerFactory() {
+        final EventListener listener = new EventListener() {
+            @Override
+            public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+                mConnectCount.incrementAndGet();
+            }
+
+            @Override
+            public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                                      Protocol protocol, IOException ioe) {
+                mConnectFailedCount.incrementAndGet();
+            }
+
+            @Override
+            public void connectionAcquired(Call call, Connection connection) {
+                mAcquiredCount.incrementAndGet();
+            }
+        };
+        return new EventListener.Factory() {
+            @Override
+            public EventListener create(Call call) {
+                return listener;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolStats{" +
+                "idle=" + getIdleConnectionCount() +
+                ", active=" + getActiveConnectionCount() +
+                ", running=" + getRunningCallCount() +
+                ", queued=" + getQueuedCallCount() +
+                ", acquired=" + getAcquiredCount() +
+                ", connected=" + getConnectCount() +
+                ", reuseRate=" + String.format(Locale.US, "%.2f", getReuseRate()) +
+                '}';
+    }
+}
@@ -3,6 +3,9 @@ package com.frewen.network.core;
 import android.app.Application;
 import android.text.TextUtils;
 
+import com.frewen.network.api.ApiService;
+import com.frewen.network.cache.CacheMode;
+import com.frewen.network.cache.RxCache;
 import com.frewen.network.interceptor.HttpLoggingInterceptor;
 import com.frewen.network.logger.Logger;
 import com.frewen.network.model.HttpHeaders;
@@ -10,7 +13,11 @@ import com.frewen.network.model.HttpParams;
 import com.frewen.network.request.GetRequest;
 import com.frewen.network.utils.CommonUtils;
 import com.frewen.aura.toolkits.core.FreeToolKits;
+import com.google.gson.Gson;
 
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.OkHttpClient;
@@ -36,16 +43,39 @@ public final class FreeRxHttp {
      * 设置重试次数
      */
     private static final int DEFAULT_RETRY_COUNT = 3;
+    /**
+     * 第一次重试前的默认等待时间，之后每次加倍
+     */
+    private static final long DEFAULT_RETRY_DELAY = 500;
+    /**
+     * 默认的磁盘缓存大小
+     */
+    private static final long DEFAULT_CACHE_MAX_SIZE = 50 * 1024 * 1024;
+    /**
+     * 默认的内存缓存大小
+     */
+    private static final int DEFAULT_MEMORY_CACHE_MAX_SIZE = 2 * 1024 * 1024;
     /**
      * OKHttp对象构建
      */
     private final OkHttpClient.Builder okHttpClientBuilder;
+    /**
+     * 由okHttpClientBuilder创建，修改配置之后重新创建
+     */
+    private volatile OkHttpClient mOkHttpClient;
     private final Retrofit.Builder retrofitBuilder;
     /**
      * 全局BaseUrl
      */
     private String mBaseUrl;
     private int mRetryCount = DEFAULT_RETRY_COUNT;
+    private long mRetryDelay = DEFAULT_RETRY_DELAY;
+    /**
+     * 每个BaseUrl对应的ApiService，OkHttpClient重新创建之后清空
+     */
+    private final Map<String, ApiService> mApiServices = new HashMap<>();
+    private final InFlightRequests mInFlightRequests = new InFlightRequests();
+    private final Gson mGson = new Gson();
     /**
      * 全局公共请求参数
      */
@@ -54,9 +84,22 @@ public final class FreeRxHttp {
      * 全局公共请求头
      */
     private HttpHeaders mCommonHeaders;
+    /**
+     * 全局缓存模式，默认不使用缓存
+     */
+    private CacheMode mCacheMode = CacheMode.NO_CACHE;
+    /**
+     * 全局缓存有效期（毫秒），-1表示永久有效
+     */
+    private long mCacheMaxAge = -1;
+    private File mCacheDirectory;
+    private long mCacheMaxSize = DEFAULT_CACHE_MAX_SIZE;
+    private int mMemoryCacheMaxSize = DEFAULT_MEMORY_CACHE_MAX_SIZE;
+    private volatile RxCache mRxCache;
 
     private FreeRxHttp() {
-        okHttpClientBuilder = new OkHttpClient.Builder();
+        // 与其他模块共用连接池和Dispatcher
+        okHttpClientBuilder = HttpClientCore.getInstance().newBuilder();
         okHttpClientBuilder.connectTimeout(DEFAULT_MILLISECONDS, TimeUnit.MILLISECONDS);
         okHttpClientBuilder.readTimeout(DEFAULT_MILLISECONDS, TimeUnit.MILLISECONDS);
         okHttpClientBuilder.writeTimeout(DEFAULT_MILLISECONDS, TimeUnit.MILLISECONDS);
@@ -119,6 +162,7 @@ public final class FreeRxHttp {
             HttpLoggingInterceptor loggingInterceptor = new HttpLoggingInterceptor(tempTag, debug);
             loggingInterceptor.setLevel(HttpLoggingInterceptor.Level.BODY);
             okHttpClientBuilder.addInterceptor(loggingInterceptor);
+            mOkHttpClient = null;
         }
         Logger.getConfig()
                 // 设计全局的TAG
@@ -161,6 +205,7 @@ public final class FreeRxHttp {
      */
     public FreeRxHttp setReadTimeOut(long readTimeOut) {
         okHttpClientBuilder.readTimeout(readTimeOut, TimeUnit.MILLISECONDS);
+        mOkHttpClient = null;
         return this;
     }
 
@@ -169,6 +214,7 @@ public final class FreeRxHttp {
      */
     public FreeRxHttp setWriteTimeOut(long writeTimeout) {
         okHttpClientBuilder.writeTimeout(writeTimeout, TimeUnit.MILLISECONDS);
+        mOkHttpClient = null;
         return this;
     }
 
@@ -177,9 +223,65 @@ public final class FreeRxHttp {
      */
     public FreeRxHttp setConnectTimeout(long connectTimeout) {
         okHttpClientBuilder.connectTimeout(connectTimeout, TimeUnit.MILLISECONDS);
+        mOkHttpClient = null;
         return this;
     }
 
+    /**
+     * FreeRxHttp使用的OkHttpClient，与其他模块共用连接池和Dispatcher
+     */
+    public OkHttpClient getOkHttpClient() {
+        OkHttpClient client = mOkHttpClient;
+        if (client == null) {
+            synchronized (this) {
+                client = mOkHttpClient;
+                if (client == null) {
+                    client = okHttpClientBuilder.build();
+                    mOkHttpClient = client;
+                    mApiServices.clear();
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * BaseUrl对应的ApiService，使用{@link #getOkHttpClient()}，同一个BaseUrl只创建一次
+     */
+    public ApiService getApiService(String baseUrl) {
+        OkHttpClient client = getOkHttpClient();
+        synchronized (this) {
+            ApiService apiService = mApiServices.get(baseUrl);
+            if (apiService == null) {
+                Retrofit retrofit = retrofitBuilder.baseUrl(baseUrl).client(client).build();
+                apiService = retrofit.create(ApiService.class);
+                mApiServices.put(baseUrl, apiService);
+            }
+            return apiService;
+        }
+    }
+
+    /**
+     * 正在执行的相同GET请求的合并
+     */
+    public InFlightRequests getInFlightRequests() {
+        return mInFlightRequests;
+    }
+
+    /**
+     * 解析响应使用的Gson
+     */
+    public Gson getGson() {
+        return mGson;
+    }
+
+    /**
+     * 共享连接池的统计：空闲/活跃连接数和连接复用率
+     */
+    public ConnectionPoolStats getConnectionPoolStats() {
+        return HttpClientCore.getInstance().getStats();
+    }
+
     /**
      * 超时重试次数
      */
@@ -198,6 +300,21 @@ public final class FreeRxHttp {
         return getInstance().mRetryCount;
     }
 
+    /**
+     * 第一次重试前的等待时间（毫秒），之后每次重试加倍
+     */
+    public FreeRxHttp setRetryDelay(long retryDelay) {
+        if (retryDelay < 0) {
+            throw new IllegalArgumentException("retryDelay must >= 0");
+        }
+        mRetryDelay = retryDelay;
+        return this;
+    }
+
+    public long getRetryDelay() {
+        return mRetryDelay;
+    }
+
     /**
      * setBaseUrl
      * @param baseUrl
@@ -252,6 +369,73 @@ public final class FreeRxHttp {
         return this;
     }
 
+    /**
+     * 全局缓存模式，单个请求可以通过BaseRequest.cacheMode()覆盖
+     */
+    public FreeRxHttp setCacheMode(CacheMode cacheMode) {
+        mCacheMode = CommonUtils.checkNotNull(cacheMode, "cacheMode == null");
+        return this;
+    }
+
+    public CacheMode getCacheMode() {
+        return mCacheMode;
+    }
+
+    /**
+     * 全局缓存有效期（毫秒），-1表示永久有效
+     */
+    public FreeRxHttp setCacheMaxAge(long cacheMaxAge) {
+        if (cacheMaxAge <= -1) {
+            cacheMaxAge = -1;
+        }
+        mCacheMaxAge = cacheMaxAge;
+        return this;
+    }
+
+    public long getCacheMaxAge() {
+        return mCacheMaxAge;
+    }
+
+    /**
+     * 磁盘缓存目录，默认为应用的/cache/data-cache/，需要在第一次请求之前设置
+     */
+    public FreeRxHttp setCacheDirectory(File directory) {
+        mCacheDirectory = CommonUtils.checkNotNull(directory, "directory == null");
+        return this;
+    }
+
+    /**
+     * 磁盘缓存大小（字节），需要在第一次请求之前设置
+     */
+    public FreeRxHttp setCacheMaxSize(long maxSize) {
+        mCacheMaxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * 内存缓存大小（字节），需要在第一次请求之前设置
+     */
+    public FreeRxHttp setMemoryCacheMaxSize(int maxSize) {
+        mMemoryCacheMaxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * 第一次使用时创建缓存
+     */
+    public RxCache getRxCache() {
+        if (mRxCache == null) {
+            synchronized (this) {
+                if (mRxCache == null) {
+                    File directory = (mCacheDirectory != null)
+                            ? mCacheDirectory : new File(getContext().getCacheDir(), "data-cache");
+                    mRxCache = new RxCache(directory, mCacheMaxSize, mMemoryCacheMaxSize);
+                }
+            }
+        }
+        return mRxCache;
+    }
+
     /**
      * get请求
      */
@@ -0,0 +1,112 @@
+package com.frewen.network.core;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * @filename: HttpClientCore
+ * @introduction: 进程内共享的OkHttpClient。所有模块（FreeRxHttp、NetworkApi、RetrofitFactory）都通过{@link #newBuilder()}
+ * 派生自己的OkHttpClient，添加各自的拦截器和超时，但是共用同一个ConnectionPool、Dispatcher和线程池，
+ * 同一个Host的连接只需要建立一次。磁盘缓存也按照目录共用，同一个目录只能有一个okhttp3.Cache
+ * @author: Frewen.Wong
+ * @time: 2019/4/26 15:00
+ * Copyright ©2019 Frewen.Wong. All Rights Reserved.
+ */
+public final class HttpClientCore {
+    /**
+     * 最多保持的空闲连接数
+     */
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    /**
+     * 空闲连接的保持时间
+     */
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final int MAX_REQUESTS = 64;
+    private static final int MAX_REQUESTS_PER_HOST = 6;
+    private static volatile HttpClientCore mInstance;
+
+    private final ConnectionPool mConnectionPool;
+    private final Dispatcher mDispatcher;
+    private final ConnectionPoolStats mStats;
+    private final OkHttpClient mBaseClient;
+    private final Map<String, Cache> mCaches = new HashMap<>();
+
+    private HttpClientCore() {
+        mConnectionPool = new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES);
+        mDispatcher = new Dispatcher();
+        mDispatcher.setMaxRequests(MAX_REQUESTS);
+        mDispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+        mStats = new ConnectionPoolStats(mConnectionPool, mDispatcher);
+        mBaseClient = new OkHttpClient.Builder()
+                .connectionPool(mConnectionPool)
+                .dispatcher(mDispatcher)
+                .eventListenerFactory(mStats.eventListenerFactory())
+                .build();
+    }
+
+    public static HttpClientCore getInstance() {
+        if (mInstance == null) {
+            synchronized (HttpClientCore.class) {
+                if (mInstance == null) {
+                    mInstance = new HttpClientCore();
+                }
+            }
+        }
+        return mInstance;
+    }
+
+    /**
+     * 派生一个新的OkHttpClient.Builder，共用连接池、Dispatcher和统计用的EventListener。
+     * 不要再调用connectionPool()、dispatcher()和eventListenerFactory()，否则会失去共享
+     */
+    public OkHttpClient.Builder newBuilder() {
+        return mBaseClient.newBuilder();
+    }
+
+    /**
+     * 没有任何自定义的共享OkHttpClient
+     */
+    public OkHttpClient getBaseClient() {
+        return mBaseClient;
+    }
+
+    /**
+     * 目录对应的磁盘缓存，同一个目录只创建一次，第一次创建时的大小生效
+     *
+     * @param directory 缓存目录
+     * @param maxSize   缓存大小（字节）
+     */
+    public Cache getCache(File directory, long maxSize) {
+        String key = directory.getAbsolutePath();
+        synchronized (mCaches) {
+            Cache cache = mCaches.get(key);
+            if (cache == null) {
+                cache = new Cache(directory, maxSize);
+                mCaches.put(key, cache);
+            }
+            return cache;
+        }
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return mConnectionPool;
+    }
+
+    public Dispatcher getDispatcher() {
+        return mDispatcher;
+    }
+
+    /**
+     * 连接池统计，用于监控
+     */
+    public ConnectionPoolStats getStats() {
+        return mStats;
+    }
+}
@@ -0,0 +1,72 @@
+package com.frewen.network.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.functions.Action;
+
+/**
+ * @filename: InFlightRequests
+ * @introduction: 相同请求的合并。一个请求正在执行时，key相同的请求不再单独发送，而是通过share()订阅同一个Observable，
+ * 请求结束（成功、失败或者所有订阅者都取消）之后移除，之后的请求重新发送
+ * @author: Frewen.Wong
+ * @time: 2019/4/27 10:30
+ * Copyright ©2019 Frewen.Wong. All Rights Reserved.
+ */
+public class InFlightRequests {
+    private final ConcurrentMap<String, Observable<String>> mInFlight = new ConcurrentHashMap<>();
+    private final AtomicLong mSharedCount = new AtomicLong();
+
+    /**
+     * @param key    请求的指纹
+     * @param source 实际的请求，每次合并只订阅一次
+     * @return 订阅时才决定是发送请求还是加入正在执行的请求
+     */
+    public Observable<String> dedup(final String key, final Observable<String> source) {
+        return Observable.defer(new Callable<ObservableSource<String>>() {
+            @Override
+            public ObservableSource<String> call() {
+                Observable<String> inFlight = mInFlight.get(key);
+                if (inFlight != null) {
+                    mSharedCount.incrementAndGet();
+                    return inFlight;
+                }
+                final AtomicReference<Observable<String>> reference = new AtomicReference<>();
+                Observable<String> created = source
+                        .doFinally(new Action() {
+                            @Override
+                            public void run() {
+                                mInFlight.remove(key, reference.get());
+                            }
+                        })
+                        .share();
+                reference.set(created);
+                inFlight = mInFlight.putIfAbsent(key, created);
+                if (inFlight != null) {
+                    mSharedCount.incrementAndGet();
+                    return inFlight;
+                }
+                return created;
+            }
+        });
+    }
+
+    /**
+     * 正在执行的请求数
+     */
+    public int size() {
+        return mInFlight.size();
+    }
+
+    /**
+     * 被合并（没有单独发送）的请求数
+     */
+    public long getSharedCount() {
+        return mSharedCount.get();
+    }
+}
@@ -0,0 +1,72 @@
+package com.frewen.network.func;
+
+import com.frewen.network.logger.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.functions.Function;
+import retrofit2.HttpException;
+
+/**
+ * @filename: RetryExceptionFunc
+ * @introduction: 配合retryWhen使用的指数退避重试：网络异常、408、429和5xx时，等待delay、2*delay、4*delay...之后重新订阅，
+ * 最多重试retryCount次，等待时间不超过{@link #MAX_DELAY_MILLIS}。其他错误直接返回
+ * @author: Frewen.Wong
+ * @time: 2019/4/27 10:10
+ * Copyright ©2019 Frewen.Wong. All Rights Reserved.
+ */
+public class RetryExceptionFunc implements Function<Observable<Throwable>, ObservableSource<?>> {
+    private static final String TAG = "RetryExceptionFunc";
+    /**
+     * 单次等待的最长时间
+     */
+    public static final long MAX_DELAY_MILLIS = 30 * 1000;
+
+    private final int retryCount;
+    private final long delayMillis;
+
+    /**
+     * @param retryCount  最多重试次数
+     * @param delayMillis 第一次重试前的等待时间（毫秒）
+     */
+    public RetryExceptionFunc(int retryCount, long delayMillis) {
+        this.retryCount = retryCount;
+        this.delayMillis = delayMillis;
+    }
+
+    @Override
+    public ObservableSource<?> apply(Observable<Throwable> errors) {
+        // 每次订阅都会调用apply，重试次数不会在不同的订阅之间累计
+        return errors.flatMap(new Function<Throwable, ObservableSource<Long>>() {
+            private int retried;
+
+            @Override
+            public ObservableSource<Long> apply(Throwable throwable) {
+                if (retried >= retryCount || !isRetryable(throwable)) {
+                    return Observable.error(throwable);
+                }
+                long delay = Math.min(delayMillis << Math.min(retried, 16), MAX_DELAY_MILLIS);
+                retried++;
+                Logger.wTag(TAG, "retry " + retried + "/" + retryCount + " after " + delay + "ms, " + throwable);
+                return Observable.timer(delay, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    /**
+     * 网络异常和服务端暂时不可用可以重试，其他HTTP错误重试也不会成功
+     */
+    static boolean isRetryable(Throwable throwable) {
+        if (throwable instanceof IOException) {
+            return true;
+        }
+        if (throwable instanceof HttpException) {
+            int code = ((HttpException) throwable).code();
+            return code == 408 || code == 429 || code >= 500;
+        }
+        return false;
+    }
+}
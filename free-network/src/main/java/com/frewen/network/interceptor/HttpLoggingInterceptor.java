@@ -19,6 +19,7 @@ package com.frewen.network.interceptor;
 import java.io.IOException;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
@@ -38,6 +39,9 @@ import okio.Buffer;
 /**
  * <p>描述：设置日志拦截器</p>
  * 提供了详细、易懂的日志打印<br>
+ * BODY级别只通过peekBody读取响应体的前{@link #setMaxBodyBytes(long)}个字节，不会消费响应体，
+ * 也不会把整个响应体读入内存，@Streaming下载不受影响；非文本和压缩过的内容直接跳过。
+ * 级别为NONE或者没有被采样到的请求不做任何格式化<br>
  * 作者： zhouyou<br>
  * 日期： 2016/12/19 16:35<br>
  * 版本： v2.0<br>
@@ -45,8 +49,15 @@ import okio.Buffer;
 public class HttpLoggingInterceptor implements Interceptor {
 
     private static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * 默认最多打印的请求体和响应体字节数
+     */
+    public static final long DEFAULT_MAX_BODY_BYTES = 4 * 1024;
+    private static final Random RANDOM = new Random();
 
     private volatile Level level = Level.NONE;
+    private volatile long maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+    private volatile double sampleRate = 1;
     private Logger logger;
     private String tag;
     private boolean isLogEnable = false;
@@ -55,7 +66,7 @@ public class HttpLoggingInterceptor implements Interceptor {
         NONE,       //不打印log
         BASIC,      //只打印 请求首行 和 响应首行
         HEADERS,    //打印请求和响应的所有 Header
-        BODY        //所有数据全部打印
+        BODY        //打印Header和请求体、响应体的前maxBodyBytes个字节
     }
 
     public void log(String message) {
@@ -83,15 +94,44 @@ public class HttpLoggingInterceptor implements Interceptor {
         return level;
     }
 
+    /**
+     * BODY级别最多打印的请求体和响应体字节数，超过的部分截断
+     */
+    public HttpLoggingInterceptor setMaxBodyBytes(long maxBodyBytes) {
+        if (maxBodyBytes < 0) throw new IllegalArgumentException("maxBodyBytes < 0");
+        this.maxBodyBytes = maxBodyBytes;
+        return this;
+    }
+
+    public long getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    /**
+     * 采样率，只打印这个比例的请求，线上环境可以设置一个较小的值
+     *
+     * @param sampleRate 0到1，默认为1（全部打印）
+     */
+    public HttpLoggingInterceptor setSampleRate(double sampleRate) {
+        if (sampleRate < 0 || sampleRate > 1) throw new IllegalArgumentException("sampleRate must in [0, 1]");
+        this.sampleRate = sampleRate;
+        return this;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
     @Override
     public Response intercept(Chain chain) throws IOException {
         Request request = chain.request();
-        if (level == Level.NONE) {
+        Level level = this.level;
+        if (level == Level.NONE || !isSampled() || !logger.isLoggable(java.util.logging.Level.INFO)) {
             return chain.proceed(request);
         }
 
         //请求日志拦截
-        logForRequest(request, chain.connection());
+        logForRequest(level, request, chain.connection());
 
         //执行请求，计算请求时间
         long startNs = System.nanoTime();
@@ -104,81 +144,117 @@ public class HttpLoggingInterceptor implements Interceptor {
         }
         long tookMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
 
-        //Logc.e(tag, "+++++++++++++++++++++++++++end+++++++++++耗时:" + tookMs + "毫秒");
-
         //响应日志拦截
-        return logForResponse(response, tookMs);
+        logForResponse(level, response, tookMs);
+        return response;
     }
 
-    private void logForRequest(Request request, Connection connection) throws IOException {
-        log("-------------------------------request-------------------------------");
+    private boolean isSampled() {
+        double rate = sampleRate;
+        return rate >= 1 || (rate > 0 && RANDOM.nextDouble() < rate);
+    }
+
+    private void logForRequest(Level level, Request request, Connection connection) {
         boolean logBody = (level == Level.BODY);
         boolean logHeaders = (level == Level.BODY || level == Level.HEADERS);
         RequestBody requestBody = request.body();
-        boolean hasRequestBody = requestBody != null;
         Protocol protocol = connection != null ? connection.protocol() : Protocol.HTTP_1_1;
 
+        StringBuilder builder = new StringBuilder(128);
+        builder.append("-------------------------------request-------------------------------\n");
+        builder.append("--> ").append(request.method()).append(' ').append(request.url()).append(' ').append(protocol);
         try {
-            String requestStartMessage = "--> " + request.method() + ' ' + URLDecoder.decode(request.url().url().toString(), UTF8.name()) + ' ' + protocol;
-            log(requestStartMessage);
-
             if (logHeaders) {
-                Headers headers = request.headers();
-                for (int i = 0, count = headers.size(); i < count; i++) {
-                    log("\t" + headers.name(i) + ": " + headers.value(i));
-                }
-
-                //log(" ");
-                if (logBody && hasRequestBody) {
-                    if (isPlaintext(requestBody.contentType())) {
-                        bodyToString(request);
-                    } else {
-                        log("\tbody: maybe [file part] , too large too print , ignored!");
-                    }
+                appendHeaders(builder, request.headers());
+                if (logBody && requestBody != null) {
+                    appendRequestBody(builder, requestBody);
                 }
             }
         } catch (Exception e) {
             e(e);
-        } finally {
-            log("--> END " + request.method());
         }
+        builder.append("\n--> END ").append(request.method());
+        log(builder.toString());
     }
 
-    private Response logForResponse(Response response, long tookMs) {
-        log("-------------------------------response-------------------------------");
-        Response.Builder builder = response.newBuilder();
-        Response clone = builder.build();
-        ResponseBody responseBody = clone.body();
+    private void logForResponse(Level level, Response response, long tookMs) {
         boolean logBody = (level == Level.BODY);
         boolean logHeaders = (level == Level.BODY || level == Level.HEADERS);
 
+        StringBuilder builder = new StringBuilder(128);
+        builder.append("-------------------------------response-------------------------------\n");
+        builder.append("<-- ").append(response.code()).append(' ').append(response.message()).append(' ')
+                .append(response.request().url()).append(" (").append(tookMs).append("ms）");
         try {
-            log("<-- " + clone.code() + ' ' + clone.message() + ' ' + URLDecoder.decode(clone.request().url().url().toString(), UTF8.name()) + " (" + tookMs + "ms）");
             if (logHeaders) {
-                log(" ");
-                Headers headers = clone.headers();
-                for (int i = 0, count = headers.size(); i < count; i++) {
-                    log("\t" + headers.name(i) + ": " + headers.value(i));
-                }
-                log(" ");
-                if (logBody && HttpHeaders.hasBody(clone)) {
-                    if (isPlaintext(responseBody.contentType())) {
-                        String body = responseBody.string();
-                        log("\tbody:" + body);
-                        responseBody = ResponseBody.create(responseBody.contentType(), body);
-                        return response.newBuilder().body(responseBody).build();
-                    } else {
-                        log("\tbody: maybe [file part] , too large too print , ignored!");
-                    }
+                appendHeaders(builder, response.headers());
+                if (logBody && HttpHeaders.hasBody(response)) {
+                    appendResponseBody(builder, response);
                 }
-                log(" ");
             }
         } catch (Exception e) {
             e(e);
-        } finally {
-            log("<-- END HTTP");
         }
-        return response;
+        builder.append("\n<-- END HTTP");
+        log(builder.toString());
+    }
+
+    private static void appendHeaders(StringBuilder builder, Headers headers) {
+        for (int i = 0, count = headers.size(); i < count; i++) {
+            builder.append("\n\t").append(headers.name(i)).append(": ").append(headers.value(i));
+        }
+    }
+
+    /**
+     * 只打印长度已知并且不超过maxBodyBytes的文本请求体，其他请求体不写出，避免复制大文件或者流
+     */
+    private void appendRequestBody(StringBuilder builder, RequestBody requestBody) throws IOException {
+        MediaType contentType = requestBody.contentType();
+        long contentLength = requestBody.contentLength();
+        if (!isPlaintext(contentType)) {
+            builder.append("\n\tbody: [").append(contentType).append(", ").append(contentLength)
+                    .append("-byte body omitted]");
+            return;
+        }
+        if (contentLength < 0 || contentLength > maxBodyBytes) {
+            builder.append("\n\tbody: [").append(contentLength).append("-byte body omitted]");
+            return;
+        }
+        Buffer buffer = new Buffer();
+        requestBody.writeTo(buffer);
+        String body = buffer.readString(contentType.charset(UTF8));
+        if (contentType.subtype() != null && contentType.subtype().contains("x-www-form-urlencoded")) {
+            body = URLDecoder.decode(body, UTF8.name());
+        }
+        builder.append("\n\tbody:").append(body);
+    }
+
+    /**
+     * 通过peekBody最多读取maxBodyBytes个字节，原来的响应体不受影响。非文本和压缩过的响应体不读取
+     */
+    private void appendResponseBody(StringBuilder builder, Response response) throws IOException {
+        ResponseBody responseBody = response.body();
+        if (responseBody == null) {
+            return;
+        }
+        MediaType contentType = responseBody.contentType();
+        long contentLength = responseBody.contentLength();
+        String contentEncoding = response.header("Content-Encoding");
+        if (!isPlaintext(contentType)
+                || (contentEncoding != null && !"identity".equalsIgnoreCase(contentEncoding))) {
+            builder.append("\n\tbody: [").append(contentType).append(", ").append(contentLength)
+                    .append("-byte body omitted]");
+            return;
+        }
+        long max = maxBodyBytes;
+        ResponseBody peeked = response.peekBody(max);
+        String body = new String(peeked.bytes(), contentType.charset(UTF8));
+        builder.append("\n\tbody:").append(body);
+        boolean truncated = (contentLength >= 0) ? contentLength > max : peeked.contentLength() >= max;
+        if (truncated) {
+            builder.append("...[truncated, ").append(contentLength >= 0 ? contentLength + "-byte body" : "more")
+                    .append(']');
+        }
     }
 
     /**
@@ -202,23 +278,7 @@ public class HttpLoggingInterceptor implements Interceptor {
         return false;
     }
 
-    private void bodyToString(Request request) {
-        try {
-            final Request copy = request.newBuilder().build();
-            final Buffer buffer = new Buffer();
-            copy.body().writeTo(buffer);
-            Charset charset = UTF8;
-            MediaType contentType = copy.body().contentType();
-            if (contentType != null) {
-                charset = contentType.charset(UTF8);
-            }
-            log("\tbody:" + URLDecoder.decode(buffer.readString(charset), UTF8.name()));
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
     public void e(java.lang.Throwable t) {
         if (isLogEnable) t.printStackTrace();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,471 @@
+package com.frewen.network.logger;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @filename: LogFileAppender
+ * @introduction: 日志文件的异步写入。调用线程只把日志放入无锁队列（多生产者单消费者），不做格式化和IO；
+ * 写入线程批量取出日志，在同一个StringBuilder中格式化，编码到复用的ByteBuffer后通过一直打开的FileChannel追加写入。
+ * 日志文件按天切分，超过{@link Logger.Config#setFileMaxSize(long)}之后切换到带序号的新文件；
+ * 队列满时丢弃新的日志并记录丢弃的条数。进程崩溃或退出时在当前线程同步写完队列中剩余的日志
+ * @author: Frewen.Wong
+ * @time: 2019/4/28 10:20
+ * Copyright ©2019 Frewen.Wong. All Rights Reserved.
+ */
+final class LogFileAppender {
+    private static final String TAG = "LogFileAppender";
+    /**
+     * 队列中最多缓存的日志条数，超过时丢弃新的日志
+     */
+    private static final int CAPACITY = 8192;
+    /**
+     * 队列中的日志达到这个数量时唤醒写入线程，否则写入线程每隔FLUSH_INTERVAL_MS写入一次
+     */
+    private static final int WAKE_THRESHOLD = CAPACITY / 4;
+    private static final long FLUSH_INTERVAL_MS = 200;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String LINE_SEP = System.getProperty("line.separator");
+
+    private static volatile LogFileAppender sInstance;
+
+    private final ConcurrentLinkedQueue<Entry> mQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mSize = new AtomicInteger();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final Thread mWriter;
+    /**
+     * 写入线程和崩溃时的同步写入共用以下状态，只在持有这个锁时访问
+     */
+    private final Object mWriteLock = new Object();
+    private final StringBuilder mText = new StringBuilder(BUFFER_SIZE);
+    private final ByteBuffer mBytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder mEncoder = Charset.forName("UTF-8").newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final SimpleDateFormat mDayFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
+    private final SimpleDateFormat mTimeFormat = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
+    private FileChannel mChannel;
+    private long mFileSize;
+    private int mIndex;
+    private String mDir;
+    private String mPrefix;
+    /**
+     * 目录或者前缀为空时不输出到文件，只在变为无效时记录一次错误
+     */
+    private boolean mDisabled;
+    private String mProcessName;
+    private String mDay;
+    private long mDayStart;
+    private long mNextDayStart;
+    private String mCleanedDay;
+    private long mLastSecond = -1;
+    private String mTimeText;
+
+    private LogFileAppender() {
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "Logger-FileWriter");
+        mWriter.setDaemon(true);
+        mWriter.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    /**
+     * 第一次输出日志到文件时创建，同时启动写入线程并注册崩溃和退出时的写入
+     */
+    static LogFileAppender getInstance() {
+        LogFileAppender appender = sInstance;
+        if (appender == null) {
+            synchronized (LogFileAppender.class) {
+                appender = sInstance;
+                if (appender == null) {
+                    appender = new LogFileAppender();
+                    appender.mWriter.start();
+                    appender.installCrashHook();
+                    sInstance = appender;
+                }
+            }
+        }
+        return appender;
+    }
+
+    /**
+     * @return 还没有输出过日志到文件时为null
+     */
+    static LogFileAppender peekInstance() {
+        return sInstance;
+    }
+
+    /**
+     * 在调用线程中只记录时间并放入队列
+     *
+     * @param level 日志级别的字符，如'D'
+     */
+    void append(char level, String tag, String msg) {
+        long now = System.currentTimeMillis();
+        int size = mSize.incrementAndGet();
+        if (size > CAPACITY) {
+            mSize.decrementAndGet();
+            mDropped.incrementAndGet();
+            return;
+        }
+        mQueue.offer(new Entry(now, level, tag, msg));
+        if (size == WAKE_THRESHOLD) {
+            LockSupport.unpark(mWriter);
+        }
+    }
+
+    /**
+     * 在当前线程同步写完队列中的日志并刷到磁盘
+     */
+    void flush() {
+        drain(true);
+    }
+
+    private void installCrashHook() {
+        final Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                try {
+                    append('E', "UncaughtException", " " + t.getName() + LINE_SEP + Log.getStackTraceString(e));
+                    flush();
+                } catch (Throwable ignored) {
+                    // 写日志失败不能影响原来的崩溃处理
+                }
+                if (previous != null) {
+                    previous.uncaughtException(t, e);
+                }
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, "Logger-FileFlush"));
+    }
+
+    private void loop() {
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS);
+        for (; ; ) {
+            try {
+                drain(false);
+            } catch (Throwable e) {
+                // 写入线程退出之后队列满了就会丢弃所有日志，所以任何错误都不能让它退出
+                Log.e(TAG, "write log failed:" + Log.getStackTraceString(e));
+            }
+            if (mSize.get() < WAKE_THRESHOLD) {
+                LockSupport.parkNanos(this, intervalNanos);
+            }
+        }
+    }
+
+    private void drain(boolean force) {
+        synchronized (mWriteLock) {
+            if (!checkConfig()) {
+                discard();
+                return;
+            }
+            Entry entry;
+            while ((entry = mQueue.poll()) != null) {
+                mSize.decrementAndGet();
+                if (!ensureFile(entry.time)) {
+                    continue;
+                }
+                appendLine(entry);
+                if (mText.length() >= BUFFER_SIZE) {
+                    write();
+                }
+            }
+            long dropped = mDropped.getAndSet(0);
+            if (dropped > 0 && ensureFile(System.currentTimeMillis())) {
+                mText.append("... ").append(dropped).append(" lines dropped").append(LINE_SEP);
+            }
+            write();
+            if (force && mChannel != null) {
+                try {
+                    mChannel.force(false);
+                } catch (IOException e) {
+                    Log.e(TAG, "force log failed:" + Log.getStackTraceString(e));
+                }
+            }
+        }
+    }
+
+    /**
+     * 目录、前缀在运行时被修改之后切换到新的文件，每批日志只检查一次
+     *
+     * @return 目录和前缀是否有效，无效时不输出到文件，重新设置之后恢复
+     */
+    private boolean checkConfig() {
+        Logger.Config config = Logger.getConfig();
+        String dir = config.getDir();
+        String prefix = config.getFilePrefix();
+        if (isEmpty(dir) || isEmpty(prefix)) {
+            if (!mDisabled) {
+                mDisabled = true;
+                Log.e(TAG, "log dir or file prefix is empty, file output disabled! dir: " + dir
+                        + ", prefix: " + prefix);
+                write();
+                close();
+                mDir = null;
+                mPrefix = null;
+            }
+            return false;
+        }
+        mDisabled = false;
+        if (dir.equals(mDir) && prefix.equals(mPrefix)) {
+            return true;
+        }
+        write();
+        close();
+        mDir = dir;
+        mPrefix = prefix;
+        mProcessName = config.getProcessName();
+        mIndex = 0;
+        mCleanedDay = null;
+        return true;
+    }
+
+    /**
+     * 不能输出到文件时丢弃队列中的日志，避免队列一直是满的
+     */
+    private void discard() {
+        while (mQueue.poll() != null) {
+            mSize.decrementAndGet();
+        }
+        mDropped.set(0);
+    }
+
+    private static boolean isEmpty(String s) {
+        return s == null || s.length() == 0;
+    }
+
+    private void appendLine(Entry entry) {
+        long second = entry.time / 1000;
+        if (second != mLastSecond) {
+            mLastSecond = second;
+            mTimeText = mTimeFormat.format(new Date(entry.time));
+        }
+        mText.append(mTimeText)
+                .append(entry.level)
+                .append('/')
+                .append(entry.tag)
+                .append(entry.msg)
+                .append(LINE_SEP);
+    }
+
+    /**
+     * 确保当前打开的是time所在日期的日志文件，跨天时写完之前的日志再切换
+     *
+     * @return 文件是否可以写入，打开失败时丢弃这条日志
+     */
+    private boolean ensureFile(long time) {
+        if (time < mDayStart || time >= mNextDayStart) {
+            write();
+            close();
+            switchDay(time);
+        }
+        if (mChannel != null) {
+            return true;
+        }
+        return open();
+    }
+
+    private void switchDay(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        mDayStart = calendar.getTimeInMillis();
+        mDay = mDayFormat.format(calendar.getTime());
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        mNextDayStart = calendar.getTimeInMillis();
+        mIndex = 0;
+    }
+
+    /**
+     * 打开当天的日志文件，已经写满的文件跳过。新文件先写入设备信息
+     */
+    private boolean open() {
+        File dir = new File(mDir);
+        if (!(dir.exists() ? dir.isDirectory() : dir.mkdirs())) {
+            Log.e(TAG, "create " + mDir + " failed!");
+            return false;
+        }
+        if (!mDay.equals(mCleanedDay)) {
+            mCleanedDay = mDay;
+            deleteDueLogs(dir);
+        }
+        long maxSize = Logger.getConfig().getFileMaxSize();
+        File file = new File(dir, fileName(mIndex));
+        while (maxSize > 0 && file.length() >= maxSize) {
+            file = new File(dir, fileName(++mIndex));
+        }
+        boolean isNew = file.length() == 0;
+        try {
+            mChannel = new FileOutputStream(file, true).getChannel();
+            mFileSize = mChannel.size();
+        } catch (IOException e) {
+            Log.e(TAG, "open " + file + " failed!");
+            mChannel = null;
+            return false;
+        }
+        if (isNew) {
+            mText.append(Logger.getLogHead(mDay));
+        }
+        return true;
+    }
+
+    /**
+     * 第一个文件为prefix-yyyy-MM-dd-process.txt，超过大小之后为prefix-yyyy-MM-dd-process.1.txt，依此类推
+     */
+    private String fileName(int index) {
+        StringBuilder builder = new StringBuilder(mPrefix.length() + mProcessName.length() + 20);
+        builder.append(mPrefix).append('-').append(mDay).append('-').append(mProcessName);
+        if (index > 0) {
+            builder.append('.').append(index);
+        }
+        return builder.append(".txt").toString();
+    }
+
+    /**
+     * 删除超过保留天数的日志。文件名中的日期是yyyy-MM-dd，直接按照字符串比较，不需要解析
+     */
+    private void deleteDueLogs(File dir) {
+        int saveDays = Logger.getConfig().getSaveDays();
+        if (saveDays <= 0) {
+            return;
+        }
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(mDayStart);
+        calendar.add(Calendar.DAY_OF_MONTH, -saveDays);
+        String dueDay = mDayFormat.format(calendar.getTime());
+        String head = mPrefix + "-";
+        int dayStart = head.length();
+        int dayEnd = dayStart + 10;
+        for (String name : names) {
+            if (name.length() <= dayEnd
+                    || !name.startsWith(head)
+                    || !name.endsWith(".txt")
+                    || name.charAt(dayEnd) != '-'
+                    || !name.startsWith(mProcessName, dayEnd + 1)) {
+                continue;
+            }
+            String day = name.substring(dayStart, dayEnd);
+            if (isDay(day) && day.compareTo(dueDay) <= 0) {
+                File file = new File(dir, name);
+                if (!file.delete()) {
+                    Log.e(TAG, "delete " + file + " failed!");
+                }
+            }
+        }
+    }
+
+    private static boolean isDay(String s) {
+        for (int i = 0; i < 10; i++) {
+            char c = s.charAt(i);
+            if ((i == 4 || i == 7) ? c != '-' : (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把mText编码后写入文件，写满之后关闭，下一条日志打开新的文件
+     */
+    private void write() {
+        if (mText.length() == 0) {
+            return;
+        }
+        if (mChannel == null) {
+            mText.setLength(0);
+            return;
+        }
+        CharBuffer chars = CharBuffer.wrap(mText);
+        mEncoder.reset();
+        try {
+            while (mEncoder.encode(chars, mBytes, true) == CoderResult.OVERFLOW) {
+                writeBytes();
+            }
+            while (mEncoder.flush(mBytes) == CoderResult.OVERFLOW) {
+                writeBytes();
+            }
+            writeBytes();
+        } catch (IOException e) {
+            Log.e(TAG, "write log failed:" + Log.getStackTraceString(e));
+            mBytes.clear();
+            close();
+        } finally {
+            mText.setLength(0);
+        }
+        long maxSize = Logger.getConfig().getFileMaxSize();
+        if (mChannel != null && maxSize > 0 && mFileSize >= maxSize) {
+            close();
+            mIndex++;
+        }
+    }
+
+    private void writeBytes() throws IOException {
+        mBytes.flip();
+        while (mBytes.hasRemaining()) {
+            mFileSize += mChannel.write(mBytes);
+        }
+        mBytes.clear();
+    }
+
+    private void close() {
+        if (mChannel == null) {
+            return;
+        }
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "close log file failed:" + Log.getStackTraceString(e));
+        }
+        mChannel = null;
+    }
+
+    private static final class Entry {
+        private final long time;
+        private final char level;
+        private final String tag;
+        private final String msg;
+
+        private Entry(long time, char level, String tag, String msg) {
+            this.time = time;
+            this.level = level;
+            this.tag = tag;
+            this.msg = msg;
+        }
+    }
+}
@@ -24,28 +24,18 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.FilenameFilter;
-import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.Formatter;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Source;
@@ -116,11 +106,6 @@ public final class Logger {
     private static final Gson GSON = new GsonBuilder()
             .setPrettyPrinting().serializeNulls().create();
 
-    private static final ThreadLocal<SimpleDateFormat> SDF_THREAD_LOCAL = new ThreadLocal<>();
-    /**
-     * 单个线程池
-     */
-    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
     /**
      * 设置SimpleArrayMap
      */
@@ -610,106 +595,31 @@ public final class Logger {
     }
 
     /**
-     * 往文件中进行输出日志
+     * 往文件中进行输出日志。调用线程只把日志放入队列，格式化和写文件都在{@link LogFileAppender}的写入线程中批量完成
      * @param type
      * @param tag
      * @param msg
      */
     private static void print2File(final int type, final String tag, final String msg) {
-        Date now = new Date(System.currentTimeMillis());
-        String format = getSdf().format(now);
-        String date = format.substring(0, 10);
-        String time = format.substring(11);
-        final String fullPath =
-                CONFIG.getDir() + CONFIG.getFilePrefix() + "-" + date + "-" + CONFIG.getProcessName() + ".txt";
-        if (!createOrExistsFile(fullPath)) {
-            Log.e("LogUtils", "create " + fullPath + " failed!");
-            return;
-        }
-        StringBuilder sb = new StringBuilder();
-        sb.append(time)
-                .append(T[type - V])
-                .append("/")
-                .append(tag)
-                .append(msg)
-                .append(LINE_SEP);
-        final String content = sb.toString();
-        input2File(content, fullPath);
+        LogFileAppender.getInstance().append(T[type - V], tag, msg);
     }
 
-    private static SimpleDateFormat getSdf() {
-        SimpleDateFormat simpleDateFormat = SDF_THREAD_LOCAL.get();
-        if (simpleDateFormat == null) {
-            simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
-            SDF_THREAD_LOCAL.set(simpleDateFormat);
-        }
-        return simpleDateFormat;
-    }
-
-    private static boolean createOrExistsFile(final String filePath) {
-        File file = new File(filePath);
-        if (file.exists()) {
-            return file.isFile();
-        }
-        if (!createOrExistsDir(file.getParentFile())) {
-            return false;
-        }
-        try {
-            deleteDueLogs(filePath);
-            boolean isCreate = file.createNewFile();
-            if (isCreate) {
-                printDeviceInfo(filePath);
-            }
-            return isCreate;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
-    }
-
-    private static void deleteDueLogs(String filePath) {
-        if (CONFIG.getSaveDays() <= 0) {
-            return;
-        }
-        File file = new File(filePath);
-        File parentFile = file.getParentFile();
-        File[] files = parentFile.listFiles(new FilenameFilter() {
-            @Override
-            public boolean accept(File dir, String name) {
-                return name.matches("^" + CONFIG.getFilePrefix() + "-[0-9]{4}-[0-9]{2}-[0-9]{2}-"
-                        + CONFIG.getProcessName() + ".txt$");
-            }
-        });
-        if (files == null || files.length <= 0) {
-            return;
-        }
-        final int length = filePath.length();
-        final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
-        try {
-            String curDay = filePath.substring(length - 14, length - 4);
-            long dueMillis = sdf.parse(curDay).getTime() - CONFIG.getSaveDays() * 86400000L;
-            for (final File aFile : files) {
-                String name = aFile.getName();
-                int l = name.length();
-                String logDay = name.substring(l - 14, l - 4);
-                if (sdf.parse(logDay).getTime() <= dueMillis) {
-                    EXECUTOR.execute(new Runnable() {
-                        @Override
-                        public void run() {
-                            boolean delete = aFile.delete();
-                            if (!delete) {
-                                Log.e("LogUtils", "delete " + aFile + " failed!");
-                            }
-                        }
-                    });
-                }
-            }
-        } catch (ParseException e) {
-            e.printStackTrace();
+    /**
+     * 同步写完还在队列中的文件日志并刷到磁盘，如在退到后台时调用。崩溃时会自动调用
+     */
+    public static void flush() {
+        LogFileAppender appender = LogFileAppender.peekInstance();
+        if (appender != null) {
+            appender.flush();
         }
     }
 
-    private static void printDeviceInfo(final String filePath) {
+    /**
+     * 新建日志文件时写在开头的设备信息
+     * @param date 日志文件的日期
+     * @return
+     */
+    static String getLogHead(final String date) {
         String versionName = "";
         int versionCode = 0;
         Application application = FreeRxHttp.getInstance().getContext();
@@ -724,19 +634,12 @@ public final class Logger {
         } catch (PackageManager.NameNotFoundException e) {
             e.printStackTrace();
         }
-        String time = filePath.substring(filePath.length() - 14, filePath.length() - 4);
-        final String head =
-                "************* Log Head ****************" + "\nDate of Log        : " + time
-                        + "\nDevice Manufacturer: " + Build.MANUFACTURER + "\nDevice Model       : "
-                        + Build.MODEL + "\nAndroid Version    : " + Build.VERSION.RELEASE
-                        + "\nAndroid SDK        : " + Build.VERSION.SDK_INT + "\nApp VersionName   "
-                        + " : " + versionName + "\nApp VersionCode    : " + versionCode + "\n"
-                        + "************* Log Head ****************\n\n";
-        input2File(head, filePath);
-    }
-
-    private static boolean createOrExistsDir(final File file) {
-        return file != null && (file.exists() ? file.isDirectory() : file.mkdirs());
+        return "************* Log Head ****************" + "\nDate of Log        : " + date
+                + "\nDevice Manufacturer: " + Build.MANUFACTURER + "\nDevice Model       : "
+                + Build.MODEL + "\nAndroid Version    : " + Build.VERSION.RELEASE
+                + "\nAndroid SDK        : " + Build.VERSION.SDK_INT + "\nApp VersionName   "
+                + " : " + versionName + "\nApp VersionCode    : " + versionCode + "\n"
+                + "************* Log Head ****************\n\n";
     }
 
     private static boolean isSpace(final String s) {
@@ -751,34 +654,6 @@ public final class Logger {
         return true;
     }
 
-    /**
-     * @param input
-     * @param filePath
-     */
-    private static void input2File(final String input, final String filePath) {
-        EXECUTOR.execute(new Runnable() {
-            @Override
-            public void run() {
-                BufferedWriter bw = null;
-                try {
-                    bw = new BufferedWriter(new FileWriter(filePath, true));
-                    bw.write(input);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    Log.e("LogUtils", "log to " + filePath + " failed!");
-                } finally {
-                    try {
-                        if (bw != null) {
-                            bw.close();
-                        }
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-        });
-    }
-
     /**
      * * 日志打印开关的配置
      */
@@ -799,6 +674,7 @@ public final class Logger {
         private int mStackDeep = 1;     // The stack's deep of log.
         private int mStackOffset = 0;     // The stack's offset of log.
         private int mSaveDays = -1;    // The save days of log.
+        private long mFileMaxSize = 8 * 1024 * 1024; // The max size of one log file.
         private String mProcessName = getCurrentProcessName();
 
         /**
@@ -981,6 +857,16 @@ public final class Logger {
             return this;
         }
 
+        /**
+         * 设置单个日志文件的大小上限，超过之后写入同一天带序号的新文件，默认 8M，小于等于 0 表示不限制
+         * @param fileMaxSize
+         * @return
+         */
+        public Config setFileMaxSize(final long fileMaxSize) {
+            mFileMaxSize = fileMaxSize;
+            return this;
+        }
+
         /**
          * 增加格式化对虾女工
          * @param iFormatter
@@ -1117,6 +1003,14 @@ public final class Logger {
             return mSaveDays;
         }
 
+        /**
+         * 获取单个日志文件的大小上限
+         * @return
+         */
+        public long getFileMaxSize() {
+            return mFileMaxSize;
+        }
+
         /**
          * 获取当前级进程的名称
          * @return
@@ -3,10 +3,20 @@ package com.frewen.network.request;
 import android.content.Context;
 import android.text.TextUtils;
 
+import com.frewen.network.api.ApiService;
+import com.frewen.network.cache.CacheMode;
+import com.frewen.network.cache.RxCache;
+import com.frewen.network.cache.model.CacheResult;
 import com.frewen.network.core.FreeRxHttp;
 import com.frewen.network.model.HttpHeaders;
 import com.frewen.network.model.HttpParams;
+import com.frewen.network.utils.CommonUtils;
 
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.reactivex.ObservableTransformer;
 
 import okhttp3.HttpUrl;
 
@@ -27,6 +37,10 @@ public abstract class BaseRequest<R extends BaseRequest> {
     protected long writeTimeOut;                                           //写超时
     protected long connectTimeout;                                         //链接超时
     protected int retryCount;                                              //重试次数默认3次
+    protected long retryDelay;                                             //第一次重试前的等待时间（毫秒）
+    protected CacheMode cacheMode;                                         //缓存模式
+    protected String cacheKey;                                             //缓存Key，为空时使用请求的指纹
+    protected long cacheMaxAge;                                            //缓存有效期（毫秒），-1表示永久有效
 
     private HttpUrl httpUrl;
     protected HttpHeaders headers = new HttpHeaders();
@@ -51,6 +65,10 @@ public abstract class BaseRequest<R extends BaseRequest> {
         }
         //超时重试次数
         retryCount = httpClient.getRetryCount();
+        retryDelay = httpClient.getRetryDelay();
+        //缓存
+        cacheMode = httpClient.getCacheMode();
+        cacheMaxAge = httpClient.getCacheMaxAge();
 
         //默认添加 Accept-Language
         String acceptLanguage = HttpHeaders.getAcceptLanguage();
@@ -73,6 +91,127 @@ public abstract class BaseRequest<R extends BaseRequest> {
         }
     }
 
+    /**
+     * 添加请求参数
+     */
+    public R params(String key, String value) {
+        params.put(key, value);
+        return (R) this;
+    }
+
+    /**
+     * 添加请求参数
+     */
+    public R params(HttpParams params) {
+        this.params.put(params);
+        return (R) this;
+    }
+
+    /**
+     * 重试次数，覆盖全局设置
+     */
+    public R retryCount(int retryCount) {
+        if (retryCount < 0) {
+            throw new IllegalArgumentException("retryCount must >= 0");
+        }
+        this.retryCount = retryCount;
+        return (R) this;
+    }
+
+    /**
+     * 第一次重试前的等待时间（毫秒），之后每次重试加倍，覆盖全局设置
+     */
+    public R retryDelay(long retryDelay) {
+        if (retryDelay < 0) {
+            throw new IllegalArgumentException("retryDelay must >= 0");
+        }
+        this.retryDelay = retryDelay;
+        return (R) this;
+    }
+
+    /**
+     * 缓存模式，覆盖全局设置
+     */
+    public R cacheMode(CacheMode cacheMode) {
+        this.cacheMode = CommonUtils.checkNotNull(cacheMode, "cacheMode == null");
+        return (R) this;
+    }
+
+    /**
+     * 缓存Key，不设置时使用请求的指纹（URL加上排序后的参数和请求头）
+     */
+    public R cacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+        return (R) this;
+    }
+
+    /**
+     * 缓存有效期（毫秒），-1表示永久有效
+     */
+    public R cacheMaxAge(long cacheMaxAge) {
+        if (cacheMaxAge <= -1) {
+            cacheMaxAge = -1;
+        }
+        this.cacheMaxAge = cacheMaxAge;
+        return (R) this;
+    }
+
+    public CacheMode getCacheMode() {
+        return cacheMode;
+    }
+
+    public long getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    /**
+     * 缓存Key，没有设置时为请求的指纹{@link #fingerprint()}
+     */
+    public String getCacheKey() {
+        if (!TextUtils.isEmpty(cacheKey)) {
+            return cacheKey;
+        }
+        return fingerprint();
+    }
+
+    /**
+     * 请求的指纹：BaseUrl、URL、按key排序的参数和按key排序的请求头，与添加顺序无关。
+     * 请求头包括公共请求头，Authorization、Cookie等不同时响应也可能不同，不能共用缓存
+     */
+    protected String fingerprint() {
+        StringBuilder builder = new StringBuilder();
+        if (baseUrl != null) {
+            builder.append(baseUrl);
+        }
+        builder.append(url).append('?');
+        for (Map.Entry<String, String> entry : new TreeMap<>(params.urlParamsMap).entrySet()) {
+            builder.append(entry.getKey()).append('=').append(entry.getValue()).append('&');
+        }
+        builder.append('\n');
+        for (Map.Entry<String, String> entry : new TreeMap<>(headers.headersMap).entrySet()) {
+            builder.append(entry.getKey()).append(':').append(entry.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 这个请求的BaseUrl对应的ApiService
+     */
+    protected ApiService getApiService() {
+        CommonUtils.checkNotNull(baseUrl, "baseUrl == null, call FreeRxHttp.setBaseUrl() or use an absolute url");
+        return FreeRxHttp.getInstance().getApiService(baseUrl);
+    }
+
+    /**
+     * 按照这个请求的缓存模式把网络请求转换成缓存结果
+     *
+     * @param type 数据类型，用于解析缓存
+     */
+    protected <T> ObservableTransformer<T, CacheResult<T>> cacheTransformer(Type type) {
+        RxCache rxCache = FreeRxHttp.getInstance().getRxCache();
+        return rxCache.transformer(cacheMode, getCacheKey(), cacheMaxAge, type);
+    }
+
     /**
      * 添加头信息
      */
@@ -1,12 +1,25 @@
 package com.frewen.network.request;
 
-import com.frewen.network.BaseResponse;
+import com.frewen.network.cache.model.CacheResult;
+import com.frewen.network.core.FreeRxHttp;
+import com.frewen.network.func.RetryExceptionFunc;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.Callable;
 
 import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.ResponseBody;
 
 /**
  * @filename: GetRequest
- * @introduction:
+ * @introduction: GET请求。请求失败时按照retryCount指数退避重试；相同的GET请求（URL、参数和请求头都相同）
+ * 正在执行时不再单独发送，共用同一个响应；再按照cacheMode组合缓存。在IO线程执行，在主线程回调
  * @author: Frewen.Wong
  * @time: 2019/4/15 0015 下午6:19
  * Copyright ©2019 Frewen.Wong. All Rights Reserved.
@@ -17,7 +30,72 @@ public class GetRequest extends BaseRequest<GetRequest> {
         super(url);
     }
 
+    /**
+     * 执行请求，响应体使用Gson解析为clazz，clazz为String时直接返回响应体
+     */
     public <T> Observable<T> execute(Class<T> clazz) {
-        return null;
+        return executeWithCache(clazz).map(new Function<CacheResult<T>, T>() {
+            @Override
+            public T apply(CacheResult<T> result) {
+                return result.getData();
+            }
+        });
+    }
+
+    /**
+     * 执行请求，结果中可以区分数据来自缓存还是网络，CACHEANDREMOTE等模式会返回两次
+     */
+    public <T> Observable<CacheResult<T>> executeWithCache(final Class<T> clazz) {
+        return remote()
+                .map(new Function<String, T>() {
+                    @Override
+                    public T apply(String body) {
+                        return parse(body, clazz);
+                    }
+                })
+                .compose(this.<T>cacheTransformer(clazz))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * 网络请求：失败时退避重试，相同的请求合并。订阅时才创建，获取ApiService等工作在订阅线程（IO线程）执行，
+     * baseUrl为空等错误也通过onError返回；ONLYCACHE等不访问网络的模式不会订阅，也就不会创建
+     */
+    private Observable<String> remote() {
+        return Observable.defer(new Callable<ObservableSource<String>>() {
+            @Override
+            public ObservableSource<String> call() {
+                Observable<String> source = getApiService()
+                        .get(url, headers.headersMap, params.urlParamsMap)
+                        .map(new Function<ResponseBody, String>() {
+                            @Override
+                            public String apply(ResponseBody body) throws Exception {
+                                try {
+                                    return body.string();
+                                } finally {
+                                    body.close();
+                                }
+                            }
+                        })
+                        .retryWhen(new RetryExceptionFunc(retryCount, retryDelay));
+                // 合并的依据是请求的指纹：URL、参数和请求头都相同
+                return FreeRxHttp.getInstance().getInFlightRequests().dedup(fingerprint(), source);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T parse(String body, Type type) {
+        if (type == String.class) {
+            return (T) body;
+        }
+        Gson gson = FreeRxHttp.getInstance().getGson();
+        T data = gson.fromJson(body, type);
+        if (data == null) {
+            // RxJava不允许发送null
+            throw new JsonParseException("empty response body");
+        }
+        return data;
     }
 }
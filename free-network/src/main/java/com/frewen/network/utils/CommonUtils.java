@@ -3,6 +3,10 @@ package com.frewen.network.utils;
 
 import androidx.annotation.Nullable;
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 /**
  * @filename: CommonUtils
  * @introduction:
@@ -22,4 +26,21 @@ public class CommonUtils {
         }
         return object;
     }
+
+    /**
+     * 字符串UTF-8编码之后的MD5，32位小写十六进制
+     */
+    public static String md5(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            return Integer.toHexString(value.hashCode());
+        }
+    }
 }
@@ -1,15 +1,16 @@
 package com.frewen.github.library.network.core;
 
 import com.frewen.aura.toolkits.utils.AssertionsUtils;
+import com.frewen.network.core.HttpClientCore;
 import com.frewen.github.library.network.env.AbsProgramEnv;
 import com.frewen.github.library.network.env.Env;
 import com.frewen.github.library.network.interceptor.RequestInterceptor;
 import com.frewen.github.library.network.interceptor.ResponseInterceptor;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 
-import okhttp3.Cache;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.logging.HttpLoggingInterceptor;
@@ -26,6 +27,7 @@ import retrofit2.converter.gson.GsonConverterFactory;
  */
 public abstract class NetworkApi implements AbsProgramEnv {
 
+    private static final String HTTP_CACHE_DIR = "http-cache";
     private static Map<String, Retrofit> retrofitHashMap = new HashMap<>();
     private static AbsNetworkConfig networkConfig;
     private String mBaseUrl;
@@ -83,13 +85,15 @@ public abstract class NetworkApi implements AbsProgramEnv {
 
     private OkHttpClient getOkHttpClient() {
         if (mOkHttpClient == null) {
-            OkHttpClient.Builder okHttpClientBuilder = new OkHttpClient.Builder();
+            // 从进程内共享的OkHttpClient派生，共用连接池和Dispatcher
+            OkHttpClient.Builder okHttpClientBuilder = HttpClientCore.getInstance().newBuilder();
             if (getInterceptor() != null) {
                 okHttpClientBuilder.addInterceptor(getInterceptor());
             }
-            // 缓存大小是10MB
+            // 缓存大小是10MB，所有NetworkApi共用同一个缓存
             int cacheSize = 10 * 1024 * 1024;
-            okHttpClientBuilder.cache(new Cache(networkConfig.getAppContext().getCacheDir(), cacheSize));
+            File cacheDir = new File(networkConfig.getAppContext().getCacheDir(), HTTP_CACHE_DIR);
+            okHttpClientBuilder.cache(HttpClientCore.getInstance().getCache(cacheDir, cacheSize));
             okHttpClientBuilder.addInterceptor(new RequestInterceptor(networkConfig));
             okHttpClientBuilder.addInterceptor(new ResponseInterceptor());
             if (networkConfig != null && (networkConfig.isDebug())) {
@@ -2,6 +2,7 @@ package com.frewen.android.demo.network
 
 import com.frewen.github.library.common.Config
 import com.frewen.aura.framework.net.LoggerInterceptor
+import com.frewen.network.core.HttpClientCore
 import okhttp3.Interceptor
 import okhttp3.OkHttpClient
 import retrofit2.Retrofit
@@ -75,11 +76,12 @@ class RetrofitFactory private constructor() {
 
     /**
      * 实例化OKHttpClient
+     * 从进程内共享的OkHttpClient派生，和NetworkApi、FreeRxHttp共用连接池和Dispatcher
      *
      * 在方法的名字后面加一个？ 表示可以为空。
      */
     private fun getHttpClient(): OkHttpClient {
-        return OkHttpClient.Builder()
+        return HttpClientCore.getInstance().newBuilder()
                 .addInterceptor(initHeaderInterceptor())
                 .addInterceptor(initLoggerInterceptor())
                 .connectTimeout(10, TimeUnit.SECONDS)
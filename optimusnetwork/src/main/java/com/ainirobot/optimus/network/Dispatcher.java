@@ -1,36 +1,103 @@
 package com.ainirobot.optimus.network;
 
-import android.util.Log;
-
 import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @filename: Dispatcher
- * @introduction:
+ * @introduction: 网络请求调度器。除了全局最大并发数之外，每个Host还有自己的最大并发数，
+ * 等待中的请求按照优先级分为多个通道，每个通道内按照Host分组，调度时优先处理高优先级通道，
+ * 同一通道内在各个Host之间轮询，避免单个慢Host占满所有请求槽位。
+ * 超过截止时间的等待请求直接失败，不会再被执行。
+ * <p>
+ * 调度器不使用锁：submit/finished/cancel只操作并发队列和原子计数，然后调用{@link #drain()}，
+ * 同一时刻只有一个线程（通过mWip争抢）在执行调度，其他线程只是增加mWip后直接返回，
+ * 由正在调度的线程替它们完成调度。优先级通道只会被调度线程访问，所以使用普通的集合即可
  * @author: Frewen.Wong
  * @time: 2019/4/13 11:52
  * Copyright ©2018 Frewen.Wong. All Rights Reserved.
  */
 public class Dispatcher {
     private static final String TAG = "Dispatcher";
-    private int mMaxRequests = 64;
+    private static final int PRIORITY_COUNT = Request.PRIORITY_HIGH + 1;
+    private static final int DRAIN_BATCH = 64;
+    private volatile int mMaxRequests = 64;
+    private volatile int mMaxRequestsPerHost = 5;
     private final ExecutorService mExecutor;
-    private final Deque<NetworkRunnable> mRunningRunnables = new ArrayDeque<>();
-    private final Deque<NetworkRunnable> mWaitingRunnables = new ArrayDeque<>();
+    /**
+     * 正在执行的请求数（已经被占用的全局请求槽位）
+     */
+    private final AtomicInteger mRunningCount = new AtomicInteger();
+    /**
+     * 每个Host的请求计数和等待队列
+     */
+    private final ConcurrentMap<String, Host> mHosts = new ConcurrentHashMap<>();
+    /**
+     * TAG到请求的索引，用于O(1)的按TAG取消。TAG只对应一个请求时（默认TAG是Request本身）值就是
+     * NetworkRunnable，多个请求共用一个TAG时值是{@link TagGroup}
+     */
+    private final ConcurrentMap<Object, Object> mTagIndex = new ConcurrentHashMap<>();
+    /**
+     * 新提交的请求，由调度线程转移到优先级通道中
+     */
+    private final Queue<NetworkRunnable> mSubmittedRunnables = new ConcurrentLinkedQueue<>();
+    /**
+     * 等待请求的优先级通道，下标为{@link Request#getPriority()}，每个通道中是有等待请求的Host的轮询顺序，
+     * 只能在调度线程中访问
+     */
+    private final Lane[] mWaitingRunnables = new Lane[PRIORITY_COUNT];
+    /**
+     * 调度的工作计数，不为0说明已经有线程在调度
+     */
+    private final AtomicInteger mWip = new AtomicInteger();
+    /**
+     * 有等待中的请求被取消，调度线程需要清理优先级通道
+     */
+    private volatile boolean mPurgeCanceled;
+    /**
+     * 延迟提交（重试）使用的定时器，第一次使用时创建
+     */
+    private volatile ScheduledExecutorService mScheduler;
 
     public Dispatcher() {
-        mExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
-                60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        this(null);
+    }
+
+    /**
+     * @param executor 执行网络请求的线程池，为null时使用默认的{@link NetworkExecutor}，
+     *                 线程数等于默认的最大网络请求数
+     */
+    public Dispatcher(ExecutorService executor) {
+        mExecutor = (executor != null) ? executor : new NetworkExecutor(mMaxRequests);
+        for (int i = 0; i < mWaitingRunnables.length; i++) {
+            mWaitingRunnables[i] = new Lane();
+        }
+    }
+
+    /**
+     * 执行网络请求的线程池
+     */
+    public ExecutorService getExecutorService() {
+        return mExecutor;
     }
 
     /**
-     * 设置最大网络请求数
+     * 设置最大网络请求数，使用默认线程池时同时调整线程池的最大线程数
      *
      * @param maxRequests
      */
@@ -38,8 +105,19 @@ public class Dispatcher {
         if (maxRequests < 1) {
             throw new IllegalArgumentException("maxRequests < 1 : " + maxRequests);
         }
+        if (mExecutor instanceof NetworkExecutor) {
+            NetworkExecutor executor = (NetworkExecutor) mExecutor;
+            // 先调大最大线程数，或者先调小核心线程数，保证core <= max
+            if (maxRequests > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(maxRequests);
+                executor.setCorePoolSize(maxRequests);
+            } else {
+                executor.setCorePoolSize(maxRequests);
+                executor.setMaximumPoolSize(maxRequests);
+            }
+        }
         this.mMaxRequests = maxRequests;
-        performRunnable();
+        drain();
     }
 
     /**
@@ -52,74 +130,179 @@ public class Dispatcher {
     }
 
     /**
-     * 取消所有网络请求
+     * 设置每个Host的最大网络请求数
+     *
+     * @param maxRequestsPerHost
      */
-    public synchronized void cancelAll() {
-        for (NetworkRunnable runnable : mRunningRunnables) {
-            runnable.cancel();
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        if (maxRequestsPerHost < 1) {
+            throw new IllegalArgumentException("maxRequestsPerHost < 1 : " + maxRequestsPerHost);
         }
-
-        mWaitingRunnables.clear();
+        this.mMaxRequestsPerHost = maxRequestsPerHost;
+        drain();
     }
 
     /**
-     * 根据TAG来取消网络请求
+     * 获取每个Host的最大网络请求数
      *
-     * @param tag
+     * @return
      */
-    public synchronized void cancel(Object tag) {
-        // 遍历所有运行的网络请求， 取消网络请求
-        for (NetworkRunnable runnable : mRunningRunnables) {
-            Log.d(TAG, "request cancel runable.getTag():" + runnable.getTag() + ",tag:" + tag);
-            if (runnable.getTag() == tag) {
-                runnable.cancel();
-                return;
+    public int getMaxRequestsPerHost() {
+        return mMaxRequestsPerHost;
+    }
+
+    /**
+     * 正在执行的网络请求数
+     */
+    public int getRunningCount() {
+        return mRunningCount.get();
+    }
+
+    /**
+     * 等待中的网络请求数
+     */
+    public int getWaitingCount() {
+        int count = 0;
+        for (Host host : mHosts.values()) {
+            count += host.waiting.get();
+        }
+        return count;
+    }
+
+    /**
+     * 某个Host正在执行的网络请求数
+     */
+    public int getRunningCount(String host) {
+        Host stats = mHosts.get(host);
+        return stats != null ? stats.running.get() : 0;
+    }
+
+    /**
+     * 某个Host等待中的网络请求数
+     */
+    public int getWaitingCount(String host) {
+        Host stats = mHosts.get(host);
+        return stats != null ? stats.waiting.get() : 0;
+    }
+
+    /**
+     * 每个Host正在执行的网络请求数的快照
+     */
+    public Map<String, Integer> getRunningCountPerHost() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map.Entry<String, Host> entry : mHosts.entrySet()) {
+            int running = entry.getValue().running.get();
+            if (running > 0) {
+                counts.put(entry.getKey(), running);
             }
         }
-        // 遍历所有等待的网络请求
-        Iterator<NetworkRunnable> iterator = mWaitingRunnables.iterator();
-        while (iterator.hasNext()) {
-            NetworkRunnable runnable = iterator.next();
-            if (runnable.getTag() == tag) {
-                iterator.remove();
+        return counts;
+    }
+
+    /**
+     * 每个Host等待中的网络请求数的快照
+     */
+    public Map<String, Integer> getWaitingCountPerHost() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map.Entry<String, Host> entry : mHosts.entrySet()) {
+            int waiting = entry.getValue().waiting.get();
+            if (waiting > 0) {
+                counts.put(entry.getKey(), waiting);
             }
         }
+        return counts;
     }
 
     /**
-     * 网络请求处理
+     * 取消所有网络请求
      */
-    private void performRunnable() {
-        if (mRunningRunnables.size() >= mMaxRequests
-                || mWaitingRunnables.isEmpty()) {
+    public void cancelAll() {
+        for (Object tag : mTagIndex.keySet()) {
+            cancelIndexed(mTagIndex.remove(tag));
+        }
+        mPurgeCanceled = true;
+        drain();
+    }
+
+    /**
+     * 根据TAG来取消网络请求，正在执行和等待中的请求都会被取消
+     *
+     * @param tag
+     */
+    public void cancel(Object tag) {
+        Object indexed = mTagIndex.remove(tag);
+        if (indexed == null) {
             return;
         }
-        // 遍历所有的等待请求列表
-        Iterator<NetworkRunnable> iterator = mWaitingRunnables.iterator();
-        while (iterator.hasNext()) {
-            NetworkRunnable runnable = iterator.next();
-            // 加入到请求中的列表中
-            mRunningRunnables.add(runnable);
-            mExecutor.execute(runnable);
-            iterator.remove();
-            if (mRunningRunnables.size() > mMaxRequests) {
-                return;
+        cancelIndexed(indexed);
+        mPurgeCanceled = true;
+        drain();
+    }
+
+    /**
+     * 只取消这一个请求，不影响使用相同TAG的其他请求
+     *
+     * @param runnable
+     */
+    void cancelRequest(NetworkRunnable runnable) {
+        runnable.cancel();
+        mPurgeCanceled = true;
+        drain();
+    }
+
+    private void cancelIndexed(Object indexed) {
+        if (indexed instanceof NetworkRunnable) {
+            ((NetworkRunnable) indexed).cancel();
+        } else if (indexed instanceof TagGroup) {
+            for (NetworkRunnable runnable : ((TagGroup) indexed).close()) {
+                runnable.cancel();
             }
         }
     }
 
     /**
-     * 提交网络请求：如果当前运行的网络请求小于最大请求数，则添加到请求
-     * 如果，超过最大请求数，则添加到等待队列中
+     * 提交网络请求：先放入提交队列，再由调度线程按照优先级和Host公平性进行调度，
+     * 如果当前运行的网络请求小于最大请求数，并且该Host的请求数小于Host最大请求数，则立即执行
+     *
+     * @param runnable
+     */
+    public void submit(NetworkRunnable runnable) {
+        index(runnable);
+        enqueueSubmitted(runnable);
+    }
+
+    /**
+     * 延迟一段时间之后再提交网络请求，用于重试的退避等待。等待期间不占用线程池的线程和请求槽位，
+     * 但是请求已经在TAG索引中，可以被{@link #cancel(Object)}取消
      *
      * @param runnable
+     * @param delay
+     * @param unit
      */
-    public synchronized void submit(NetworkRunnable runnable) {
-        if (mRunningRunnables.size() < mMaxRequests) {
-            mRunningRunnables.add(runnable);
-            mExecutor.execute(runnable);
+    public void submitDelayed(final NetworkRunnable runnable, long delay, TimeUnit unit) {
+        index(runnable);
+        scheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (runnable.isCanceled()) {
+                    unindex(runnable);
+                } else {
+                    enqueueSubmitted(runnable);
+                }
+            }
+        }, delay, unit);
+    }
+
+    private void enqueueSubmitted(NetworkRunnable runnable) {
+        runnable.queued();
+        host(runnable.getHost()).waiting.incrementAndGet();
+        // 没有其他线程在调度时直接放入优先级通道，省去提交队列
+        if (mWip.get() == 0 && mWip.compareAndSet(0, 1)) {
+            enqueue(runnable);
+            drainLoop();
         } else {
-            mWaitingRunnables.add(runnable);
+            mSubmittedRunnables.offer(runnable);
+            drain();
         }
     }
 
@@ -129,11 +312,294 @@ public class Dispatcher {
      * @param runnable
      * @return
      */
-    public synchronized boolean finished(NetworkRunnable runnable) {
-        if (mRunningRunnables.remove(runnable)) {
-            performRunnable();
+    public boolean finished(NetworkRunnable runnable) {
+        if (runnable.markFinished()) {
+            unindex(runnable);
+            host(runnable.getHost()).running.decrementAndGet();
+            mRunningCount.decrementAndGet();
+            drain();
             return true;
         }
         return false;
     }
+
+    /**
+     * 调度循环：同一时刻只有一个线程执行循环体，循环期间其他线程的调度请求会让循环多执行一次
+     */
+    private void drain() {
+        if (mWip.getAndIncrement() != 0) {
+            return;
+        }
+        drainLoop();
+    }
+
+    /**
+     * 已经获得调度权（mWip从0变为1）之后执行调度，直到没有新的调度请求
+     */
+    private void drainLoop() {
+        int missed = 1;
+        for (; ; ) {
+            // 每次最多转移一批新提交的请求，保证提交很快时也能及时执行等待中的请求
+            int polled = 0;
+            NetworkRunnable runnable;
+            while (polled < DRAIN_BATCH && (runnable = mSubmittedRunnables.poll()) != null) {
+                enqueue(runnable);
+                polled++;
+            }
+            if (mPurgeCanceled) {
+                mPurgeCanceled = false;
+                purgeCanceled();
+            }
+            performRunnable();
+            if (polled == DRAIN_BATCH) {
+                continue;
+            }
+
+            missed = mWip.addAndGet(-missed);
+            if (missed == 0) {
+                break;
+            }
+        }
+    }
+
+    private void enqueue(NetworkRunnable runnable) {
+        Host host = host(runnable.getHost());
+        int priority = runnable.getPriority();
+        Deque<NetworkRunnable> queue = host.queues[priority];
+        if (queue.isEmpty()) {
+            mWaitingRunnables[priority].readyHosts.add(host);
+        }
+        queue.add(runnable);
+    }
+
+    /**
+     * 从优先级通道中移除已经被取消的等待请求
+     */
+    private void purgeCanceled() {
+        for (int priority = 0; priority < PRIORITY_COUNT; priority++) {
+            Iterator<Host> hosts = mWaitingRunnables[priority].readyHosts.iterator();
+            while (hosts.hasNext()) {
+                Deque<NetworkRunnable> queue = hosts.next().queues[priority];
+                Iterator<NetworkRunnable> iterator = queue.iterator();
+                while (iterator.hasNext()) {
+                    NetworkRunnable runnable = iterator.next();
+                    if (runnable.isCanceled()) {
+                        iterator.remove();
+                        dequeued(runnable);
+                    }
+                }
+                if (queue.isEmpty()) {
+                    hosts.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 网络请求处理：从高优先级通道开始，在有等待请求的Host之间轮询，每次从一个Host中取出一个请求执行，
+     * 已经达到Host最大并发数的Host会被跳过，直到全局并发数已满或者所有Host都无法执行。
+     * 取出的请求如果已经超过截止时间，则直接失败，不占用请求槽位
+     */
+    private void performRunnable() {
+        long now = 0;
+        for (int priority = PRIORITY_COUNT - 1; priority >= 0; priority--) {
+            Deque<Host> readyHosts = mWaitingRunnables[priority].readyHosts;
+            int skippedHosts = 0;
+            while (mRunningCount.get() < mMaxRequests
+                    && skippedHosts < readyHosts.size()) {
+                if (now == 0) {
+                    now = System.nanoTime();
+                }
+                Host host = readyHosts.poll();
+                Deque<NetworkRunnable> queue = host.queues[priority];
+                skippedHosts++;
+                // 先丢弃队头已经取消或过期的请求
+                while (!queue.isEmpty()) {
+                    NetworkRunnable head = queue.peek();
+                    if (head.isCanceled()) {
+                        dequeued(queue.poll());
+                    } else if (head.isExpired(now)) {
+                        expire(queue.poll());
+                    } else {
+                        break;
+                    }
+                }
+                if (!queue.isEmpty() && host.running.get() < mMaxRequestsPerHost) {
+                    execute(queue.poll(), host);
+                    skippedHosts = 0;
+                }
+                // 还有等待请求的Host放到队尾，保证Host之间的公平
+                if (queue.isEmpty()) {
+                    skippedHosts = 0;
+                } else {
+                    readyHosts.add(host);
+                }
+            }
+        }
+    }
+
+    /**
+     * 只有调度线程会增加运行计数，其他线程只会减少，所以先判断再增加是安全的
+     */
+    private void execute(NetworkRunnable runnable, Host host) {
+        host.waiting.decrementAndGet();
+        host.running.incrementAndGet();
+        mRunningCount.incrementAndGet();
+        runnable.markRunning();
+        mExecutor.execute(runnable);
+    }
+
+    /**
+     * 过期的请求不计入正在执行的请求，直接在线程池中回调失败
+     */
+    private void expire(final NetworkRunnable runnable) {
+        dequeued(runnable);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runnable.expire();
+            }
+        });
+    }
+
+    /**
+     * 等待中的请求没有执行就离开了优先级通道
+     */
+    private void dequeued(NetworkRunnable runnable) {
+        unindex(runnable);
+        host(runnable.getHost()).waiting.decrementAndGet();
+    }
+
+    private void index(NetworkRunnable runnable) {
+        Object tag = runnable.getTag();
+        for (; ; ) {
+            Object indexed = mTagIndex.putIfAbsent(tag, runnable);
+            if (indexed == null) {
+                return;
+            }
+            if (indexed instanceof TagGroup) {
+                if (((TagGroup) indexed).add(runnable)) {
+                    return;
+                }
+            } else if (mTagIndex.replace(tag, indexed,
+                    new TagGroup((NetworkRunnable) indexed, runnable))) {
+                return;
+            }
+        }
+    }
+
+    private void unindex(NetworkRunnable runnable) {
+        Object tag = runnable.getTag();
+        for (; ; ) {
+            Object indexed = mTagIndex.get(tag);
+            if (indexed == runnable) {
+                if (mTagIndex.remove(tag, runnable)) {
+                    return;
+                }
+            } else if (indexed instanceof TagGroup) {
+                TagGroup group = (TagGroup) indexed;
+                if (group.remove(runnable)) {
+                    mTagIndex.remove(tag, group);
+                }
+                return;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private ScheduledExecutorService scheduler() {
+        ScheduledExecutorService scheduler = mScheduler;
+        if (scheduler == null) {
+            synchronized (this) {
+                scheduler = mScheduler;
+                if (scheduler == null) {
+                    scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "OptimusNetwork-Scheduler");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    mScheduler = scheduler;
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    private Host host(String name) {
+        Host host = mHosts.get(name);
+        if (host == null) {
+            Host created = new Host();
+            host = mHosts.putIfAbsent(name, created);
+            if (host == null) {
+                host = created;
+            }
+        }
+        return host;
+    }
+
+    /**
+     * 一个优先级通道：有等待请求的Host的轮询顺序
+     */
+    private static final class Lane {
+        private final Deque<Host> readyHosts = new ArrayDeque<>();
+    }
+
+    /**
+     * 单个Host的请求计数，以及这个Host在每个优先级通道中的等待队列（只能在调度线程中访问）
+     */
+    private static final class Host {
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final Deque<NetworkRunnable>[] queues = newQueues();
+
+        @SuppressWarnings("unchecked")
+        private static Deque<NetworkRunnable>[] newQueues() {
+            Deque<NetworkRunnable>[] queues = new Deque[PRIORITY_COUNT];
+            for (int i = 0; i < queues.length; i++) {
+                queues[i] = new ArrayDeque<>();
+            }
+            return queues;
+        }
+    }
+
+    /**
+     * 共用一个TAG的多个请求。从索引中移除之后就关闭，不能再添加请求，需要重新放入索引
+     */
+    private static final class TagGroup {
+        private final Set<NetworkRunnable> runnables = new HashSet<>();
+        private boolean closed;
+
+        private TagGroup(NetworkRunnable first, NetworkRunnable second) {
+            runnables.add(first);
+            runnables.add(second);
+        }
+
+        private synchronized boolean add(NetworkRunnable runnable) {
+            if (closed) {
+                return false;
+            }
+            runnables.add(runnable);
+            return true;
+        }
+
+        /**
+         * @return 移除之后是否已经为空（为空时关闭，需要从索引中移除）
+         */
+        private synchronized boolean remove(NetworkRunnable runnable) {
+            runnables.remove(runnable);
+            if (runnables.isEmpty()) {
+                closed = true;
+            }
+            return closed;
+        }
+
+        private synchronized NetworkRunnable[] close() {
+            closed = true;
+            return runnables.toArray(new NetworkRunnable[runnables.size()]);
+        }
+    }
 }
@@ -0,0 +1,87 @@
+package com.ainirobot.optimus.network;
+
+/**
+ * @filename: EventListener
+ * @introduction: 网络请求各个阶段的事件回调，用于统计每个请求的耗时分布。
+ * 每个请求由{@link Factory}创建一个实例，同一个实例的事件按顺序回调，可以直接在字段中保存每个阶段的时间。
+ * 所有时间都是{@link System#nanoTime()}的值。重试时同一个实例会从{@link #requestQueued(long)}开始再收到一轮事件。
+ * <p>
+ * HttpURLConnection没有暴露DNS解析和TLS握手的时间，{@link #connectStart(long)}到{@link #connectEnd(long)}
+ * 包含DNS解析、TCP连接和TLS握手，复用已有连接时这一段接近0。
+ * <p>
+ * 回调在网络线程、提交请求的线程或者取消请求的线程中执行，不能有耗时操作
+ * @author: Frewen.Wong
+ * @time: 2019/4/23 15:10
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public abstract class EventListener {
+    /**
+     * 不处理任何事件
+     */
+    public static final EventListener NONE = new EventListener() {
+    };
+
+    /**
+     * 放入Dispatcher的等待队列
+     */
+    public void requestQueued(long nanoTime) {
+    }
+
+    /**
+     * 获得请求槽位，开始在线程池中执行
+     */
+    public void requestDispatched(long nanoTime) {
+    }
+
+    /**
+     * 开始建立连接
+     */
+    public void connectStart(long nanoTime) {
+    }
+
+    /**
+     * 连接建立完成
+     */
+    public void connectEnd(long nanoTime) {
+    }
+
+    /**
+     * 请求体写入完成，没有请求体的请求不会回调
+     *
+     * @param bodyBytes 实际发送的字节数（压缩之后）
+     */
+    public void requestBodyEnd(long nanoTime, long bodyBytes) {
+    }
+
+    /**
+     * 收到响应头
+     *
+     * @param statusCode HTTP状态码
+     */
+    public void responseHeadersEnd(long nanoTime, int statusCode) {
+    }
+
+    /**
+     * 响应体读取完成并且已经回调了{@link RequestListener}，请求成功结束
+     *
+     * @param bodyBytes 实际接收的响应体字节数（解压之前）
+     */
+    public void responseBodyEnd(long nanoTime, long bodyBytes) {
+    }
+
+    /**
+     * 请求失败结束
+     *
+     * @param errorCode    {@link com.ainirobot.optimus.network.constant.ErrorCode}
+     * @param errorMessage
+     */
+    public void requestFailed(long nanoTime, int errorCode, String errorMessage) {
+    }
+
+    /**
+     * 为每个请求创建EventListener
+     */
+    public interface Factory {
+        EventListener create(Request request);
+    }
+}
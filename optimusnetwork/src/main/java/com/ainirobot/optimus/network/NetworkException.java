@@ -0,0 +1,29 @@
+package com.ainirobot.optimus.network;
+
+import java.io.IOException;
+
+/**
+ * @filename: NetworkException
+ * @introduction: 同步执行或者通过{@link ResponseFuture}获取结果时，请求失败抛出的异常，
+ * 错误码与{@link RequestListener#onFailure(int, String)}相同：HTTP状态码或者{@link com.ainirobot.optimus.network.constant.ErrorCode}
+ * @author: Frewen.Wong
+ * @time: 2019/4/23 10:15
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class NetworkException extends IOException {
+    private final int mErrorCode;
+
+    public NetworkException(int errorCode, String message) {
+        super(message);
+        this.mErrorCode = errorCode;
+    }
+
+    public int getErrorCode() {
+        return mErrorCode;
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkException{errorCode=" + mErrorCode + ", message=" + getMessage() + "}";
+    }
+}
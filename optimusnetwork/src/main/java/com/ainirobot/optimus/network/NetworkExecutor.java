@@ -0,0 +1,101 @@
+package com.ainirobot.optimus.network;
+
+import com.ainirobot.optimus.network.metrics.LatencyHistogram;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @filename: NetworkExecutor
+ * @introduction: 默认的网络请求线程池。线程数有上限，超过上限的任务在队列中等待，
+ * 线程使用统一的名字方便排查问题，同时统计任务的排队时间和执行时间
+ * @author: Frewen.Wong
+ * @time: 2019/4/20 10:36
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class NetworkExecutor extends ThreadPoolExecutor {
+    private static final String THREAD_NAME_PREFIX = "OptimusNetwork-";
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final LatencyHistogram mQueueWaitHistogram = new LatencyHistogram();
+    private final LatencyHistogram mExecutionHistogram = new LatencyHistogram();
+
+    /**
+     * @param maxThreads 最大线程数，空闲超过60秒的线程会被回收
+     */
+    public NetworkExecutor(int maxThreads) {
+        super(maxThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory());
+        allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException("command == null");
+        }
+        super.execute(new TimedRunnable(command));
+    }
+
+    /**
+     * 任务从提交到开始执行的等待时间
+     */
+    public LatencyHistogram getQueueWaitHistogram() {
+        return mQueueWaitHistogram;
+    }
+
+    /**
+     * 任务的执行时间
+     */
+    public LatencyHistogram getExecutionHistogram() {
+        return mExecutionHistogram;
+    }
+
+    /**
+     * 线程池当前状态的描述，用于日志输出
+     */
+    public String dump() {
+        return "activeThreads=" + getActiveCount()
+                + ", poolSize=" + getPoolSize()
+                + ", maxThreads=" + getMaximumPoolSize()
+                + ", queued=" + getQueue().size()
+                + ", completed=" + getCompletedTaskCount()
+                + "\nqueueWait: " + mQueueWaitHistogram
+                + "\nexecution: " + mExecutionHistogram;
+    }
+
+    private final class TimedRunnable implements Runnable {
+        private final Runnable mCommand;
+        private final long mSubmitNanos;
+
+        private TimedRunnable(Runnable command) {
+            this.mCommand = command;
+            this.mSubmitNanos = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            mQueueWaitHistogram.record(start - mSubmitNanos);
+            try {
+                mCommand.run();
+            } finally {
+                mExecutionHistogram.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final AtomicInteger mThreadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + mThreadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
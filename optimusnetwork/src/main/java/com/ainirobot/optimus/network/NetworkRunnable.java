@@ -3,22 +3,36 @@ package com.ainirobot.optimus.network;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.ainirobot.optimus.network.cache.CacheEntry;
+import com.ainirobot.optimus.network.cache.HttpCache;
+import com.ainirobot.optimus.network.connection.DrainingInputStream;
 import com.ainirobot.optimus.network.constant.ErrorCode;
+import com.ainirobot.optimus.network.encoding.CompressionStats;
+import com.ainirobot.optimus.network.encoding.ContentEncoding;
+import com.ainirobot.optimus.network.encoding.CountingOutputStream;
 import com.ainirobot.optimus.network.request.RequestBody;
+import com.ainirobot.optimus.network.request.body.GzipBody;
+import com.ainirobot.optimus.network.throttle.UploadThrottle;
 import com.ainirobot.optimus.network.utils.HttpUtils;
 import com.ainirobot.optimus.network.utils.IOUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
+import java.io.SequenceInputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.net.ssl.HttpsURLConnection;
 
@@ -31,34 +45,132 @@ import javax.net.ssl.HttpsURLConnection;
  */
 public class NetworkRunnable implements Runnable {
     private static final String TAG = "NetworkRunnable";
+    /**
+     * 请求结束时最多丢弃的剩余响应数据，超过之后直接断开连接，不再复用
+     */
+    private static final long MAX_DRAIN_BYTES = 64 * 1024;
+    /**
+     * 写入缓存时长度未知的响应体的初始缓冲区大小
+     */
+    private static final int STORE_INITIAL_CAPACITY = 8 * 1024;
     private final OptimusNetClient mClient;
     private final Request mRequest;
     private final RequestListener mCallback;
-    private boolean isCanceled = false;
+    private final Object mTag;
+    private final EventListener mEventListener;
+    private volatile boolean isCanceled = false;
+    /**
+     * 正在执行的连接，取消时直接断开，阻塞在连接、写请求体或者读响应上的线程会立即收到IOException
+     */
+    private volatile HttpURLConnection mConnection;
+    /**
+     * 是否占用着Dispatcher的请求槽位，保证槽位只会被释放一次
+     */
+    private final AtomicBoolean mRunning = new AtomicBoolean();
+    /**
+     * 已经重试的次数，同一时刻只有一个线程在执行这个请求，重新提交保证了可见性
+     */
+    private int mRetryCount;
 
     public NetworkRunnable(OptimusNetClient client,
                            Request request, RequestListener callback) {
+        this(client, request, callback, request.getTag());
+    }
+
+    /**
+     * @param tag 在Dispatcher中取消请求使用的TAG，多个调用方合并成一个请求时不能使用其中某一个请求的TAG
+     */
+    NetworkRunnable(OptimusNetClient client,
+                    Request request, RequestListener callback, Object tag) {
         this.mClient = client;
         this.mRequest = request;
         this.mCallback = callback;
+        this.mTag = tag;
+        EventListener.Factory factory = client.getEventListenerFactory();
+        this.mEventListener = (factory != null) ? factory.create(request) : EventListener.NONE;
     }
 
+    /**
+     * 取消请求：正在执行时断开连接，并且立即释放Dispatcher的请求槽位，不用等待执行线程退出
+     */
     public void cancel() {
         isCanceled = true;
+        HttpURLConnection connection = mConnection;
+        if (connection != null) {
+            connection.disconnect();
+        }
+        mClient.getDispatcher().finished(this);
+    }
+
+    public boolean isCanceled() {
+        return isCanceled;
+    }
+
+    /**
+     * 放入Dispatcher的等待队列时调用
+     */
+    void queued() {
+        mEventListener.requestQueued(System.nanoTime());
+    }
+
+    void markRunning() {
+        mRunning.set(true);
+    }
+
+    boolean markFinished() {
+        return mRunning.compareAndSet(true, false);
     }
 
     public Object getTag() {
-        return mRequest.getTag();
+        return mTag;
+    }
+
+    public String getHost() {
+        return mRequest.getHost();
+    }
+
+    public int getPriority() {
+        return mRequest.getPriority();
+    }
+
+    public boolean isExpired(long nowNanos) {
+        return mRequest.isExpired(nowNanos);
+    }
+
+    /**
+     * 请求在等待队列中超过了截止时间，直接回调失败
+     */
+    public void expire() {
+        mEventListener.requestFailed(System.nanoTime(), ErrorCode.CODE_ERROR_DEADLINE_EXCEEDED,
+                "deadline exceeded");
+        if (mCallback != null) {
+            mCallback.onFailure(ErrorCode.CODE_ERROR_DEADLINE_EXCEEDED, "deadline exceeded");
+        }
     }
 
 
     @Override
     public void run() {
+        mEventListener.requestDispatched(System.nanoTime());
+        if (mRequest.isExpired(System.nanoTime())) {
+            expire();
+            mClient.getDispatcher().finished(this);
+            return;
+        }
         if (!isCanceled) {
-            performRequest();
+            UploadThrottle throttle = mClient.getUploadThrottle();
+            throttle.requestStarted(mRequest.getPriority());
+            try {
+                performRequest();
+            } finally {
+                throttle.requestFinished(mRequest.getPriority());
+            }
             return;
         }
 
+        mClient.getDispatcher().finished(this);
+        mEventListener.requestFailed(System.nanoTime(), ErrorCode.CODE_ERROR_THREAD_CANCELED,
+                "thread cancel");
         if (mCallback != null) {
             mCallback.onFailure(ErrorCode.CODE_ERROR_THREAD_CANCELED, "thread cancel");
         }
@@ -68,38 +180,57 @@ public class NetworkRunnable implements Runnable {
      * 执行网络请求
      */
     private void performRequest() {
-        String url = mRequest.getUrl();
+        String url = mRequest.getFullUrl();
         String method = mRequest.getMethod();
         String sessionId = mRequest.getSessionId();
         RequestBody body = mRequest.getBody();
-        Map<String, String> headers = mRequest.getHeaders();
-        Map<String, String> params = mRequest.getUrlParams();
 
         OutputStream out = null;
-        InputStream in = null;
-        HttpURLConnection urlConnection;
+        DrainingInputStream in = null;
+        InputStream decoded = null;
+        CompressionStats compressionStats = new CompressionStats();
+        HttpURLConnection urlConnection = null;
+        long retryDelay = -1;
+        HttpCache cache = mClient.getCache();
+        String cacheKey = null;
+        CacheEntry cacheEntry = null;
+        // 收到了响应（包括缓存），结束时回调responseBodyEnd；否则回调requestFailed
+        boolean responded = false;
+        int errorCode = 0;
+        String errorMessage = null;
         try {
-            StringBuffer stringBuffer = new StringBuffer();
-            Set<Map.Entry<String, String>> entites = params.entrySet();
-            int i = 0;
-            for (Map.Entry<String, String> entry : entites) {
-                if (i > 0) {
-                    stringBuffer.append("&");
+            if (cache != null && HttpCache.isCacheable(mRequest)) {
+                cacheKey = HttpCache.key(mRequest);
+                cacheEntry = cache.get(cacheKey);
+                // 新鲜的缓存直接返回，不访问网络
+                if (cacheEntry != null && cacheEntry.isFresh(System.currentTimeMillis())) {
+                    OriginalResponse response = cache.hit(cacheEntry);
+                    mEventListener.responseHeadersEnd(System.nanoTime(), response.getStatusCode());
+                    responded = true;
+                    if (mCallback != null) {
+                        mCallback.onSuccess(response);
+                    }
+                    return;
                 }
-                String key = entry.getKey();
-                String value = URLEncoder.encode(entry.getValue(), "UTF-8");
-                stringBuffer.append(key).append("=").append(value);
-                i++;
-            }
-            if (!TextUtils.isEmpty(stringBuffer.toString())) {
-                url += "?" + stringBuffer.toString();
             }
-
-            if (HttpUtils.connectionIsHttps(url)) {
-                urlConnection = (HttpsURLConnection) new URL(url).openConnection();
+            boolean https = HttpUtils.connectionIsHttps(url);
+            if (https) {
+                HttpsURLConnection httpsConnection = (HttpsURLConnection) new URL(url).openConnection();
+                httpsConnection.setSSLSocketFactory(mClient.getSSLSocketFactory());
+                urlConnection = httpsConnection;
             } else {
                 urlConnection = (HttpURLConnection) new URL(url).openConnection();
             }
+            mConnection = urlConnection;
+            // 在设置mConnection之前取消的请求不会被断开，这里再检查一次
+            if (isCanceled) {
+                errorCode = ErrorCode.CODE_ERROR_USER_CANCEL;
+                errorMessage = "user cancel";
+                if (mCallback != null) {
+                    mCallback.onFailure(ErrorCode.CODE_ERROR_USER_CANCEL, "user cancel");
+                }
+                return;
+            }
 
             if (method.equals(Request.Builder.POST)) {
                 urlConnection.setDoOutput(true);
@@ -107,24 +238,67 @@ public class NetworkRunnable implements Runnable {
             }
 
             urlConnection.setUseCaches(false);
+            urlConnection.setConnectTimeout(timeoutMillis(mRequest.getConnectTimeout(),
+                    mClient.getConnectTimeout()));
+            urlConnection.setReadTimeout(timeoutMillis(mRequest.getReadTimeout(),
+                    mClient.getReadTimeout()));
             urlConnection.setRequestMethod(method);
 
             if (!TextUtils.isEmpty(sessionId)) {
                 urlConnection.setRequestProperty("Cookie", sessionId);
             }
 
-            for (Map.Entry<String, String> header : headers.entrySet()) {
-                urlConnection.setRequestProperty(header.getKey(), header.getValue());
+            // 自己处理解压才能统计压缩率，设置了Accept-Encoding之后HttpURLConnection不会再自动解压
+            urlConnection.setRequestProperty("Accept-Encoding", ContentEncoding.ACCEPT_ENCODING);
+            for (int i = 0, count = mRequest.headerCount(); i < count; i++) {
+                urlConnection.setRequestProperty(mRequest.headerName(i), mRequest.headerValue(i));
+            }
+
+            if (cacheEntry != null && cacheEntry.hasValidator()) {
+                cache.addConditionalHeaders(cacheEntry, urlConnection);
             }
 
+            GzipBody gzipBody = null;
             if (body != null) {
                 urlConnection.setRequestProperty("Content-Type", body.getContentType());
-                out = urlConnection.getOutputStream();
+                if (mRequest.isGzipBody()) {
+                    urlConnection.setRequestProperty("Content-Encoding", ContentEncoding.GZIP);
+                    gzipBody = new GzipBody(body);
+                    body = gzipBody;
+                }
+                // 限速和统计的是实际发送的字节数，所以在压缩之后
+                body = mClient.getUploadThrottle().wrap(body, mRequest.getUploadRateLimit(),
+                        mRequest.getPriority());
+                // 边写边发送，不让HttpURLConnection把整个请求体缓存在内存中
+                long contentLength = body.getContentLength();
+                if (contentLength >= 0) {
+                    urlConnection.setFixedLengthStreamingMode(contentLength);
+                } else {
+                    urlConnection.setChunkedStreamingMode(0);
+                }
+            }
+
+            // 显式建立连接，单独统计连接耗时（DNS、TCP和TLS）
+            mEventListener.connectStart(System.nanoTime());
+            urlConnection.connect();
+            mEventListener.connectEnd(System.nanoTime());
+
+            if (body != null) {
+                CountingOutputStream counting = new CountingOutputStream(
+                        new CancelCheckingOutputStream(urlConnection.getOutputStream()));
+                out = counting;
                 body.writeTo(out);
-                out.flush();
+                // 写完立即关闭，chunked模式下关闭时才会发送结束块；读取响应之后再关闭会抛出异常
+                out.close();
+                out = null;
+                compressionStats.setRequestBytes(gzipBody != null
+                        ? gzipBody.getBytesWritten() : counting.getCount(), counting.getCount());
+                mEventListener.requestBodyEnd(System.nanoTime(), counting.getCount());
             }
 
             if (isCanceled) {
+                errorCode = ErrorCode.CODE_ERROR_USER_CANCEL;
+                errorMessage = "user cancel";
                 if (mCallback != null) {
                     mCallback.onFailure(ErrorCode.CODE_ERROR_USER_CANCEL, "user cancel");
                 }
@@ -132,38 +306,234 @@ public class NetworkRunnable implements Runnable {
             }
             // 网络请求返回码
             int responseCode = urlConnection.getResponseCode();
+            mEventListener.responseHeadersEnd(System.nanoTime(), responseCode);
+            if (https) {
+                mClient.getConnectionStats().recordRequest(urlConnection.getURL().getHost());
+            }
+            if (retryPolicy().isRetryableStatus(responseCode)) {
+                retryDelay = retryDelay();
+                if (retryDelay >= 0) {
+                    Log.w(TAG, "retry " + mRetryCount + " after " + retryDelay
+                            + "ms, response status code:" + responseCode);
+                    // 响应体在finally中关闭时读完，连接仍然可以复用
+                    in = wrapResponseStream(urlConnection.getErrorStream());
+                    return;
+                }
+            }
+            responded = true;
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cacheEntry != null) {
+                OriginalResponse response = cache.revalidated(cacheKey, cacheEntry,
+                        urlConnection.getHeaderFields());
+                if (mCallback != null) {
+                    mCallback.onSuccess(response);
+                }
+                return;
+            }
+            if (cacheKey != null) {
+                cache.miss();
+            }
+            // 无论成功失败都拿到响应体，关闭时读完剩余的数据，连接才能被复用
+            InputStream responseStream;
+            if (HttpUtils.isSuccessful(responseCode)) {
+                responseStream = urlConnection.getInputStream();
+            } else {
+                responseStream = urlConnection.getErrorStream();
+            }
+            in = wrapResponseStream(responseStream);
+            String contentEncoding = urlConnection.getContentEncoding();
+            if (in != null) {
+                decoded = ContentEncoding.decode(in, contentEncoding, compressionStats);
+            }
 
             if (mCallback != null) {
                 Map<String, List<String>> responseHeaders = urlConnection.getHeaderFields();
-                long contentLength = urlConnection.getContentLength();
+                // 解压之后的长度未知
+                long contentLength = ContentEncoding.isSupported(contentEncoding)
+                        ? -1 : urlConnection.getContentLength();
                 String contentType = urlConnection.getContentType();
-                String contentEncoding = urlConnection.getContentEncoding();
                 String responseMessage = urlConnection.getResponseMessage();
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    in = urlConnection.getInputStream();
-                }
 
-                OriginalResponse response = new OriginalResponse(responseCode, in, contentLength);
+                OriginalResponse response = new OriginalResponse(responseCode, decoded, contentLength);
                 response.setContentType(contentType);
                 response.setHeaders(responseHeaders);
                 response.setContentEncoding(contentEncoding);
                 response.setResponseMessage(responseMessage);
+                response.setCompressionStats(compressionStats);
+                if (cacheKey != null && cache.shouldStore(responseCode, responseHeaders, contentLength)) {
+                    response = storeResponse(cache, cacheKey, response);
+                }
                 int status = response.getStatusCode();
-                Log.d(TAG, "response status code:" + status);
-                if (status == HttpURLConnection.HTTP_OK) {
+                if (HttpUtils.isSuccessful(status)) {
                     mCallback.onSuccess(response);
                 } else {
                     mCallback.onFailure(status, response.getResponseMessage());
                 }
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            // URL错误重试也不会成功
+            if (!isCanceled && !(e instanceof MalformedURLException)) {
+                retryDelay = retryDelay();
+            }
+            if (retryDelay >= 0) {
+                Log.w(TAG, "retry " + mRetryCount + " after " + retryDelay + "ms, " + e);
+                return;
+            }
+            responded = false;
+            if (isCanceled) {
+                errorCode = ErrorCode.CODE_ERROR_USER_CANCEL;
+                errorMessage = "user cancel";
+            } else {
+                e.printStackTrace();
+                errorCode = ErrorCode.CODE_ERROR_IO_EXCEPTION;
+                errorMessage = e.getMessage();
+            }
             if (mCallback != null) {
-                mCallback.onFailure(ErrorCode.CODE_ERROR_IO_EXCEPTION, e.getMessage());
+                mCallback.onFailure(errorCode, errorMessage);
             }
         } finally {
-            IOUtils.closeAll(out, in);
+            mConnection = null;
+            IOUtils.closeAll(out, decoded, in);
+            if (in != null && !in.isReusable()) {
+                urlConnection.disconnect();
+            }
             mClient.getDispatcher().finished(this);
+            if (responded) {
+                mEventListener.responseBodyEnd(System.nanoTime(), compressionStats.getResponseWireBytes());
+            } else if (errorCode != 0) {
+                mEventListener.requestFailed(System.nanoTime(), errorCode, errorMessage);
+            }
+            // 先释放请求槽位，再重新提交，退避等待期间不占用线程
+            if (retryDelay >= 0) {
+                mClient.getDispatcher().submitDelayed(this, retryDelay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * 读取完整的响应体写入缓存，返回使用内存中响应体的新响应。最多读取{@link HttpCache#MAX_ENTRY_BYTES}加1个字节，
+     * 长度未知的响应超过上限时不缓存，返回的响应先读出已经读取的部分，再继续读取原来的响应体
+     */
+    private OriginalResponse storeResponse(HttpCache cache, String cacheKey, OriginalResponse response)
+            throws IOException {
+        InputStream in = response.getContent();
+        if (in == null) {
+            throw new IOException("read response failed");
+        }
+        long limit = HttpCache.MAX_ENTRY_BYTES;
+        long contentLength = response.getContentLength();
+        byte[] bytes = new byte[(int) ((contentLength >= 0 && contentLength <= limit)
+                ? contentLength : Math.min(STORE_INITIAL_CAPACITY, limit))];
+        int count = 0;
+        while (count <= limit) {
+            if (count == bytes.length) {
+                bytes = Arrays.copyOf(bytes,
+                        (int) Math.min(Math.max(bytes.length * 2L, STORE_INITIAL_CAPACITY), limit + 1));
+            }
+            int len = in.read(bytes, count, bytes.length - count);
+            if (len == -1) {
+                if (count != bytes.length) {
+                    bytes = Arrays.copyOf(bytes, count);
+                }
+                cache.store(cacheKey, mRequest.getUrl(), response.getStatusCode(), response.getHeaders(), bytes);
+                return response.copyWithContent(ByteBuffer.wrap(bytes));
+            }
+            count += len;
+        }
+        Log.d(TAG, "response too large to cache:" + mRequest.getUrl());
+        return response.copyWithContent(
+                new SequenceInputStream(new ByteArrayInputStream(bytes, 0, count), in), contentLength);
+    }
+
+    private RetryPolicy retryPolicy() {
+        RetryPolicy policy = mRequest.getRetryPolicy();
+        return (policy != null) ? policy : mClient.getRetryPolicy();
+    }
+
+    /**
+     * 计算下一次重试前的等待时间，并增加重试次数
+     *
+     * @return 等待的毫秒数，不能重试（不幂等、次数用完、或者等待之后会超过截止时间）时返回-1
+     */
+    private long retryDelay() {
+        RetryPolicy policy = retryPolicy();
+        if (!policy.canRetry(mRequest, mRetryCount)) {
+            return -1;
+        }
+        long delay = policy.getBackoffMillis(mRetryCount);
+        if (mRequest.isExpired(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay))) {
+            return -1;
+        }
+        mRetryCount++;
+        return delay;
+    }
+
+    private static int timeoutMillis(long requestTimeout, long clientTimeout) {
+        long timeout = (requestTimeout >= 0) ? requestTimeout : clientTimeout;
+        return (int) Math.min(Math.max(timeout, 0), Integer.MAX_VALUE);
+    }
+
+    /**
+     * 取消之后读取响应体会立即失败，关闭时也不会再读完剩余的数据
+     */
+    private DrainingInputStream wrapResponseStream(InputStream in) {
+        return (in != null)
+                ? new DrainingInputStream(new CancelCheckingInputStream(in), MAX_DRAIN_BYTES) : null;
+    }
+
+    private void throwIfCanceled() throws IOException {
+        if (isCanceled) {
+            throw new InterruptedIOException("canceled");
+        }
+    }
+
+    /**
+     * 每次读取之前检查请求是否已经取消。断开连接并不能保证所有实现中阻塞的读取都会立即返回，
+     * 并且已经缓冲在本地的数据仍然可以读到，这里保证取消之后不会再继续读取
+     */
+    private final class CancelCheckingInputStream extends FilterInputStream {
+
+        private CancelCheckingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            throwIfCanceled();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            throwIfCanceled();
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throwIfCanceled();
+            return super.skip(n);
+        }
+    }
+
+    /**
+     * 每次写入之前检查请求是否已经取消，上传大文件时取消之后不再继续写
+     */
+    private final class CancelCheckingOutputStream extends FilterOutputStream {
+
+        private CancelCheckingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            throwIfCanceled();
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            throwIfCanceled();
+            out.write(b, off, len);
         }
     }
 }
@@ -2,6 +2,27 @@ package com.ainirobot.optimus.network;
 
 import android.util.Log;
 
+import com.ainirobot.optimus.network.batch.RequestBatcher;
+import com.ainirobot.optimus.network.cache.HttpCache;
+import com.ainirobot.optimus.network.connection.ConnectionStats;
+import com.ainirobot.optimus.network.connection.CountingSSLSocketFactory;
+import com.ainirobot.optimus.network.constant.ErrorCode;
+import com.ainirobot.optimus.network.download.DownloadListener;
+import com.ainirobot.optimus.network.download.DownloadTask;
+import com.ainirobot.optimus.network.metrics.EventMetrics;
+import com.ainirobot.optimus.network.outbox.Outbox;
+import com.ainirobot.optimus.network.throttle.UploadThrottle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
 /**
  * @filename: OptimusNetClient
  * @introduction:
@@ -11,12 +32,35 @@ import android.util.Log;
  */
 public class OptimusNetClient {
     private static final String TAG = "OptimusNetClient";
-    private long connectTimeout = 30000;
-    private long readTimeout = 30000;
+    private volatile long connectTimeout = 30000;
+    private volatile long readTimeout = 30000;
+    private volatile RetryPolicy mRetryPolicy = RetryPolicy.NONE;
     private final Dispatcher mDispatcher;
+    private final RequestCoalescer mCoalescer = new RequestCoalescer(this);
+    private volatile boolean mCoalescingEnabled;
+    private volatile HttpCache mCache;
+    private volatile EventListener.Factory mEventListenerFactory;
+    private final ConnectionStats mConnectionStats = new ConnectionStats();
+    private final UploadThrottle mUploadThrottle = new UploadThrottle();
+    private volatile Outbox mOutbox;
+    private volatile RequestBatcher mBatcher;
+    /**
+     * 所有HTTPS请求共用同一个SSLSocketFactory，HttpURLConnection的连接池按照SSLSocketFactory区分，
+     * 每次新建会导致连接无法复用
+     */
+    private final SSLSocketFactory mSSLSocketFactory;
 
     public OptimusNetClient() {
-        this.mDispatcher = new Dispatcher();
+        this(null);
+    }
+
+    /**
+     * @param executor 执行网络请求的线程池，为null时使用默认的{@link NetworkExecutor}
+     */
+    public OptimusNetClient(ExecutorService executor) {
+        this.mDispatcher = new Dispatcher(executor);
+        this.mSSLSocketFactory = new CountingSSLSocketFactory(
+                HttpsURLConnection.getDefaultSSLSocketFactory(), mConnectionStats);
     }
 
 
@@ -36,10 +80,160 @@ public class OptimusNetClient {
         return readTimeout;
     }
 
+    /**
+     * 设置默认的重试策略，单个请求可以通过{@link Request.Builder#retryPolicy(RetryPolicy)}覆盖。
+     * 默认不重试，需要自动重试时设置为{@link RetryPolicy#DEFAULT}或者自定义的策略
+     *
+     * @param retryPolicy 为null时不重试
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.mRetryPolicy = (retryPolicy != null) ? retryPolicy : RetryPolicy.NONE;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return mRetryPolicy;
+    }
+
+    /**
+     * 开启相同GET请求的合并：一个请求正在执行时，URL、参数和请求头都相同的GET请求会等待它的结果，
+     * 而不是再发送一次。默认关闭
+     *
+     * @param enabled
+     */
+    public void setRequestCoalescing(boolean enabled) {
+        this.mCoalescingEnabled = enabled;
+    }
+
+    public boolean isRequestCoalescing() {
+        return mCoalescingEnabled;
+    }
+
+    /**
+     * 因为合并而没有单独发送的请求数
+     */
+    public long getCoalescedRequestCount() {
+        return mCoalescer.getCoalescedCount();
+    }
+
+    /**
+     * 设置GET请求的HTTP缓存，为null时不使用缓存
+     *
+     * @param cache 如{@link HttpCache#create(File, long, long)}
+     */
+    public void setCache(HttpCache cache) {
+        this.mCache = cache;
+    }
+
+    public HttpCache getCache() {
+        return mCache;
+    }
+
+    /**
+     * 直接使用缓存、没有访问网络的请求数
+     */
+    public long getCacheHitCount() {
+        HttpCache cache = mCache;
+        return cache != null ? cache.getHitCount() : 0;
+    }
+
+    /**
+     * 没有可用缓存、从网络获取完整响应的请求数
+     */
+    public long getCacheMissCount() {
+        HttpCache cache = mCache;
+        return cache != null ? cache.getMissCount() : 0;
+    }
+
+    /**
+     * 条件请求返回304、使用缓存响应体的请求数
+     */
+    public long getCacheRevalidatedCount() {
+        HttpCache cache = mCache;
+        return cache != null ? cache.getRevalidatedCount() : 0;
+    }
+
+    /**
+     * 设置请求事件的监听，用于统计每个阶段的耗时，只对之后提交的请求生效
+     *
+     * @param factory 如{@link EventMetrics}，为null时不监听
+     */
+    public void setEventListenerFactory(EventListener.Factory factory) {
+        this.mEventListenerFactory = factory;
+    }
+
+    public EventListener.Factory getEventListenerFactory() {
+        return mEventListenerFactory;
+    }
+
+    /**
+     * 设置全局的上传限速，所有请求的请求体共用，单个请求可以通过{@link Request.Builder#uploadRateLimit(long)}进一步限制
+     *
+     * @param bytesPerSecond 字节/秒，小于等于0时不限速
+     */
+    public void setUploadRateLimit(long bytesPerSecond) {
+        mUploadThrottle.setRateLimit(bytesPerSecond);
+    }
+
+    /**
+     * 上传的带宽控制：全局限速、高优先级请求执行时的让行速率，以及上传速率的统计
+     */
+    public UploadThrottle getUploadThrottle() {
+        return mUploadThrottle;
+    }
+
+    /**
+     * 设置离线请求队列，{@link #executeDurable(Request)}的请求先写入Outbox再发送
+     *
+     * @param outbox 如new Outbox(client, new File(context.getFilesDir(), "outbox"))
+     */
+    public void setOutbox(Outbox outbox) {
+        this.mOutbox = outbox;
+    }
+
+    public Outbox getOutbox() {
+        return mOutbox;
+    }
+
+    /**
+     * 设置小请求的合并发送，只对标记了{@link Request.Builder#batchable()}的请求生效
+     *
+     * @param batcher 如new RequestBatcher(client, "https://host/batch")，为null时不合并
+     */
+    public void setRequestBatcher(RequestBatcher batcher) {
+        this.mBatcher = batcher;
+    }
+
+    public RequestBatcher getRequestBatcher() {
+        return mBatcher;
+    }
+
     public Dispatcher getDispatcher() {
         return mDispatcher;
     }
 
+    public SSLSocketFactory getSSLSocketFactory() {
+        return mSSLSocketFactory;
+    }
+
+    /**
+     * HTTPS连接的复用统计：每个Host的请求数、TLS握手数和复用数
+     */
+    public ConnectionStats getConnectionStats() {
+        return mConnectionStats;
+    }
+
+    /**
+     * 默认线程池的统计数据（活跃线程数、排队时间和执行时间的分位数），
+     * 使用自定义线程池时返回null
+     */
+    public String dumpExecutorMetrics() {
+        ExecutorService executor = mDispatcher.getExecutorService();
+        if (executor instanceof NetworkExecutor) {
+            return ((NetworkExecutor) executor).dump();
+        }
+        return null;
+    }
+
     /**
      * 设置最大网络请求数
      *
@@ -49,6 +243,15 @@ public class OptimusNetClient {
         mDispatcher.setMaxRequests(maxRequests);
     }
 
+    /**
+     * 设置每个Host的最大网络请求数
+     *
+     * @param maxRequestsPerHost
+     */
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        mDispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+    }
+
     /**
      * 执行网络请求
      *
@@ -65,10 +268,126 @@ public class OptimusNetClient {
      * @param listener 请求结果监听回调
      */
     public void execute(Request request, RequestListener listener) {
+        RequestBatcher batcher = mBatcher;
+        if (batcher != null && batcher.isBatchable(request)) {
+            batcher.add(request, listener);
+            return;
+        }
+        if (mCoalescingEnabled && RequestCoalescer.isCoalescable(request)) {
+            mCoalescer.execute(request, listener);
+            return;
+        }
         NetworkRunnable runnable = new NetworkRunnable(this, request, listener);
         mDispatcher.submit(runnable);
     }
 
+    /**
+     * 异步执行网络请求
+     *
+     * @param request
+     * @return 请求结果，调用{@link ResponseFuture#cancel(boolean)}会取消请求并断开连接
+     */
+    public ResponseFuture executeAsync(Request request) {
+        final ResponseFuture future = new ResponseFuture();
+        final RequestBatcher batcher = mBatcher;
+        if (batcher != null && batcher.isBatchable(request)) {
+            future.setCancelAction(new Runnable() {
+                @Override
+                public void run() {
+                    batcher.cancel(future);
+                }
+            });
+            batcher.add(request, future);
+            return future;
+        }
+        if (mCoalescingEnabled && RequestCoalescer.isCoalescable(request)) {
+            future.setCancelAction(new Runnable() {
+                @Override
+                public void run() {
+                    mCoalescer.cancel(future);
+                }
+            });
+            mCoalescer.execute(request, future);
+            return future;
+        }
+        final NetworkRunnable runnable = new NetworkRunnable(this, request, future);
+        future.setCancelAction(new Runnable() {
+            @Override
+            public void run() {
+                mDispatcher.cancelRequest(runnable);
+            }
+        });
+        mDispatcher.submit(runnable);
+        return future;
+    }
+
+    /**
+     * 同步执行网络请求，阻塞当前线程直到请求完成，不能在主线程中调用。
+     * 请求仍然由Dispatcher调度，受最大请求数和每个Host最大请求数的限制
+     *
+     * @param request
+     * @return 响应体已经读入内存的响应
+     * @throws NetworkException        请求失败或者HTTP状态码不是2xx
+     * @throws InterruptedIOException 当前线程被中断，此时请求会被取消
+     */
+    public OriginalResponse executeSync(Request request) throws IOException {
+        ResponseFuture future = executeAsync(request);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        } catch (CancellationException e) {
+            throw new NetworkException(ErrorCode.CODE_ERROR_USER_CANCEL, "user cancel");
+        } catch (ExecutionException e) {
+            throw (NetworkException) e.getCause();
+        }
+    }
+
+    /**
+     * 执行必须送达的POST请求：先写入Outbox，网络不可用时保留，网络恢复或者进程重启之后重新发送。
+     * 结果通过{@link com.ainirobot.optimus.network.outbox.OutboxListener}回调
+     *
+     * @param request StringBody、IntBody或者MultipartBody的POST请求
+     * @return 请求ID，同时作为幂等key请求头发送给服务端
+     * @throws IOException 写入Outbox失败
+     */
+    public String executeDurable(Request request) throws IOException {
+        Outbox outbox = mOutbox;
+        if (outbox == null) {
+            throw new IllegalStateException("outbox not set");
+        }
+        return outbox.enqueue(request);
+    }
+
+    /**
+     * 下载文件，大文件分段并行下载，中断之后再次调用时从断点继续
+     *
+     * @param url
+     * @param file     保存的文件
+     * @param listener 下载回调
+     * @return 下载任务，可以用来取消下载
+     */
+    public DownloadTask download(String url, File file, DownloadListener listener) {
+        return download(url, file, DownloadTask.DEFAULT_MAX_SEGMENTS, listener);
+    }
+
+    /**
+     * 下载文件
+     *
+     * @param url
+     * @param file        保存的文件
+     * @param maxSegments 最多分成多少段并行下载，实际并发数还受每个Host最大请求数的限制
+     * @param listener    下载回调
+     * @return 下载任务，可以用来取消下载
+     */
+    public DownloadTask download(String url, File file, int maxSegments, DownloadListener listener) {
+        DownloadTask task = new DownloadTask(this, url, file, maxSegments, listener);
+        task.start();
+        return task;
+    }
+
     /**
      * 取消对象的
      * @param tag
@@ -76,9 +395,24 @@ public class OptimusNetClient {
     public void cancel(Object tag) {
         Log.d(TAG, "cancel request tag:" + tag);
         mDispatcher.cancel(tag);
+        mCoalescer.cancel(tag);
+        RequestBatcher batcher = mBatcher;
+        if (batcher != null) {
+            batcher.cancel(tag);
+        }
     }
 
+    /**
+     * 取消所有请求，包括合并中和等待批量发送的请求
+     */
     public void cancelAll() {
+        Log.d(TAG, "cancel all requests");
+        // 先移除合并和批量请求的回调，再取消Dispatcher中的请求，被取消的合并请求不会再回调调用方
+        mCoalescer.cancelAll();
+        RequestBatcher batcher = mBatcher;
+        if (batcher != null) {
+            batcher.cancelAll();
+        }
         mDispatcher.cancelAll();
     }
 }
@@ -1,13 +1,30 @@
 package com.ainirobot.optimus.network;
 
 import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.Log;
+import android.util.MalformedJsonException;
 
+import com.ainirobot.optimus.network.encoding.CompressionStats;
+import com.ainirobot.optimus.network.json.JsonDecoder;
+import com.ainirobot.optimus.network.utils.ByteArrayPool;
+import com.ainirobot.optimus.network.utils.HttpUtils;
 import com.ainirobot.optimus.network.utils.IOUtils;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -19,12 +36,22 @@ import java.util.Map;
  * Copyright ©2018 Frewen.Wong. All Rights Reserved.
  */
 public class OriginalResponse implements Closeable {
+    private static final String TAG = "OriginalResponse";
+    private static final String DEFAULT_CHARSET = "UTF-8";
+    /**
+     * 按照Content-Length预先分配的数组的上限，更大的响应体边读边扩容，
+     * 避免错误或者恶意的Content-Length在读到数据之前就耗尽内存
+     */
+    private static final int MAX_INITIAL_CAPACITY = 1024 * 1024;
     private final int statusCode;
     private final InputStream content;
     private final long contentLength;
     private Map<String, List<String>> headers;
     private String contentType;
     private String contentEncoding;
+    private String charset;
+    private CompressionStats compressionStats;
+    private boolean fromCache;
     private String responseMessage;
 
     /**
@@ -38,7 +65,7 @@ public class OriginalResponse implements Closeable {
         this.statusCode = statusCode;
         this.content = content;
         this.contentLength = contentLength;
-        this.contentEncoding = "UTF-8";
+        this.charset = DEFAULT_CHARSET;
     }
 
 
@@ -59,26 +86,169 @@ public class OriginalResponse implements Closeable {
         return content;
     }
 
+    /**
+     * 读取整个响应体并转换为字符串。响应体直接读入按照Content-Length分配的数组，
+     * 只在转换为字符串时复制一次
+     */
     public String getContentString() {
         if (content == null) {
             return null;
         }
-        byte[] buffer = new byte[4096];
-        int len;
         try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteBuffer buffer = readFully();
+            return new String(buffer.array(), 0, buffer.limit(), charset);
+        } catch (IOException e) {
+            Log.e(TAG, "read content failed:" + Log.getStackTraceString(e));
+        } finally {
+            IOUtils.close(content);
+        }
+        return null;
+    }
+
+    /**
+     * 读取整个响应体，返回的ByteBuffer直接包装读取时使用的数组，没有额外的复制
+     */
+    public ByteBuffer getContentByteBuffer() {
+        if (content == null) {
+            return null;
+        }
+        try {
+            return readFully();
+        } catch (IOException e) {
+            Log.e(TAG, "read content failed:" + Log.getStackTraceString(e));
+        } finally {
+            IOUtils.close(content);
+        }
+        return null;
+    }
+
+    /**
+     * 以Channel的方式读取响应体，不会一次性读入内存，使用完之后需要调用{@link #close()}
+     */
+    public ReadableByteChannel getContentChannel() {
+        if (content == null) {
+            return null;
+        }
+        return Channels.newChannel(content);
+    }
+
+    /**
+     * 以字符流的方式读取响应体，适合交给流式的解析器，使用完之后需要调用{@link #close()}
+     */
+    public Reader getContentReader() throws UnsupportedEncodingException {
+        if (content == null) {
+            return null;
+        }
+        return new InputStreamReader(content, charset);
+    }
+
+    /**
+     * 边读取边解析JSON响应体，不会先转成字符串，解析完成之后关闭响应体
+     *
+     * @param decoder
+     * @return 解析出的对象
+     * @throws MalformedJsonException 没有响应体或者JSON格式与decoder期望的不一致
+     * @throws IOException             读取响应体失败
+     */
+    public <T> T decodeJson(JsonDecoder<T> decoder) throws IOException {
+        if (content == null) {
+            throw new MalformedJsonException("no content");
+        }
+        JsonReader reader = new JsonReader(new InputStreamReader(content, charset));
+        try {
+            return decoder.decode(reader);
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader遇到不符合预期的类型时抛出IllegalStateException，和读取失败区分开
+            MalformedJsonException malformed = new MalformedJsonException(e.getMessage());
+            malformed.initCause(e);
+            throw malformed;
+        } finally {
+            IOUtils.close(reader);
+        }
+    }
+
+    /**
+     * 把响应体写入输出流，使用缓冲区池中的缓冲区分段复制，不会一次性读入内存。
+     * 响应体读完之后关闭，输出流由调用方关闭
+     *
+     * @param out
+     * @return 写入的字节数
+     */
+    public long writeTo(OutputStream out) throws IOException {
+        if (content == null) {
+            return 0;
+        }
+        ByteArrayPool pool = ByteArrayPool.getDefault();
+        byte[] buffer = pool.getBuf(ByteArrayPool.bufferSizeFor(contentLength));
+        long total = 0;
+        try {
+            int len;
             while ((len = content.read(buffer)) != -1) {
                 out.write(buffer, 0, len);
+                total += len;
             }
-            return new String(out.toByteArray(), contentEncoding);
-        } catch (IOException e) {
-            e.printStackTrace();
         } finally {
+            pool.returnBuf(buffer);
             IOUtils.close(content);
         }
-        return null;
+        return total;
+    }
+
+    /**
+     * 把响应体直接写入文件，用于下载
+     *
+     * @param file 目标文件，已经存在时被覆盖
+     * @return 写入的字节数
+     */
+    public long writeTo(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            return writeTo(out);
+        } finally {
+            IOUtils.close(out);
+        }
+    }
+
+    /**
+     * 把响应体读入一个数组：Content-Length已知并且不超过{@link #MAX_INITIAL_CAPACITY}时数组大小正好等于响应体长度，
+     * 否则从默认大小或者上限开始，随着读到的数据按倍数扩容
+     */
+    private ByteBuffer readFully() throws IOException {
+        int capacity = (contentLength >= 0)
+                ? (int) Math.min(contentLength, MAX_INITIAL_CAPACITY)
+                : ByteArrayPool.bufferSizeFor(contentLength);
+        byte[] bytes = new byte[capacity];
+        int count = 0;
+        for (; ; ) {
+            if (count == bytes.length) {
+                // 数组已满，读一个字节判断是否还有数据，没有数据时不需要扩容
+                int b = content.read();
+                if (b == -1) {
+                    break;
+                }
+                bytes = Arrays.copyOf(bytes, grow(bytes.length));
+                bytes[count++] = (byte) b;
+            }
+            int len = content.read(bytes, count, bytes.length - count);
+            if (len == -1) {
+                break;
+            }
+            count += len;
+        }
+        return ByteBuffer.wrap(bytes, 0, count);
     }
 
+    private static int grow(int length) throws IOException {
+        if (length >= Integer.MAX_VALUE - 8) {
+            throw new IOException("content too large");
+        }
+        long grown = Math.max((long) length * 2, ByteArrayPool.MIN_BUFFER_SIZE);
+        return (int) Math.min(grown, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * 响应体长度，响应体被解压时长度未知，返回-1
+     */
     public long getContentLength() {
         return contentLength;
     }
@@ -87,10 +257,76 @@ public class OriginalResponse implements Closeable {
         return contentType;
     }
 
+    /**
+     * 响应的内容编码（Content-Encoding），如gzip，没有编码时为null。
+     * 响应体已经被解压，不需要再处理
+     */
     public String getContentEncoding() {
         return contentEncoding;
     }
 
+    /**
+     * 响应体的字符集，从Content-Type中解析，没有指定时为UTF-8
+     */
+    public String getCharset() {
+        return charset;
+    }
+
+    /**
+     * 请求体和响应体压缩前后的字节数，响应体读完之后才是最终结果
+     */
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    public void setCompressionStats(CompressionStats compressionStats) {
+        this.compressionStats = compressionStats;
+    }
+
+    /**
+     * 响应是否来自缓存（包括服务端返回304之后使用的缓存）
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    public void setFromCache(boolean fromCache) {
+        this.fromCache = fromCache;
+    }
+
+    /**
+     * 使用已经读取到内存中的响应体创建一个新的响应，其他信息与当前响应相同
+     *
+     * @param content 完整的响应体，为null时新响应没有响应体
+     */
+    public OriginalResponse copyWithContent(ByteBuffer content) {
+        InputStream in = null;
+        long length = -1;
+        if (content != null) {
+            in = new ByteArrayInputStream(content.array(), content.arrayOffset() + content.position(),
+                    content.remaining());
+            length = content.remaining();
+        }
+        return copyWithContent(in, length);
+    }
+
+    /**
+     * 使用新的响应体流创建一个新的响应，其他信息与当前响应相同。用于已经读取了一部分响应体之后继续流式读取
+     *
+     * @param content       新的响应体，关闭新响应时关闭
+     * @param contentLength 响应体长度，未知时为-1
+     */
+    public OriginalResponse copyWithContent(InputStream content, long contentLength) {
+        OriginalResponse copy = new OriginalResponse(statusCode, content, contentLength);
+        copy.setContentType(contentType);
+        copy.setHeaders(headers);
+        copy.setContentEncoding(contentEncoding);
+        copy.setResponseMessage(responseMessage);
+        copy.setCompressionStats(compressionStats);
+        copy.setFromCache(fromCache);
+        return copy;
+    }
+
     public String getResponseMessage() {
         return responseMessage;
     }
@@ -101,6 +337,7 @@ public class OriginalResponse implements Closeable {
 
     public void setContentType(String contentType) {
         this.contentType = contentType;
+        this.charset = HttpUtils.getCharset(contentType, DEFAULT_CHARSET);
     }
 
     public void setContentEncoding(String contentEncoding) {
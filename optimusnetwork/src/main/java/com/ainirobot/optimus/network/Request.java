@@ -4,11 +4,17 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import com.ainirobot.optimus.network.request.RequestBody;
+import com.ainirobot.optimus.network.utils.HttpUtils;
 
 import org.json.JSONObject;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @filename: Request
@@ -19,30 +25,90 @@ import java.util.Iterator;
  */
 public class Request {
     private static final String TAG = "Request";
+    /**
+     * 低优先级，如：日志、埋点上报
+     */
+    public static final int PRIORITY_LOW = 0;
+    /**
+     * 默认优先级
+     */
+    public static final int PRIORITY_NORMAL = 1;
+    /**
+     * 高优先级，如：机器人的交互控制请求
+     */
+    public static final int PRIORITY_HIGH = 2;
     private final String mUrl;
+    private final String mHost;
     private final String mMethod;
     private final String mSessionId;
-    private HashMap<String, String> mHeaders;
-    private HashMap<String, String> mUrlParams;
+    /**
+     * 带有编码后的查询参数的完整URL，在build()时生成一次
+     */
+    private final String mFullUrl;
+    /**
+     * 请求头和URL参数按照key、value交替存放在数组中，执行请求时直接遍历数组
+     */
+    private final String[] mHeaders;
+    private final String[] mUrlParams;
     private final RequestBody mBody;
     private final Object mTag;
-
+    private final int mPriority;
+    /**
+     * 请求截止时间（System.nanoTime()），0表示没有截止时间
+     */
+    private final long mDeadlineNanos;
+    /**
+     * 单个请求的超时时间（毫秒），小于0时使用OptimusNetClient的设置
+     */
+    private final long mConnectTimeout;
+    private final long mReadTimeout;
+    /**
+     * 单个请求的重试策略，为null时使用OptimusNetClient的设置
+     */
+    private final RetryPolicy mRetryPolicy;
+    private final boolean mGzipBody;
+    /**
+     * 请求体的上传限速（字节/秒），小于等于0时只受全局限速
+     */
+    private final long mUploadRateLimit;
+    private final boolean mBatchable;
+    private final boolean mSkipCache;
 
     private Request(Builder builder) {
         this.mUrl = builder.url;
+        this.mHost = HttpUtils.getHost(builder.url);
         this.mMethod = builder.method;
         this.mSessionId = builder.session;
-        this.mHeaders = builder.headers;
-        this.mUrlParams = builder.urlParams;
+        this.mHeaders = builder.headers.toArray(new String[builder.headers.size()]);
+        this.mUrlParams = builder.urlParams.toArray(new String[builder.urlParams.size()]);
+        this.mFullUrl = HttpUtils.buildUrl(builder.url, mUrlParams);
         this.mBody = builder.body;
         this.mTag = (builder.tag != null) ? builder.tag : this;
-        Log.d(TAG, "tag:" + this.mTag);
+        this.mPriority = builder.priority;
+        this.mDeadlineNanos = (builder.deadlineNanos > 0)
+                ? System.nanoTime() + builder.deadlineNanos : 0;
+        this.mConnectTimeout = builder.connectTimeout;
+        this.mReadTimeout = builder.readTimeout;
+        this.mRetryPolicy = builder.retryPolicy;
+        this.mGzipBody = builder.gzipBody;
+        this.mUploadRateLimit = builder.uploadRateLimit;
+        this.mBatchable = builder.batchable;
+        this.mSkipCache = builder.skipCache;
     }
 
     public String getUrl() {
         return mUrl;
     }
 
+    /**
+     * 请求的Host（包含端口），Dispatcher按照Host进行并发限制
+     *
+     * @return
+     */
+    public String getHost() {
+        return mHost;
+    }
+
     public String getMethod() {
         return mMethod;
     }
@@ -51,12 +117,45 @@ public class Request {
         return mSessionId;
     }
 
-    public HashMap<String, String> getUrlParams() {
-        return mUrlParams;
+    /**
+     * 带有编码后的查询参数的完整URL
+     */
+    public String getFullUrl() {
+        return mFullUrl;
+    }
+
+    /**
+     * URL参数，每次调用都会创建新的Map，执行请求时使用{@link #getFullUrl()}
+     */
+    public Map<String, String> getUrlParams() {
+        return toMap(mUrlParams);
+    }
+
+    /**
+     * 请求头，每次调用都会创建新的Map，执行请求时使用{@link #headerCount()}等方法直接遍历
+     */
+    public Map<String, String> getHeaders() {
+        return toMap(mHeaders);
+    }
+
+    public int headerCount() {
+        return mHeaders.length / 2;
+    }
+
+    public String headerName(int index) {
+        return mHeaders[index * 2];
+    }
+
+    public String headerValue(int index) {
+        return mHeaders[index * 2 + 1];
     }
 
-    public HashMap<String, String> getHeaders() {
-        return mHeaders;
+    private static Map<String, String> toMap(String[] namesAndValues) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            map.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return Collections.unmodifiableMap(map);
     }
 
     public RequestBody getBody() {
@@ -67,6 +166,70 @@ public class Request {
         return mTag;
     }
 
+    public int getPriority() {
+        return mPriority;
+    }
+
+    public long getDeadlineNanos() {
+        return mDeadlineNanos;
+    }
+
+    /**
+     * 连接超时时间（毫秒），小于0表示没有单独设置
+     */
+    public long getConnectTimeout() {
+        return mConnectTimeout;
+    }
+
+    /**
+     * 读取超时时间（毫秒），小于0表示没有单独设置
+     */
+    public long getReadTimeout() {
+        return mReadTimeout;
+    }
+
+    /**
+     * 重试策略，为null表示没有单独设置
+     */
+    public RetryPolicy getRetryPolicy() {
+        return mRetryPolicy;
+    }
+
+    /**
+     * 是否对请求体进行gzip压缩
+     */
+    public boolean isGzipBody() {
+        return mGzipBody;
+    }
+
+    public long getUploadRateLimit() {
+        return mUploadRateLimit;
+    }
+
+    /**
+     * 是否允许和其他请求合并发送
+     */
+    public boolean isBatchable() {
+        return mBatchable;
+    }
+
+    /**
+     * 是否跳过OptimusNetClient的HttpCache
+     */
+    public boolean isSkipCache() {
+        return mSkipCache;
+    }
+
+    /**
+     * 请求是否已经超过截止时间
+     *
+     * @param nowNanos System.nanoTime()
+     * @return
+     */
+    public boolean isExpired(long nowNanos) {
+        return mDeadlineNanos != 0 && nowNanos - mDeadlineNanos >= 0;
+    }
+
     public static class Builder {
         public static final String GET = "GET";
         public static final String POST = "POST";
@@ -74,15 +237,24 @@ public class Request {
         private String url;
         private String method;
         private String session;
-        private HashMap<String, String> headers;
-        private HashMap<String, String> urlParams;
+        private final List<String> headers;
+        private final List<String> urlParams;
         private RequestBody body;
         private Object tag;
+        private int priority = PRIORITY_NORMAL;
+        private long deadlineNanos;
+        private long connectTimeout = -1;
+        private long readTimeout = -1;
+        private RetryPolicy retryPolicy;
+        private boolean gzipBody;
+        private long uploadRateLimit;
+        private boolean batchable;
+        private boolean skipCache;
 
         public Builder() {
             this.method = GET;
-            headers = new HashMap<>();
-            urlParams = new HashMap<>();
+            headers = new ArrayList<>(8);
+            urlParams = new ArrayList<>(8);
         }
 
         public Builder url(String url) {
@@ -91,7 +263,7 @@ public class Request {
         }
 
         public Builder urlParam(String key, String value) {
-            urlParams.put(key, value);
+            set(urlParams, key, value);
             return this;
         }
 
@@ -113,7 +285,7 @@ public class Request {
                 while (it.hasNext()) {
                     String key = (String) it.next();
                     String value = jsonObj.optString(key);
-                    urlParams.put(key, value);
+                    set(urlParams, key, value);
                 }
             } catch (Exception e) {
                 Log.e(TAG, Log.getStackTraceString(e));
@@ -127,10 +299,24 @@ public class Request {
         }
 
         public Builder header(String key, String value) {
-            headers.put(key, value);
+            set(headers, key, value);
             return this;
         }
 
+        /**
+         * 设置key对应的值，已经存在时替换
+         */
+        private static void set(List<String> namesAndValues, String key, String value) {
+            for (int i = 0; i < namesAndValues.size(); i += 2) {
+                if (namesAndValues.get(i).equals(key)) {
+                    namesAndValues.set(i + 1, value);
+                    return;
+                }
+            }
+            namesAndValues.add(key);
+            namesAndValues.add(value);
+        }
+
         public Builder get() {
             return method(GET, null);
         }
@@ -156,6 +342,103 @@ public class Request {
             return this;
         }
 
+        /**
+         * 设置请求优先级，Dispatcher优先调度高优先级的请求
+         *
+         * @param priority {@link #PRIORITY_LOW}, {@link #PRIORITY_NORMAL}, {@link #PRIORITY_HIGH}
+         */
+        public Builder priority(int priority) {
+            if (priority < PRIORITY_LOW || priority > PRIORITY_HIGH) {
+                throw new IllegalArgumentException("unknown priority : " + priority);
+            }
+            this.priority = priority;
+            return this;
+        }
+
+        /**
+         * 设置请求的截止时间（从build()开始计时），超过截止时间还未开始执行的请求直接失败
+         */
+        public Builder deadline(long timeout, TimeUnit unit) {
+            if (timeout <= 0) {
+                throw new IllegalArgumentException("timeout <= 0 : " + timeout);
+            }
+            this.deadlineNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * 设置这个请求的连接超时时间，覆盖OptimusNetClient的设置，0表示不超时
+         */
+        public Builder connectTimeout(long timeout, TimeUnit unit) {
+            this.connectTimeout = checkTimeout(timeout, unit);
+            return this;
+        }
+
+        /**
+         * 设置这个请求的读取超时时间，覆盖OptimusNetClient的设置，0表示不超时
+         */
+        public Builder readTimeout(long timeout, TimeUnit unit) {
+            this.readTimeout = checkTimeout(timeout, unit);
+            return this;
+        }
+
+        /**
+         * 设置这个请求的重试策略，覆盖OptimusNetClient的设置
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * 对请求体进行gzip压缩后发送（Content-Encoding: gzip），需要服务端支持。
+         * 适合StringBody、MultipartBody等文本较多的请求体，已经压缩过的文件没有必要再压缩
+         */
+        public Builder gzipBody() {
+            this.gzipBody = true;
+            return this;
+        }
+
+        /**
+         * 限制这个请求的请求体上传速率，同时仍然受全局限速的限制，见{@link OptimusNetClient#setUploadRateLimit(long)}。
+         * 适合日志、传感器数据等大文件的后台上传，通常同时设置{@link #PRIORITY_LOW}
+         *
+         * @param bytesPerSecond 字节/秒，小于等于0时不单独限速
+         */
+        public Builder uploadRateLimit(long bytesPerSecond) {
+            this.uploadRateLimit = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * 允许这个请求和其他小请求合并发送，见{@link OptimusNetClient#setRequestBatcher}。
+         * 适合埋点、心跳等不要求立即发送的StringBody POST请求，服务端需要提供批量接口
+         */
+        public Builder batchable() {
+            this.batchable = true;
+            return this;
+        }
+
+        /**
+         * 这个请求不读取也不写入{@link OptimusNetClient#setCache}设置的缓存，总是访问网络。
+         * 适合下载等响应体很大、或者需要原样拿到服务端响应的请求
+         */
+        public Builder skipCache() {
+            this.skipCache = true;
+            return this;
+        }
+
+        private static long checkTimeout(long timeout, TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("timeout < 0 : " + timeout);
+            }
+            long millis = unit.toMillis(timeout);
+            if (millis > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("timeout too large : " + timeout);
+            }
+            return millis;
+        }
+
         public Request build() {
             return new Request(this);
         }
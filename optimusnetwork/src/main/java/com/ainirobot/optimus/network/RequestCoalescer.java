@@ -0,0 +1,253 @@
+package com.ainirobot.optimus.network;
+
+import android.util.Log;
+
+import com.ainirobot.optimus.network.constant.ErrorCode;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @filename: RequestCoalescer
+ * @introduction: 相同GET请求的合并（single-flight）。一个请求正在执行时，URL、参数和请求头都相同的GET请求
+ * 不再单独发送，而是等待这个请求的结果：响应体只读取一次缓存在内存中，再分别回调给每个RequestListener。
+ * 合并后的请求使用自己的TAG，某个调用方取消时只会移除它自己的回调，所有调用方都取消之后才会取消请求
+ * @author: Frewen.Wong
+ * @time: 2019/4/22 10:20
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+class RequestCoalescer {
+    private static final String TAG = "RequestCoalescer";
+    private final OptimusNetClient mClient;
+    private final ConcurrentMap<String, Flight> mFlights = new ConcurrentHashMap<>();
+    /**
+     * 还没有回调完成的请求。收到响应之后请求就不再接受合并，但是回调读取响应体期间仍然可以被取消
+     */
+    private final Set<Flight> mActiveFlights =
+            Collections.newSetFromMap(new ConcurrentHashMap<Flight, Boolean>());
+    private final AtomicLong mCoalescedCount = new AtomicLong();
+
+    RequestCoalescer(OptimusNetClient client) {
+        this.mClient = client;
+    }
+
+    /**
+     * 是否可以合并：只合并没有请求体的GET请求
+     */
+    static boolean isCoalescable(Request request) {
+        return Request.Builder.GET.equals(request.getMethod()) && request.getBody() == null;
+    }
+
+    /**
+     * 执行请求，已经有相同的请求在执行时只添加回调
+     */
+    void execute(Request request, RequestListener listener) {
+        String key = key(request);
+        for (; ; ) {
+            Flight flight = mFlights.get(key);
+            if (flight != null && flight.add(request.getTag(), listener)) {
+                mCoalescedCount.incrementAndGet();
+                return;
+            }
+            Flight created = new Flight(key, request.getTag(), listener);
+            boolean installed = (flight == null)
+                    ? mFlights.putIfAbsent(key, created) == null
+                    : mFlights.replace(key, flight, created);
+            if (installed) {
+                mActiveFlights.add(created);
+                mClient.getDispatcher().submit(new NetworkRunnable(mClient, request, created, created));
+                return;
+            }
+        }
+    }
+
+    /**
+     * 移除TAG对应的回调，请求已经没有回调时取消请求
+     */
+    void cancel(Object tag) {
+        for (Flight flight : mActiveFlights) {
+            if (flight.remove(tag, null)) {
+                mFlights.remove(flight.mKey, flight);
+                mClient.getDispatcher().cancel(flight);
+            }
+        }
+    }
+
+    /**
+     * 只移除这一个回调，不影响使用相同TAG的其他调用方
+     */
+    void cancel(RequestListener listener) {
+        for (Flight flight : mActiveFlights) {
+            if (flight.remove(null, listener)) {
+                mFlights.remove(flight.mKey, flight);
+                mClient.getDispatcher().cancel(flight);
+            }
+        }
+    }
+
+    /**
+     * 移除所有回调并取消所有合并的请求
+     */
+    void cancelAll() {
+        for (Flight flight : mActiveFlights) {
+            flight.removeAll();
+            mFlights.remove(flight.mKey, flight);
+            mClient.getDispatcher().cancel(flight);
+        }
+    }
+
+    /**
+     * 被合并（没有单独发送）的请求数
+     */
+    long getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    /**
+     * 合并的依据：URL、按key排序后的参数和请求头、session
+     */
+    private static String key(Request request) {
+        StringBuilder builder = new StringBuilder(request.getUrl());
+        builder.append('?');
+        for (Map.Entry<String, String> entry : new TreeMap<>(request.getUrlParams()).entrySet()) {
+            builder.append(entry.getKey()).append('=').append(entry.getValue()).append('&');
+        }
+        builder.append('\n');
+        for (Map.Entry<String, String> entry : new TreeMap<>(request.getHeaders()).entrySet()) {
+            builder.append(entry.getKey()).append(':').append(entry.getValue()).append('\n');
+        }
+        builder.append(request.getSessionId());
+        return builder.toString();
+    }
+
+    /**
+     * 一个正在执行的合并请求，收到响应时关闭，之后到来的相同请求会重新发送
+     */
+    private final class Flight implements RequestListener {
+        private final String mKey;
+        private final List<Object> mTags = new ArrayList<>();
+        private final List<RequestListener> mListeners = new ArrayList<>();
+        private boolean closed;
+
+        private Flight(String key, Object tag, RequestListener listener) {
+            this.mKey = key;
+            mTags.add(tag);
+            mListeners.add(listener);
+        }
+
+        private synchronized boolean add(Object tag, RequestListener listener) {
+            if (closed) {
+                return false;
+            }
+            mTags.add(tag);
+            mListeners.add(listener);
+            return true;
+        }
+
+        /**
+         * 移除TAG对应的回调，listener不为null时只移除这个回调
+         *
+         * @return 这次移除之后是否已经没有回调（此时关闭），需要取消请求
+         */
+        private synchronized boolean remove(Object tag, RequestListener listener) {
+            if (mTags.isEmpty()) {
+                return false;
+            }
+            for (int i = mTags.size() - 1; i >= 0; i--) {
+                boolean matched = (listener != null)
+                        ? mListeners.get(i) == listener
+                        : mTags.get(i) == tag || mTags.get(i).equals(tag);
+                if (matched) {
+                    mTags.remove(i);
+                    mListeners.remove(i);
+                }
+            }
+            if (mTags.isEmpty()) {
+                closed = true;
+                return true;
+            }
+            return false;
+        }
+
+        private synchronized void removeAll() {
+            mTags.clear();
+            mListeners.clear();
+            closed = true;
+        }
+
+        private List<RequestListener> close() {
+            mFlights.remove(mKey, this);
+            synchronized (this) {
+                closed = true;
+                List<RequestListener> listeners = new ArrayList<>(mListeners.size());
+                for (RequestListener listener : mListeners) {
+                    if (listener != null) {
+                        listeners.add(listener);
+                    }
+                }
+                return listeners;
+            }
+        }
+
+        @Override
+        public void onSuccess(OriginalResponse response) {
+            try {
+                deliver(response);
+            } finally {
+                mActiveFlights.remove(this);
+            }
+        }
+
+        private void deliver(OriginalResponse response) {
+            List<RequestListener> listeners = close();
+            if (listeners.size() == 1) {
+                listeners.get(0).onSuccess(response);
+                return;
+            }
+            if (listeners.isEmpty()) {
+                return;
+            }
+            // 响应体只读取一次，每个回调拿到一份独立的输入流
+            ByteBuffer content = null;
+            if (response.getContent() != null) {
+                content = response.getContentByteBuffer();
+                if (content == null) {
+                    // 读取失败时不能回调一个没有响应体的成功响应
+                    fail(listeners, ErrorCode.CODE_ERROR_IO_EXCEPTION, "read response failed");
+                    return;
+                }
+            }
+            for (RequestListener listener : listeners) {
+                try {
+                    listener.onSuccess(response.copyWithContent(content));
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "listener error:" + Log.getStackTraceString(e));
+                }
+            }
+        }
+
+        @Override
+        public void onFailure(int errCode, String errMsg) {
+            mActiveFlights.remove(this);
+            fail(close(), errCode, errMsg);
+        }
+
+        private void fail(List<RequestListener> listeners, int errCode, String errMsg) {
+            for (RequestListener listener : listeners) {
+                try {
+                    listener.onFailure(errCode, errMsg);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "listener error:" + Log.getStackTraceString(e));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.ainirobot.optimus.network;
+
+import android.util.Log;
+
+import com.ainirobot.optimus.network.constant.ErrorCode;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * @filename: ResponseFuture
+ * @introduction: {@link OptimusNetClient#executeAsync(Request)}返回的异步结果。
+ * 响应体在网络线程中完整读入内存，get()拿到的响应不依赖连接，可以在任意线程中读取。
+ * 调用cancel()会取消请求并断开正在进行的连接，等待中的get()抛出CancellationException。
+ * minSdkVersion 19没有CompletableFuture，需要组合多个请求时使用{@link #addListener(RequestListener)}
+ * 或者{@link com.ainirobot.optimus.network.rx.RxOptimus}
+ * @author: Frewen.Wong
+ * @time: 2019/4/23 10:20
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class ResponseFuture implements Future<OriginalResponse>, RequestListener {
+    private static final String TAG = "ResponseFuture";
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_SUCCESS = 1;
+    private static final int STATE_FAILURE = 2;
+    private static final int STATE_CANCELLED = 3;
+
+    private int mState = STATE_PENDING;
+    private OriginalResponse mResponse;
+    /**
+     * 读入内存的响应体，每个回调拿到一份独立的输入流
+     */
+    private ByteBuffer mContent;
+    private int mErrorCode;
+    private String mErrorMessage;
+    private List<RequestListener> mListeners;
+    /**
+     * 取消请求的操作，由OptimusNetClient在提交请求时设置
+     */
+    private volatile Runnable mCancelAction;
+
+    ResponseFuture() {
+    }
+
+    void setCancelAction(Runnable cancelAction) {
+        this.mCancelAction = cancelAction;
+    }
+
+    /**
+     * 添加结果回调，已经有结果时在当前线程中立即回调，否则在完成请求的线程中回调。
+     * 取消时回调{@link ErrorCode#CODE_ERROR_USER_CANCEL}
+     *
+     * @param listener
+     */
+    public void addListener(RequestListener listener) {
+        synchronized (this) {
+            if (mState == STATE_PENDING) {
+                if (mListeners == null) {
+                    mListeners = new ArrayList<>(2);
+                }
+                mListeners.add(listener);
+                return;
+            }
+        }
+        notifyListener(listener);
+    }
+
+    @Override
+    public void onSuccess(OriginalResponse response) {
+        // 回调返回之后NetworkRunnable会关闭响应体，这里先读入内存
+        ByteBuffer content = null;
+        if (response.getContent() != null) {
+            content = response.getContentByteBuffer();
+            if (content == null) {
+                onFailure(ErrorCode.CODE_ERROR_IO_EXCEPTION, "read response failed");
+                return;
+            }
+        }
+        complete(STATE_SUCCESS, response, content, 0, null);
+    }
+
+    @Override
+    public void onFailure(int errCode, String errMsg) {
+        complete(STATE_FAILURE, null, null, errCode, errMsg);
+    }
+
+    /**
+     * 取消请求：还在等待的请求不会再执行，正在执行的请求会断开连接
+     *
+     * @param mayInterruptIfRunning 忽略，正在执行的请求总是会被中断
+     * @return 请求已经有结果时返回false
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!complete(STATE_CANCELLED, null, null, ErrorCode.CODE_ERROR_USER_CANCEL, "user cancel")) {
+            return false;
+        }
+        Runnable cancelAction = mCancelAction;
+        if (cancelAction != null) {
+            cancelAction.run();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mState == STATE_CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mState != STATE_PENDING;
+    }
+
+    @Override
+    public synchronized OriginalResponse get() throws InterruptedException, ExecutionException {
+        while (mState == STATE_PENDING) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized OriginalResponse get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (mState == STATE_PENDING) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    private OriginalResponse result() throws ExecutionException {
+        if (mState == STATE_SUCCESS) {
+            return mResponse;
+        }
+        if (mState == STATE_CANCELLED) {
+            throw new CancellationException();
+        }
+        throw new ExecutionException(new NetworkException(mErrorCode, mErrorMessage));
+    }
+
+    /**
+     * @return 是否由这次调用完成
+     */
+    private boolean complete(int state, OriginalResponse response, ByteBuffer content,
+                             int errorCode, String errorMessage) {
+        List<RequestListener> listeners;
+        synchronized (this) {
+            if (mState != STATE_PENDING) {
+                return false;
+            }
+            mState = state;
+            mResponse = (response != null) ? response.copyWithContent(content) : null;
+            mContent = content;
+            mErrorCode = errorCode;
+            mErrorMessage = errorMessage;
+            listeners = mListeners;
+            mListeners = null;
+            notifyAll();
+        }
+        if (listeners != null) {
+            for (RequestListener listener : listeners) {
+                notifyListener(listener);
+            }
+        }
+        return true;
+    }
+
+    private void notifyListener(RequestListener listener) {
+        try {
+            if (mState == STATE_SUCCESS) {
+                listener.onSuccess(mResponse.copyWithContent(mContent));
+            } else {
+                listener.onFailure(mErrorCode, mErrorMessage);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "listener error:" + Log.getStackTraceString(e));
+        }
+    }
+}
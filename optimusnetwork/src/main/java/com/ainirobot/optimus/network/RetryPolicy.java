@@ -0,0 +1,115 @@
+package com.ainirobot.optimus.network;
+
+import java.util.Random;
+
+/**
+ * @filename: RetryPolicy
+ * @introduction: 网络请求的重试策略。只有幂等的请求（GET等）才会重试，
+ * 重试间隔按指数增长并加入随机抖动，避免大量请求在同一时刻重试
+ * @author: Frewen.Wong
+ * @time: 2019/4/20 17:02
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class RetryPolicy {
+    /**
+     * 不重试，OptimusNetClient默认使用这个策略
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0);
+    /**
+     * 推荐的重试策略：最多重试2次，间隔从500毫秒开始，最长8秒，通过{@link OptimusNetClient#setRetryPolicy(RetryPolicy)}开启
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(2, 500, 8000);
+
+    private static final Random RANDOM = new Random();
+    private final int mMaxRetries;
+    private final long mInitialBackoffMillis;
+    private final long mMaxBackoffMillis;
+
+    /**
+     * @param maxRetries           最大重试次数
+     * @param initialBackoffMillis 第一次重试的间隔，之后每次翻倍
+     * @param maxBackoffMillis     重试间隔的上限
+     */
+    public RetryPolicy(int maxRetries, long initialBackoffMillis, long maxBackoffMillis) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries < 0 : " + maxRetries);
+        }
+        if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("illegal backoff : "
+                    + initialBackoffMillis + ", " + maxBackoffMillis);
+        }
+        this.mMaxRetries = maxRetries;
+        this.mInitialBackoffMillis = initialBackoffMillis;
+        this.mMaxBackoffMillis = maxBackoffMillis;
+    }
+
+    public int getMaxRetries() {
+        return mMaxRetries;
+    }
+
+    public long getInitialBackoffMillis() {
+        return mInitialBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis() {
+        return mMaxBackoffMillis;
+    }
+
+    /**
+     * 请求是否可以重试：必须是幂等的请求，并且还没有用完重试次数
+     *
+     * @param request
+     * @param retryCount 已经重试的次数
+     */
+    public boolean canRetry(Request request, int retryCount) {
+        return retryCount < mMaxRetries && isIdempotent(request.getMethod());
+    }
+
+    /**
+     * 服务端暂时不可用的返回码，可以重试
+     */
+    public boolean isRetryableStatus(int statusCode) {
+        switch (statusCode) {
+            case 408:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 第retryCount次重试之前的等待时间：指数退避上限的一半加上另一半范围内的随机值
+     *
+     * @param retryCount 已经重试的次数，从0开始
+     */
+    public long getBackoffMillis(int retryCount) {
+        long backoff = mInitialBackoffMillis;
+        for (int i = 0; i < retryCount && backoff < mMaxBackoffMillis; i++) {
+            backoff <<= 1;
+        }
+        backoff = Math.min(backoff, mMaxBackoffMillis);
+        long half = backoff / 2;
+        if (half <= 0) {
+            return backoff;
+        }
+        return half + (long) (RANDOM.nextDouble() * (backoff - half + 1));
+    }
+
+    private static boolean isIdempotent(String method) {
+        return Request.Builder.GET.equals(method)
+                || "HEAD".equals(method)
+                || "PUT".equals(method)
+                || "DELETE".equals(method)
+                || "OPTIONS".equals(method);
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{maxRetries=" + mMaxRetries
+                + ", initialBackoffMillis=" + mInitialBackoffMillis
+                + ", maxBackoffMillis=" + mMaxBackoffMillis + "}";
+    }
+}
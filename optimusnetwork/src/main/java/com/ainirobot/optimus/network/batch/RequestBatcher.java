@@ -0,0 +1,587 @@
+package com.ainirobot.optimus.network.batch;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.ainirobot.optimus.network.NetworkRunnable;
+import com.ainirobot.optimus.network.OptimusNetClient;
+import com.ainirobot.optimus.network.OriginalResponse;
+import com.ainirobot.optimus.network.Request;
+import com.ainirobot.optimus.network.RequestListener;
+import com.ainirobot.optimus.network.constant.ErrorCode;
+import com.ainirobot.optimus.network.json.JsonDecoder;
+import com.ainirobot.optimus.network.request.RequestBody;
+import com.ainirobot.optimus.network.request.body.JsonBody;
+import com.ainirobot.optimus.network.request.body.StringBody;
+import com.ainirobot.optimus.network.utils.HttpUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @filename: RequestBatcher
+ * @introduction: 小请求的合并发送。标记了{@link Request.Builder#batchable()}的StringBody POST请求先放入分组
+ * （相同session和优先级），等待一个时间窗口或者达到数量上限之后，合并成一个JSON数组请求发送到批量接口，
+ * 再把响应数组按顺序拆分回每个请求的RequestListener。
+ * <p>
+ * 批量请求：[{"method":"POST","url":"完整URL","headers":{"Content-Type":"..."},"body":"..."}, ...]
+ * <p>
+ * 批量响应：与请求顺序相同的数组，[{"status":200,"contentType":"...","body":"..."}, ...]
+ * @author: Frewen.Wong
+ * @time: 2019/4/25 15:10
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class RequestBatcher {
+    private static final String TAG = "RequestBatcher";
+    private static final String CHARSET = "UTF-8";
+    public static final long DEFAULT_WINDOW_MILLIS = 50;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 20;
+    /**
+     * 超过这个大小的请求体单独发送
+     */
+    public static final int DEFAULT_MAX_ITEM_BYTES = 16 * 1024;
+
+    private final OptimusNetClient mClient;
+    private final String mBatchUrl;
+    private volatile long mWindowMillis = DEFAULT_WINDOW_MILLIS;
+    private volatile int mMaxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private volatile int mMaxItemBytes = DEFAULT_MAX_ITEM_BYTES;
+    /**
+     * 等待发送的分组
+     */
+    private final Map<String, Group> mGroups = new HashMap<>();
+    /**
+     * 已经发送还没有收到响应的批量请求，可以取消其中的单个请求
+     */
+    private final Set<Batch> mInFlight = Collections.newSetFromMap(new ConcurrentHashMap<Batch, Boolean>());
+    /**
+     * 没有合并、直接交给Dispatcher发送的请求，可以按照回调取消
+     */
+    private final Set<Direct> mDirect = Collections.newSetFromMap(new ConcurrentHashMap<Direct, Boolean>());
+    private final AtomicLong mBatchCount = new AtomicLong();
+    private final AtomicLong mBatchedRequestCount = new AtomicLong();
+    private ScheduledExecutorService mScheduler;
+
+    /**
+     * @param client
+     * @param batchUrl 批量接口的URL
+     */
+    public RequestBatcher(OptimusNetClient client, String batchUrl) {
+        this.mClient = client;
+        this.mBatchUrl = batchUrl;
+    }
+
+    /**
+     * 设置合并的时间窗口：分组中的第一个请求到达之后最多等待多久发送
+     */
+    public void setWindow(long window, TimeUnit unit) {
+        if (window < 0) {
+            throw new IllegalArgumentException("window < 0 : " + window);
+        }
+        this.mWindowMillis = unit.toMillis(window);
+    }
+
+    public long getWindowMillis() {
+        return mWindowMillis;
+    }
+
+    /**
+     * 设置一个批量请求最多包含的请求数，达到上限时立即发送
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize < 1 : " + maxBatchSize);
+        }
+        this.mMaxBatchSize = maxBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    /**
+     * 设置可以合并的请求体的最大长度
+     */
+    public void setMaxItemBytes(int maxItemBytes) {
+        this.mMaxItemBytes = maxItemBytes;
+    }
+
+    /**
+     * 发送的批量请求数
+     */
+    public long getBatchCount() {
+        return mBatchCount.get();
+    }
+
+    /**
+     * 通过批量请求发送的请求数
+     */
+    public long getBatchedRequestCount() {
+        return mBatchedRequestCount.get();
+    }
+
+    /**
+     * 是否可以合并：标记了batchable的POST请求，请求体是不超过长度上限的StringBody
+     */
+    public boolean isBatchable(Request request) {
+        RequestBody body = request.getBody();
+        return request.isBatchable()
+                && Request.Builder.POST.equals(request.getMethod())
+                && body instanceof StringBody
+                && body.getContentLength() <= mMaxItemBytes;
+    }
+
+    /**
+     * 放入分组等待发送
+     */
+    public void add(Request request, RequestListener listener) {
+        Item item;
+        try {
+            item = new Item(request, listener);
+        } catch (IOException e) {
+            // StringBody写入内存不会失败，失败时单独发送
+            sendDirect(request, listener);
+            return;
+        }
+        Group full = null;
+        synchronized (this) {
+            String key = request.getSessionId() + '\n' + request.getPriority();
+            Group group = mGroups.get(key);
+            if (group == null) {
+                group = new Group(key, request.getSessionId(), request.getPriority());
+                mGroups.put(key, group);
+            }
+            group.items.add(item);
+            if (group.items.size() >= mMaxBatchSize || mWindowMillis == 0) {
+                full = removeGroup(group);
+            } else if (group.flushFuture == null) {
+                final Group scheduled = group;
+                group.flushFuture = scheduler().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        Group expired;
+                        synchronized (RequestBatcher.this) {
+                            expired = (mGroups.get(scheduled.key) == scheduled) ? removeGroup(scheduled) : null;
+                        }
+                        if (expired != null) {
+                            send(expired);
+                        }
+                    }
+                }, mWindowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+    }
+
+    /**
+     * 立即发送所有等待中的分组
+     */
+    public void flush() {
+        List<Group> groups;
+        synchronized (this) {
+            groups = new ArrayList<>(mGroups.values());
+            for (Group group : groups) {
+                removeGroup(group);
+            }
+        }
+        for (Group group : groups) {
+            send(group);
+        }
+    }
+
+    /**
+     * 取消TAG对应的请求：还在等待的直接移除，已经发送的不再回调，一个批量请求中的请求都被取消时取消批量请求
+     */
+    public void cancel(Object tag) {
+        cancel(tag, null);
+    }
+
+    /**
+     * 只取消这一个回调对应的请求
+     */
+    public void cancel(RequestListener listener) {
+        cancel(null, listener);
+    }
+
+    private void cancel(Object tag, RequestListener listener) {
+        synchronized (this) {
+            Iterator<Group> groups = mGroups.values().iterator();
+            while (groups.hasNext()) {
+                Group group = groups.next();
+                Iterator<Item> items = group.items.iterator();
+                while (items.hasNext()) {
+                    if (items.next().matches(tag, listener)) {
+                        items.remove();
+                    }
+                }
+                if (group.items.isEmpty()) {
+                    if (group.flushFuture != null) {
+                        group.flushFuture.cancel(false);
+                    }
+                    groups.remove();
+                }
+            }
+        }
+        for (Batch batch : mInFlight) {
+            if (batch.cancel(tag, listener)) {
+                mInFlight.remove(batch);
+                mClient.cancel(batch);
+            }
+        }
+        for (Direct direct : mDirect) {
+            if (direct.matches(tag, listener)) {
+                mDirect.remove(direct);
+                direct.runnable.cancel();
+            }
+        }
+    }
+
+    /**
+     * 取消所有请求：等待中的分组直接丢弃，已经发送的批量请求取消并且不再回调
+     */
+    public void cancelAll() {
+        synchronized (this) {
+            for (Group group : mGroups.values()) {
+                if (group.flushFuture != null) {
+                    group.flushFuture.cancel(false);
+                }
+            }
+            mGroups.clear();
+        }
+        for (Batch batch : mInFlight) {
+            batch.cancelAll();
+            mInFlight.remove(batch);
+            mClient.getDispatcher().cancel(batch);
+        }
+        for (Direct direct : mDirect) {
+            mDirect.remove(direct);
+            direct.runnable.cancel();
+        }
+    }
+
+    private Group removeGroup(Group group) {
+        mGroups.remove(group.key);
+        if (group.flushFuture != null) {
+            group.flushFuture.cancel(false);
+            group.flushFuture = null;
+        }
+        return group;
+    }
+
+    private void send(Group group) {
+        final List<Item> items = group.items;
+        if (items.isEmpty()) {
+            return;
+        }
+        if (items.size() == 1) {
+            // 只有一个请求时没有必要合并
+            Item item = items.get(0);
+            sendDirect(item.request, item.listener);
+            return;
+        }
+        mBatchCount.incrementAndGet();
+        mBatchedRequestCount.addAndGet(items.size());
+        Batch batch = new Batch(items);
+        Request.Builder builder = new Request.Builder()
+                .url(mBatchUrl)
+                .session(group.session)
+                .priority(group.priority)
+                .tag(batch)
+                .post(new JsonBody(new JsonBody.Source() {
+                    @Override
+                    public void writeTo(JsonWriter writer) throws IOException {
+                        writer.beginArray();
+                        for (Item item : items) {
+                            item.writeTo(writer);
+                        }
+                        writer.endArray();
+                    }
+                }));
+        for (Item item : items) {
+            if (item.request.isGzipBody()) {
+                builder.gzipBody();
+                break;
+            }
+        }
+        mInFlight.add(batch);
+        mClient.execute(builder.build(), batch);
+    }
+
+    /**
+     * 不经过OptimusNetClient.execute直接交给Dispatcher，否则请求仍然是batchable的，会再次放入分组
+     */
+    private void sendDirect(Request request, RequestListener listener) {
+        Direct direct = new Direct(request, listener);
+        mDirect.add(direct);
+        mClient.getDispatcher().submit(direct.runnable);
+    }
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (mScheduler == null) {
+            mScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "OptimusNetwork-Batcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mScheduler;
+    }
+
+    /**
+     * 相同session和优先级的等待中的请求
+     */
+    private static final class Group {
+        private final String key;
+        private final String session;
+        private final int priority;
+        private final List<Item> items = new ArrayList<>();
+        private ScheduledFuture<?> flushFuture;
+
+        private Group(String key, String session, int priority) {
+            this.key = key;
+            this.session = session;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * 批量请求中的一个请求，请求体在加入时读入内存
+     */
+    private static final class Item {
+        private final Request request;
+        private final RequestListener listener;
+        private final String body;
+        private volatile boolean canceled;
+
+        private Item(Request request, RequestListener listener) throws IOException {
+            this.request = request;
+            this.listener = listener;
+            RequestBody requestBody = request.getBody();
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) requestBody.getContentLength());
+            requestBody.writeTo(out);
+            this.body = out.toString(CHARSET);
+        }
+
+        private boolean matches(Object tag, RequestListener listener) {
+            if (listener != null) {
+                return this.listener == listener;
+            }
+            return request.getTag() == tag || request.getTag().equals(tag);
+        }
+
+        private void writeTo(JsonWriter writer) throws IOException {
+            writer.beginObject();
+            writer.name("method").value(request.getMethod());
+            writer.name("url").value(request.getFullUrl());
+            writer.name("headers").beginObject();
+            for (int i = 0, count = request.headerCount(); i < count; i++) {
+                writer.name(request.headerName(i)).value(request.headerValue(i));
+            }
+            String contentType = request.getBody().getContentType();
+            if (contentType != null) {
+                writer.name("Content-Type").value(contentType);
+            }
+            writer.endObject();
+            writer.name("body").value(body);
+            writer.endObject();
+        }
+    }
+
+    /**
+     * 单独发送的请求，结束之后从mDirect中移除
+     */
+    private final class Direct implements RequestListener {
+        private final Request request;
+        private final RequestListener listener;
+        private final NetworkRunnable runnable;
+
+        private Direct(Request request, RequestListener listener) {
+            this.request = request;
+            this.listener = listener;
+            this.runnable = new NetworkRunnable(mClient, request, this);
+        }
+
+        private boolean matches(Object tag, RequestListener listener) {
+            if (listener != null) {
+                return this.listener == listener;
+            }
+            return request.getTag() == tag || request.getTag().equals(tag);
+        }
+
+        @Override
+        public void onSuccess(OriginalResponse response) {
+            mDirect.remove(this);
+            if (listener != null) {
+                listener.onSuccess(response);
+            }
+        }
+
+        @Override
+        public void onFailure(int errCode, String errMsg) {
+            mDirect.remove(this);
+            if (listener != null) {
+                listener.onFailure(errCode, errMsg);
+            }
+        }
+    }
+
+    /**
+     * 批量响应中的一项
+     */
+    private static final class Result {
+        private int status;
+        private String contentType;
+        private String body;
+    }
+
+    private static final JsonDecoder<List<Result>> RESULTS_DECODER = new JsonDecoder<List<Result>>() {
+        @Override
+        public List<Result> decode(JsonReader reader) throws IOException {
+            List<Result> results = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                Result result = new Result();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.skipValue();
+                    } else if ("status".equals(name)) {
+                        result.status = reader.nextInt();
+                    } else if ("contentType".equals(name)) {
+                        result.contentType = reader.nextString();
+                    } else if ("body".equals(name)) {
+                        result.body = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                results.add(result);
+            }
+            reader.endArray();
+            return results;
+        }
+    };
+
+    /**
+     * 一个已经发送的批量请求，收到响应之后按顺序拆分给每个请求
+     */
+    private final class Batch implements RequestListener {
+        private final List<Item> mItems;
+
+        private Batch(List<Item> items) {
+            this.mItems = items;
+        }
+
+        /**
+         * @return 是否所有请求都已经取消
+         */
+        private boolean cancel(Object tag, RequestListener listener) {
+            boolean allCanceled = true;
+            for (Item item : mItems) {
+                if (!item.canceled && item.matches(tag, listener)) {
+                    item.canceled = true;
+                }
+                allCanceled &= item.canceled;
+            }
+            return allCanceled;
+        }
+
+        private void cancelAll() {
+            for (Item item : mItems) {
+                item.canceled = true;
+            }
+        }
+
+        @Override
+        public void onSuccess(OriginalResponse response) {
+            mInFlight.remove(this);
+            List<Result> results;
+            try {
+                results = response.decodeJson(RESULTS_DECODER);
+            } catch (IOException e) {
+                Log.e(TAG, "decode batch response failed:" + e.getMessage());
+                fail(0, ErrorCode.CODE_ERROR_JSON_EXCEPTION, "bad batch response:" + e.getMessage());
+                return;
+            }
+            int count = Math.min(results.size(), mItems.size());
+            for (int i = 0; i < count; i++) {
+                Item item = mItems.get(i);
+                if (item.canceled || item.listener == null) {
+                    continue;
+                }
+                Result result = results.get(i);
+                try {
+                    if (HttpUtils.isSuccessful(result.status)) {
+                        item.listener.onSuccess(toResponse(result, response));
+                    } else {
+                        item.listener.onFailure(result.status, result.body);
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "listener error:" + Log.getStackTraceString(e));
+                }
+            }
+            // 响应数组比请求少时，缺少响应的请求失败
+            fail(count, ErrorCode.CODE_ERROR_IO_EXCEPTION, "missing batch response");
+        }
+
+        @Override
+        public void onFailure(int errCode, String errMsg) {
+            mInFlight.remove(this);
+            fail(0, errCode, errMsg);
+        }
+
+        private void fail(int from, int errCode, String errMsg) {
+            for (int i = from; i < mItems.size(); i++) {
+                Item item = mItems.get(i);
+                if (item.canceled || item.listener == null) {
+                    continue;
+                }
+                try {
+                    item.listener.onFailure(errCode, errMsg);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "listener error:" + Log.getStackTraceString(e));
+                }
+            }
+        }
+
+        private OriginalResponse toResponse(Result result, OriginalResponse batchResponse) {
+            byte[] body;
+            try {
+                body = (result.body != null) ? result.body.getBytes(CHARSET) : new byte[0];
+            } catch (IOException e) {
+                body = new byte[0];
+            }
+            OriginalResponse response = new OriginalResponse(result.status,
+                    new ByteArrayInputStream(body), body.length);
+            response.setContentType((result.contentType != null)
+                    ? result.contentType : "text/plain; charset=UTF-8");
+            response.setHeaders(batchResponse.getHeaders());
+            response.setResponseMessage(batchResponse.getResponseMessage());
+            return response;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.ainirobot.optimus.network.cache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @filename: CacheEntry
+ * @introduction: 一条缓存的响应：响应头、响应体，以及用于判断是否新鲜的时间信息
+ * @author: Frewen.Wong
+ * @time: 2019/4/22 14:05
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class CacheEntry {
+    private static final int VERSION = 1;
+
+    private final String mUrl;
+    private final int mStatusCode;
+    private final Map<String, List<String>> mHeaders;
+    private final byte[] mBody;
+    /**
+     * 收到响应（或者重新验证）的时间
+     */
+    private final long mResponseTimeMillis;
+    /**
+     * 新鲜期，小于等于0表示每次使用前都需要重新验证
+     */
+    private final long mMaxAgeMillis;
+
+    public CacheEntry(String url, int statusCode, Map<String, List<String>> headers, byte[] body,
+                      long responseTimeMillis, long maxAgeMillis) {
+        this.mUrl = url;
+        this.mStatusCode = statusCode;
+        this.mHeaders = headers;
+        this.mBody = body;
+        this.mResponseTimeMillis = responseTimeMillis;
+        this.mMaxAgeMillis = maxAgeMillis;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    public Map<String, List<String>> getHeaders() {
+        return mHeaders;
+    }
+
+    public String getHeader(String name) {
+        for (Map.Entry<String, List<String>> entry : mHeaders.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey()) && !entry.getValue().isEmpty()) {
+                return entry.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    public byte[] getBody() {
+        return mBody;
+    }
+
+    public long getResponseTimeMillis() {
+        return mResponseTimeMillis;
+    }
+
+    public long getMaxAgeMillis() {
+        return mMaxAgeMillis;
+    }
+
+    public String getETag() {
+        return getHeader("ETag");
+    }
+
+    public String getLastModified() {
+        return getHeader("Last-Modified");
+    }
+
+    /**
+     * 在新鲜期内，可以不经过服务端直接使用
+     */
+    public boolean isFresh(long nowMillis) {
+        return mMaxAgeMillis > 0 && nowMillis - mResponseTimeMillis < mMaxAgeMillis;
+    }
+
+    /**
+     * 是否可以发送条件请求重新验证
+     */
+    public boolean hasValidator() {
+        return getETag() != null || getLastModified() != null;
+    }
+
+    /**
+     * 估算占用的内存大小
+     */
+    public long size() {
+        return mBody.length + 512;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(VERSION);
+        out.writeUTF(mUrl);
+        out.writeInt(mStatusCode);
+        out.writeLong(mResponseTimeMillis);
+        out.writeLong(mMaxAgeMillis);
+        out.writeInt(mHeaders.size());
+        for (Map.Entry<String, List<String>> entry : mHeaders.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (String value : entry.getValue()) {
+                out.writeUTF(value);
+            }
+        }
+        out.writeInt(mBody.length);
+        out.write(mBody);
+    }
+
+    static CacheEntry readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != VERSION) {
+            throw new IOException("unknown cache entry version");
+        }
+        String url = in.readUTF();
+        int statusCode = in.readInt();
+        long responseTimeMillis = in.readLong();
+        long maxAgeMillis = in.readLong();
+        int headerCount = in.readInt();
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (int i = 0; i < headerCount; i++) {
+            String key = in.readUTF();
+            int valueCount = in.readInt();
+            List<String> values = new ArrayList<>(valueCount);
+            for (int j = 0; j < valueCount; j++) {
+                values.add(in.readUTF());
+            }
+            headers.put(key, Collections.unmodifiableList(values));
+        }
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        return new CacheEntry(url, statusCode, Collections.unmodifiableMap(headers), body,
+                responseTimeMillis, maxAgeMillis);
+    }
+}
@@ -0,0 +1,22 @@
+package com.ainirobot.optimus.network.cache;
+
+/**
+ * @filename: CacheStore
+ * @introduction: 缓存的存储接口，可以替换成自己的实现。默认实现是内存LRU加磁盘日志的两级缓存{@link TwoTierCacheStore}
+ * @author: Frewen.Wong
+ * @time: 2019/4/22 14:02
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public interface CacheStore {
+    /**
+     * @param key
+     * @return 缓存的响应，不存在时返回null
+     */
+    CacheEntry get(String key);
+
+    void put(String key, CacheEntry entry);
+
+    void remove(String key);
+
+    void clear();
+}
@@ -0,0 +1,308 @@
+package com.ainirobot.optimus.network.cache;
+
+import android.util.Log;
+
+import com.ainirobot.optimus.network.utils.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @filename: DiskCacheStore
+ * @introduction: 磁盘上的LRU缓存。每条缓存一个文件，另外有一个只追加写的日志文件记录每条缓存的写入、读取和删除，
+ * 启动时重放日志恢复缓存列表、访问顺序和总大小，不需要遍历目录；日志中无效的记录太多时重写日志
+ * @author: Frewen.Wong
+ * @time: 2019/4/22 14:35
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class DiskCacheStore implements CacheStore {
+    private static final String TAG = "DiskCacheStore";
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String MAGIC = "optimus.cache";
+    private static final String VERSION = "1";
+    private static final String PUT = "PUT";
+    private static final String DEL = "DEL";
+    private static final String READ = "READ";
+    private static final String ENTRY_SUFFIX = ".entry";
+    private static final String CHARSET = "UTF-8";
+    /**
+     * 日志中的无效记录超过这个数量并且超过有效记录数时重写日志
+     */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 200;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    /**
+     * 缓存文件名到文件大小，按照访问顺序排列
+     */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize;
+    private int mRedundantOpCount;
+    private Writer mJournalWriter;
+
+    /**
+     * @param directory 缓存目录，只能给一个DiskCacheStore使用
+     * @param maxBytes  最大容量（字节）
+     */
+    public DiskCacheStore(File directory, long maxBytes) {
+        this.mDirectory = directory;
+        this.mMaxBytes = maxBytes;
+    }
+
+    @Override
+    public synchronized CacheEntry get(String key) {
+        String name = fileName(key);
+        // get会把这条缓存移到访问顺序的最后
+        if (!open() || mEntries.get(name) == null) {
+            return null;
+        }
+        CacheEntry entry;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(entryFile(name))));
+            entry = CacheEntry.readFrom(in);
+        } catch (IOException e) {
+            Log.e(TAG, "read cache entry failed:" + e.getMessage());
+            removeEntry(name);
+            return null;
+        } finally {
+            IOUtils.close(in);
+        }
+        mRedundantOpCount++;
+        try {
+            // 记录读取，重启之后恢复淘汰顺序
+            appendJournal(READ + ' ' + name);
+        } catch (IOException e) {
+            Log.e(TAG, "append journal failed:" + e.getMessage());
+        }
+        return entry;
+    }
+
+    @Override
+    public synchronized void put(String key, CacheEntry entry) {
+        String name = fileName(key);
+        if (!open()) {
+            return;
+        }
+        File tmp = new File(mDirectory, name + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            entry.writeTo(out);
+            out.close();
+            out = null;
+            File file = entryFile(name);
+            if (!tmp.renameTo(file)) {
+                throw new IOException("rename failed:" + file);
+            }
+            Long previous = mEntries.put(name, file.length());
+            if (previous != null) {
+                mSize -= previous;
+                mRedundantOpCount++;
+            }
+            mSize += file.length();
+            appendJournal(PUT + ' ' + name + ' ' + file.length());
+            trimToSize();
+        } catch (IOException e) {
+            Log.e(TAG, "write cache entry failed:" + e.getMessage());
+            IOUtils.closeAll(out);
+            tmp.delete();
+            removeEntry(name);
+        }
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        if (open()) {
+            removeEntry(fileName(key));
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        if (!open()) {
+            return;
+        }
+        for (String name : mEntries.keySet()) {
+            entryFile(name).delete();
+        }
+        mEntries.clear();
+        mSize = 0;
+        try {
+            rebuildJournal();
+        } catch (IOException e) {
+            Log.e(TAG, "rebuild journal failed:" + e.getMessage());
+        }
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * 第一次使用时读取日志，恢复缓存列表
+     *
+     * @return 缓存是否可用
+     */
+    private boolean open() {
+        if (mJournalWriter != null) {
+            return true;
+        }
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.e(TAG, "mkdirs failed:" + mDirectory);
+            return false;
+        }
+        try {
+            File journal = new File(mDirectory, JOURNAL_FILE);
+            if (journal.exists() && readJournal(journal)) {
+                mJournalWriter = new OutputStreamWriter(new FileOutputStream(journal, true), CHARSET);
+            } else {
+                mEntries.clear();
+                mSize = 0;
+                rebuildJournal();
+            }
+            trimToSize();
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "open disk cache failed:" + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return 日志是否有效
+     */
+    private boolean readJournal(File journal) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), CHARSET));
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) {
+                return false;
+            }
+            int lineCount = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineCount++;
+                String[] parts = line.split(" ");
+                if (PUT.equals(parts[0]) && parts.length == 3) {
+                    Long previous = mEntries.put(parts[1], Long.parseLong(parts[2]));
+                    if (previous != null) {
+                        mSize -= previous;
+                    }
+                    mSize += Long.parseLong(parts[2]);
+                } else if (READ.equals(parts[0]) && parts.length == 2) {
+                    // 恢复访问顺序
+                    mEntries.get(parts[1]);
+                } else if (DEL.equals(parts[0]) && parts.length == 2) {
+                    Long previous = mEntries.remove(parts[1]);
+                    if (previous != null) {
+                        mSize -= previous;
+                    }
+                }
+                // 进程被杀掉时最后一行可能不完整，直接忽略
+            }
+            mRedundantOpCount = lineCount - mEntries.size();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "read journal failed:" + e);
+            return false;
+        } finally {
+            IOUtils.close(reader);
+        }
+    }
+
+    /**
+     * 只保留有效的记录，重写日志
+     */
+    private void rebuildJournal() throws IOException {
+        IOUtils.close(mJournalWriter);
+        mJournalWriter = null;
+        File tmp = new File(mDirectory, JOURNAL_FILE_TMP);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), CHARSET);
+        try {
+            StringBuilder builder = new StringBuilder();
+            builder.append(MAGIC).append('\n').append(VERSION).append('\n');
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                builder.append(PUT).append(' ').append(entry.getKey())
+                        .append(' ').append(entry.getValue()).append('\n');
+            }
+            writer.write(builder.toString());
+        } finally {
+            IOUtils.close(writer);
+        }
+        File journal = new File(mDirectory, JOURNAL_FILE);
+        if (!tmp.renameTo(journal)) {
+            throw new IOException("rename journal failed:" + journal);
+        }
+        mRedundantOpCount = 0;
+        mJournalWriter = new OutputStreamWriter(new FileOutputStream(journal, true), CHARSET);
+    }
+
+    private void appendJournal(String line) throws IOException {
+        mJournalWriter.write(line);
+        mJournalWriter.write('\n');
+        mJournalWriter.flush();
+        if (mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+                && mRedundantOpCount >= mEntries.size()) {
+            rebuildJournal();
+        }
+    }
+
+    private void removeEntry(String name) {
+        Long previous = mEntries.remove(name);
+        entryFile(name).delete();
+        if (previous == null) {
+            return;
+        }
+        mSize -= previous;
+        mRedundantOpCount += 2;
+        try {
+            appendJournal(DEL + ' ' + name);
+        } catch (IOException e) {
+            Log.e(TAG, "append journal failed:" + e.getMessage());
+        }
+    }
+
+    private void trimToSize() {
+        while (mSize > mMaxBytes && !mEntries.isEmpty()) {
+            // 访问顺序的LinkedHashMap，第一个是最久没有使用的
+            removeEntry(mEntries.keySet().iterator().next());
+        }
+    }
+
+    private File entryFile(String name) {
+        return new File(mDirectory, name + ENTRY_SUFFIX);
+    }
+
+    /**
+     * 缓存key（URL）转换成文件名
+     */
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(CHARSET));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return String.valueOf(key.hashCode());
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.ainirobot.optimus.network.cache;
+
+import com.ainirobot.optimus.network.OriginalResponse;
+import com.ainirobot.optimus.network.Request;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @filename: HttpCache
+ * @introduction: GET请求的HTTP缓存。遵循响应的Cache-Control（max-age、no-cache、no-store）和Expires，
+ * 新鲜的缓存直接返回，不经过网络；过期但是有ETag/Last-Modified的缓存发送条件请求，
+ * 服务端返回304时使用缓存的响应体。缓存的key包含全部请求头，请求头不同的请求分开缓存，
+ * 所以不需要按照Vary区分；Vary: *的响应不缓存
+ * @author: Frewen.Wong
+ * @time: 2019/4/22 15:20
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class HttpCache {
+    /**
+     * 超过这个大小的响应体不缓存
+     */
+    public static final long MAX_ENTRY_BYTES = 2 * 1024 * 1024;
+    private static final String HTTP_DATE_PATTERN = "EEE, dd MMM yyyy HH:mm:ss zzz";
+    /**
+     * 请求自己带有这些请求头时不使用缓存：Range的响应只是部分内容，Authorization、Cookie的响应属于某个账号，
+     * 条件请求头说明调用方自己在处理304
+     */
+    private static final String[] UNCACHEABLE_HEADERS = {"Range", "Authorization", "Cookie",
+            "If-None-Match", "If-Modified-Since", "If-Match", "If-Unmodified-Since", "If-Range"};
+
+    private final CacheStore mStore;
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mRevalidatedCount = new AtomicLong();
+
+    public HttpCache(CacheStore store) {
+        this.mStore = store;
+    }
+
+    /**
+     * 创建默认的内存加磁盘两级缓存
+     *
+     * @param directory   磁盘缓存目录
+     * @param memoryBytes 内存缓存大小
+     * @param diskBytes   磁盘缓存大小
+     */
+    public static HttpCache create(File directory, long memoryBytes, long diskBytes) {
+        return new HttpCache(new TwoTierCacheStore(new MemoryCacheStore(memoryBytes),
+                new DiskCacheStore(directory, diskBytes)));
+    }
+
+    public CacheStore getStore() {
+        return mStore;
+    }
+
+    /**
+     * 直接使用缓存、没有访问网络的请求数
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * 没有可用缓存、从网络获取完整响应的请求数
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * 发送条件请求后服务端返回304、使用缓存响应体的请求数
+     */
+    public long getRevalidatedCount() {
+        return mRevalidatedCount.get();
+    }
+
+    /**
+     * 只缓存GET请求，并且请求没有调用{@link Request.Builder#skipCache()}，也没有带{@link #UNCACHEABLE_HEADERS}中的请求头。
+     * 不可缓存的请求既不读取缓存，也不会被加上If-None-Match/If-Modified-Since
+     */
+    public static boolean isCacheable(Request request) {
+        if (!Request.Builder.GET.equals(request.getMethod()) || request.getBody() != null
+                || request.isSkipCache()) {
+            return false;
+        }
+        for (int i = 0, count = request.headerCount(); i < count; i++) {
+            String name = request.headerName(i);
+            for (String uncacheable : UNCACHEABLE_HEADERS) {
+                if (uncacheable.equalsIgnoreCase(name)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 缓存的key：URL加上按key排序后的参数，按名字（不区分大小写）排序后的请求头，以及session
+     * （作为Cookie发送，不同session的响应分开缓存）。Accept、Accept-Language或者自定义的token请求头不同时，
+     * 响应也可能不同
+     */
+    public static String key(Request request) {
+        StringBuilder builder = new StringBuilder(request.getUrl());
+        builder.append('?');
+        for (Map.Entry<String, String> entry : new TreeMap<>(request.getUrlParams()).entrySet()) {
+            builder.append(entry.getKey()).append('=').append(entry.getValue()).append('&');
+        }
+        int headerCount = request.headerCount();
+        if (headerCount > 0) {
+            TreeMap<String, String> headers = new TreeMap<>();
+            for (int i = 0; i < headerCount; i++) {
+                headers.put(request.headerName(i).toLowerCase(Locale.US), request.headerValue(i));
+            }
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                builder.append('\n').append(entry.getKey()).append(':').append(entry.getValue());
+            }
+        }
+        String session = request.getSessionId();
+        if (session != null && !session.isEmpty()) {
+            // 请求头的值不能包含换行，空行之后的内容不会和请求头混淆
+            builder.append("\n\n").append(session);
+        }
+        return builder.toString();
+    }
+
+    public CacheEntry get(String key) {
+        return mStore.get(key);
+    }
+
+    /**
+     * 新鲜的缓存直接返回时调用
+     */
+    public OriginalResponse hit(CacheEntry entry) {
+        mHitCount.incrementAndGet();
+        return toResponse(entry);
+    }
+
+    /**
+     * 给条件请求加上If-None-Match/If-Modified-Since。带Range的请求不加：304会让缓存的完整响应被当作部分内容返回
+     */
+    public void addConditionalHeaders(CacheEntry entry, HttpURLConnection connection) {
+        if (connection.getRequestProperty("Range") != null) {
+            return;
+        }
+        String etag = entry.getETag();
+        if (etag != null) {
+            connection.setRequestProperty("If-None-Match", etag);
+        }
+        String lastModified = entry.getLastModified();
+        if (lastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+    }
+
+    /**
+     * 服务端返回304：用新的响应头更新缓存的新鲜期，返回缓存的响应
+     */
+    public OriginalResponse revalidated(String key, CacheEntry entry,
+                                        Map<String, List<String>> headers) {
+        mRevalidatedCount.incrementAndGet();
+        Map<String, List<String>> merged = new LinkedHashMap<>(entry.getHeaders());
+        copyHeaders(headers, merged);
+        long now = System.currentTimeMillis();
+        CacheEntry updated = new CacheEntry(entry.getUrl(), entry.getStatusCode(),
+                Collections.unmodifiableMap(merged), entry.getBody(), now, maxAgeMillis(merged, now));
+        mStore.put(key, updated);
+        return toResponse(updated);
+    }
+
+    /**
+     * 从网络获取了完整的响应
+     */
+    public void miss() {
+        mMissCount.incrementAndGet();
+    }
+
+    /**
+     * 响应是否可以缓存：200，没有no-store和Vary: *，有新鲜期或者验证用的ETag/Last-Modified，并且大小不超过上限
+     *
+     * @param contentLength 响应体长度，未知时（chunked或者解压之后）为-1，此时读取响应体时再检查大小
+     */
+    public boolean shouldStore(int statusCode, Map<String, List<String>> headers, long contentLength) {
+        if (statusCode != HttpURLConnection.HTTP_OK || contentLength > MAX_ENTRY_BYTES) {
+            return false;
+        }
+        String cacheControl = header(headers, "Cache-Control");
+        if (cacheControl != null && cacheControl.toLowerCase(Locale.US).contains("no-store")) {
+            return false;
+        }
+        // 响应取决于请求头以外的因素
+        String vary = header(headers, "Vary");
+        if (vary != null && vary.contains("*")) {
+            return false;
+        }
+        return maxAgeMillis(headers, System.currentTimeMillis()) > 0
+                || header(headers, "ETag") != null
+                || header(headers, "Last-Modified") != null;
+    }
+
+    /**
+     * 保存响应，body是已经完整读取的响应体
+     */
+    public void store(String key, String url, int statusCode, Map<String, List<String>> headers,
+                      byte[] body) {
+        if (body.length > MAX_ENTRY_BYTES) {
+            return;
+        }
+        Map<String, List<String>> copy = new LinkedHashMap<>();
+        copyHeaders(headers, copy);
+        long now = System.currentTimeMillis();
+        mStore.put(key, new CacheEntry(url, statusCode, Collections.unmodifiableMap(copy), body,
+                now, maxAgeMillis(copy, now)));
+    }
+
+    /**
+     * 缓存的新鲜期：优先使用Cache-Control: max-age，其次使用Expires，no-cache表示每次都需要验证
+     */
+    static long maxAgeMillis(Map<String, List<String>> headers, long nowMillis) {
+        String cacheControl = header(headers, "Cache-Control");
+        if (cacheControl != null) {
+            long maxAge = -1;
+            for (String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    return 0;
+                }
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        maxAge = TimeUnit.SECONDS.toMillis(Long.parseLong(directive.substring(8).trim()));
+                    } catch (NumberFormatException e) {
+                        maxAge = 0;
+                    }
+                }
+            }
+            if (maxAge >= 0) {
+                return maxAge;
+            }
+        }
+        String expires = header(headers, "Expires");
+        if (expires != null) {
+            SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_PATTERN, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                Date date = format.parse(expires);
+                return Math.max(0, date.getTime() - nowMillis);
+            } catch (ParseException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    private static OriginalResponse toResponse(CacheEntry entry) {
+        byte[] body = entry.getBody();
+        OriginalResponse response = new OriginalResponse(entry.getStatusCode(),
+                new ByteArrayInputStream(body), body.length);
+        response.setHeaders(entry.getHeaders());
+        response.setContentType(entry.getHeader("Content-Type"));
+        response.setResponseMessage("OK");
+        response.setFromCache(true);
+        return response;
+    }
+
+    /**
+     * 复制响应头。状态行的key为null；缓存的响应体已经解压，原来的编码和长度不再适用
+     */
+    private static void copyHeaders(Map<String, List<String>> from, Map<String, List<String>> to) {
+        for (Map.Entry<String, List<String>> header : from.entrySet()) {
+            String key = header.getKey();
+            if (key != null
+                    && !"Content-Encoding".equalsIgnoreCase(key)
+                    && !"Content-Length".equalsIgnoreCase(key)) {
+                to.put(key, header.getValue());
+            }
+        }
+    }
+
+    private static String header(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey()) && entry.getValue() != null
+                    && !entry.getValue().isEmpty()) {
+                return entry.getValue().get(0);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,70 @@
+package com.ainirobot.optimus.network.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @filename: MemoryCacheStore
+ * @introduction: 内存中的LRU缓存，按照响应体大小限制总容量
+ * @author: Frewen.Wong
+ * @time: 2019/4/22 14:20
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class MemoryCacheStore implements CacheStore {
+    private final LinkedHashMap<String, CacheEntry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long mMaxBytes;
+    private long mSize;
+
+    /**
+     * @param maxBytes 最大容量（字节）
+     */
+    public MemoryCacheStore(long maxBytes) {
+        this.mMaxBytes = maxBytes;
+    }
+
+    @Override
+    public synchronized CacheEntry get(String key) {
+        return mEntries.get(key);
+    }
+
+    @Override
+    public synchronized void put(String key, CacheEntry entry) {
+        if (entry.size() > mMaxBytes) {
+            remove(key);
+            return;
+        }
+        CacheEntry previous = mEntries.put(key, entry);
+        if (previous != null) {
+            mSize -= previous.size();
+        }
+        mSize += entry.size();
+        trimToSize();
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        CacheEntry previous = mEntries.remove(key);
+        if (previous != null) {
+            mSize -= previous.size();
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, CacheEntry>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxBytes && iterator.hasNext()) {
+            mSize -= iterator.next().getValue().size();
+            iterator.remove();
+        }
+    }
+}
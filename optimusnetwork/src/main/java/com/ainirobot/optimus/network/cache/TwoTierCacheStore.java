@@ -0,0 +1,48 @@
+package com.ainirobot.optimus.network.cache;
+
+/**
+ * @filename: TwoTierCacheStore
+ * @introduction: 内存加磁盘的两级缓存：先查内存，内存中没有时查磁盘并放入内存；写入时两级都写
+ * @author: Frewen.Wong
+ * @time: 2019/4/22 15:10
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class TwoTierCacheStore implements CacheStore {
+    private final CacheStore mMemory;
+    private final CacheStore mDisk;
+
+    public TwoTierCacheStore(CacheStore memory, CacheStore disk) {
+        this.mMemory = memory;
+        this.mDisk = disk;
+    }
+
+    @Override
+    public CacheEntry get(String key) {
+        CacheEntry entry = mMemory.get(key);
+        if (entry == null) {
+            entry = mDisk.get(key);
+            if (entry != null) {
+                mMemory.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    @Override
+    public void put(String key, CacheEntry entry) {
+        mMemory.put(key, entry);
+        mDisk.put(key, entry);
+    }
+
+    @Override
+    public void remove(String key) {
+        mMemory.remove(key);
+        mDisk.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        mMemory.clear();
+        mDisk.clear();
+    }
+}
@@ -0,0 +1,110 @@
+package com.ainirobot.optimus.network.connection;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @filename: ConnectionStats
+ * @introduction: 按Host统计连接复用情况：请求数、TLS握手数（即新建的HTTPS连接数），
+ * 以及由此推算出的复用连接的请求数。Host不包含端口
+ * @author: Frewen.Wong
+ * @time: 2019/4/20 15:08
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class ConnectionStats {
+    private final ConcurrentMap<String, HostStats> mHostStats = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次收到响应的HTTPS请求
+     */
+    public void recordRequest(String host) {
+        hostStats(host).mRequests.incrementAndGet();
+    }
+
+    /**
+     * 记录一次完成的TLS握手
+     */
+    public void recordHandshake(String host) {
+        hostStats(host).mHandshakes.incrementAndGet();
+    }
+
+    /**
+     * 某个Host的统计数据，没有记录时返回null
+     */
+    public HostStats getHostStats(String host) {
+        return mHostStats.get(host);
+    }
+
+    /**
+     * 所有Host统计数据的快照
+     */
+    public Map<String, HostStats> getAllHostStats() {
+        return new HashMap<>(mHostStats);
+    }
+
+    public void reset() {
+        mHostStats.clear();
+    }
+
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, HostStats> entry : mHostStats.entrySet()) {
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private HostStats hostStats(String host) {
+        if (host == null) {
+            host = "";
+        }
+        HostStats stats = mHostStats.get(host);
+        if (stats == null) {
+            HostStats created = new HostStats();
+            stats = mHostStats.putIfAbsent(host, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    public static final class HostStats {
+        private final AtomicLong mRequests = new AtomicLong();
+        private final AtomicLong mHandshakes = new AtomicLong();
+
+        public long getRequestCount() {
+            return mRequests.get();
+        }
+
+        public long getHandshakeCount() {
+            return mHandshakes.get();
+        }
+
+        /**
+         * 复用已有连接的请求数
+         */
+        public long getReusedCount() {
+            return Math.max(0, mRequests.get() - mHandshakes.get());
+        }
+
+        /**
+         * 连接复用率，0~1
+         */
+        public double getReuseRate() {
+            long requests = mRequests.get();
+            return requests > 0 ? getReusedCount() / (double) requests : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + getRequestCount()
+                    + ", handshakes=" + getHandshakeCount()
+                    + ", reused=" + getReusedCount()
+                    + ", reuseRate=" + getReuseRate();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.ainirobot.optimus.network.connection;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * @filename: CountingSSLSocketFactory
+ * @introduction: 包装系统的SSLSocketFactory，统计每个Host的TLS握手次数。
+ * HttpURLConnection按照SSLSocketFactory区分连接池，所以同一个OptimusNetClient必须一直使用同一个实例，
+ * 否则连接无法复用
+ * @author: Frewen.Wong
+ * @time: 2019/4/20 15:20
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class CountingSSLSocketFactory extends SSLSocketFactory {
+    private final SSLSocketFactory mDelegate;
+    private final ConnectionStats mStats;
+    private final HandshakeCompletedListener mHandshakeListener = new HandshakeCompletedListener() {
+        @Override
+        public void handshakeCompleted(HandshakeCompletedEvent event) {
+            mStats.recordHandshake(event.getSession().getPeerHost());
+        }
+    };
+
+    public CountingSSLSocketFactory(SSLSocketFactory delegate, ConnectionStats stats) {
+        this.mDelegate = delegate;
+        this.mStats = stats;
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return mDelegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return mDelegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return track(mDelegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(Socket socket, String host, int port, boolean autoClose)
+            throws IOException {
+        return track(mDelegate.createSocket(socket, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return track(mDelegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+            throws IOException {
+        return track(mDelegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return track(mDelegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                               int localPort) throws IOException {
+        return track(mDelegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    private Socket track(Socket socket) {
+        if (socket instanceof SSLSocket) {
+            ((SSLSocket) socket).addHandshakeCompletedListener(mHandshakeListener);
+        }
+        return socket;
+    }
+}
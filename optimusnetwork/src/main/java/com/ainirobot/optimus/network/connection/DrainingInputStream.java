@@ -0,0 +1,68 @@
+package com.ainirobot.optimus.network.connection;
+
+import com.ainirobot.optimus.network.utils.IOUtils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @filename: DrainingInputStream
+ * @introduction: 响应体输入流。关闭时如果还没有读到末尾，先读完剩余的数据再关闭，
+ * 这样底层的keep-alive连接才能放回连接池。剩余数据太多时放弃读取，由调用方断开连接
+ * @author: Frewen.Wong
+ * @time: 2019/4/20 15:36
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class DrainingInputStream extends FilterInputStream {
+    private final long mMaxDrainBytes;
+    private boolean mEof;
+    private boolean mClosed;
+    private boolean mReusable = true;
+
+    /**
+     * @param in
+     * @param maxDrainBytes 关闭时最多丢弃的剩余字节数
+     */
+    public DrainingInputStream(InputStream in, long maxDrainBytes) {
+        super(in);
+        this.mMaxDrainBytes = maxDrainBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b == -1) {
+            mEof = true;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = super.read(b, off, len);
+        if (count == -1) {
+            mEof = true;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        if (!mEof) {
+            mReusable = IOUtils.drain(in, mMaxDrainBytes);
+        }
+        super.close();
+    }
+
+    /**
+     * 流关闭之后，底层连接是否还可以复用
+     */
+    public synchronized boolean isReusable() {
+        return mClosed && mReusable;
+    }
+}
@@ -24,4 +24,12 @@ public class ErrorCode {
      * Json解析异常
      */
     public static final int CODE_ERROR_JSON_EXCEPTION = -1004;
+    /**
+     * 网络请求在等待队列中超过了截止时间
+     */
+    public static final int CODE_ERROR_DEADLINE_EXCEEDED = -1005;
+    /**
+     * 下载过程中服务端的文件发生了变化，或者服务端不支持分段下载，需要重新下载
+     */
+    public static final int CODE_ERROR_RESOURCE_CHANGED = -1006;
 }
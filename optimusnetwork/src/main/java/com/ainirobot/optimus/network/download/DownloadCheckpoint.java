@@ -0,0 +1,143 @@
+package com.ainirobot.optimus.network.download;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.ainirobot.optimus.network.utils.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * @filename: DownloadCheckpoint
+ * @introduction: 分段下载的断点文件，记录文件大小、校验用的ETag/Last-Modified，以及每个分段的下载进度。
+ * 先写入临时文件再重命名，进程在写入过程中被杀掉也不会留下损坏的断点文件
+ * @author: Frewen.Wong
+ * @time: 2019/4/21 17:18
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+class DownloadCheckpoint {
+    private static final String TAG = "DownloadCheckpoint";
+    private static final String VERSION = "1";
+    private static final String CHARSET = "UTF-8";
+
+    final String url;
+    final long totalBytes;
+    /**
+     * ETag或者Last-Modified，续传时通过If-Range确认服务端的文件没有变化
+     */
+    final String validator;
+    final long[] starts;
+    final long[] ends;
+    final long[] downloaded;
+
+    DownloadCheckpoint(String url, long totalBytes, String validator, int segmentCount) {
+        this.url = url;
+        this.totalBytes = totalBytes;
+        this.validator = validator;
+        this.starts = new long[segmentCount];
+        this.ends = new long[segmentCount];
+        this.downloaded = new long[segmentCount];
+        long segmentSize = (totalBytes + segmentCount - 1) / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            starts[i] = i * segmentSize;
+            ends[i] = Math.min(totalBytes, (i + 1) * segmentSize) - 1;
+        }
+    }
+
+    private DownloadCheckpoint(String url, long totalBytes, String validator,
+                               long[] starts, long[] ends, long[] downloaded) {
+        this.url = url;
+        this.totalBytes = totalBytes;
+        this.validator = validator;
+        this.starts = starts;
+        this.ends = ends;
+        this.downloaded = downloaded;
+    }
+
+    int getSegmentCount() {
+        return starts.length;
+    }
+
+    long getSegmentLength(int segment) {
+        return ends[segment] - starts[segment] + 1;
+    }
+
+    /**
+     * 读取断点文件，文件不存在或者格式错误时返回null
+     */
+    static DownloadCheckpoint read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET));
+            if (!VERSION.equals(reader.readLine())) {
+                return null;
+            }
+            String url = reader.readLine();
+            long totalBytes = Long.parseLong(reader.readLine());
+            String validator = reader.readLine();
+            int count = Integer.parseInt(reader.readLine());
+            long[] starts = new long[count];
+            long[] ends = new long[count];
+            long[] downloaded = new long[count];
+            for (int i = 0; i < count; i++) {
+                String[] fields = reader.readLine().split(" ");
+                starts[i] = Long.parseLong(fields[0]);
+                ends[i] = Long.parseLong(fields[1]);
+                downloaded[i] = Long.parseLong(fields[2]);
+            }
+            return new DownloadCheckpoint(url, totalBytes, validator, starts, ends, downloaded);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "broken checkpoint:" + file + ", " + e);
+            return null;
+        } finally {
+            IOUtils.close(reader);
+        }
+    }
+
+    /**
+     * 写入断点文件，调用方需要保证downloaded数组的访问是同步的
+     */
+    void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), CHARSET);
+        try {
+            StringBuilder builder = new StringBuilder(64 + starts.length * 48);
+            builder.append(VERSION).append('\n')
+                    .append(url).append('\n')
+                    .append(totalBytes).append('\n')
+                    .append(validator != null ? validator : "").append('\n')
+                    .append(starts.length).append('\n');
+            for (int i = 0; i < starts.length; i++) {
+                builder.append(starts[i]).append(' ')
+                        .append(ends[i]).append(' ')
+                        .append(downloaded[i]).append('\n');
+            }
+            writer.write(builder.toString());
+        } finally {
+            IOUtils.close(writer);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("rename checkpoint failed:" + file);
+        }
+    }
+
+    /**
+     * 断点是否属于同一个文件：URL、大小和校验值都相同
+     */
+    boolean matches(String url, long totalBytes, String validator) {
+        return TextUtils.equals(this.url, url)
+                && this.totalBytes == totalBytes
+                && !TextUtils.isEmpty(validator)
+                && TextUtils.equals(this.validator, validator);
+    }
+}
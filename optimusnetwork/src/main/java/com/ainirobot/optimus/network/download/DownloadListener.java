@@ -0,0 +1,31 @@
+package com.ainirobot.optimus.network.download;
+
+import java.io.File;
+
+/**
+ * @filename: DownloadListener
+ * @introduction: 文件下载的回调，所有回调都在网络线程中执行
+ * @author: Frewen.Wong
+ * @time: 2019/4/21 17:10
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public interface DownloadListener {
+    /**
+     * @param downloadedBytes 已经下载的字节数（包括之前中断时已经下载的部分）
+     * @param totalBytes      文件总大小，未知时为-1
+     */
+    void onProgress(long downloadedBytes, long totalBytes);
+
+    /**
+     * @param file 下载完成的文件
+     */
+    void onSuccess(File file);
+
+    /**
+     * 下载失败，已经下载的部分会保留，再次下载同一个文件时从断点继续
+     *
+     * @param errCode
+     * @param errMsg
+     */
+    void onFailure(int errCode, String errMsg);
+}
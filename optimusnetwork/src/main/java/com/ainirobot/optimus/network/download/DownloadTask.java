@@ -0,0 +1,515 @@
+package com.ainirobot.optimus.network.download;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.ainirobot.optimus.network.NetworkRunnable;
+import com.ainirobot.optimus.network.OptimusNetClient;
+import com.ainirobot.optimus.network.OriginalResponse;
+import com.ainirobot.optimus.network.Request;
+import com.ainirobot.optimus.network.RequestListener;
+import com.ainirobot.optimus.network.RetryPolicy;
+import com.ainirobot.optimus.network.constant.ErrorCode;
+import com.ainirobot.optimus.network.utils.ByteArrayPool;
+import com.ainirobot.optimus.network.utils.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @filename: DownloadTask
+ * @introduction: 可断点续传的分段并行下载。
+ * 先用Range: bytes=0-0探测文件大小和服务端是否支持分段，然后把文件分成若干段，
+ * 每一段作为一个普通的网络请求交给Dispatcher调度（受每个Host最大并发数的限制），
+ * 各段通过FileChannel的按位置写入同一个预先分配好大小的临时文件。
+ * 下载进度定期写入断点文件，进程被杀掉之后再次下载同一个文件时从断点继续。
+ * 服务端不支持分段时退化为单线程的顺序下载，不能续传
+ * @author: Frewen.Wong
+ * @time: 2019/4/21 17:30
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class DownloadTask {
+    private static final String TAG = "DownloadTask";
+    /**
+     * 默认最多分成的段数
+     */
+    public static final int DEFAULT_MAX_SEGMENTS = 4;
+    /**
+     * 每一段最小的大小，小文件不分段
+     */
+    private static final long MIN_SEGMENT_SIZE = 4 * 1024 * 1024;
+    /**
+     * 每一段每下载这么多字节保存一次断点
+     */
+    private static final long CHECKPOINT_INTERVAL = 1024 * 1024;
+    /**
+     * 每一段在下载中途失败之后，从当前进度继续下载的最大次数
+     */
+    private static final int MAX_SEGMENT_RETRIES = 3;
+    private static final String PART_SUFFIX = ".part";
+    private static final String CHECKPOINT_SUFFIX = ".ckpt";
+
+    private final OptimusNetClient mClient;
+    private final String mUrl;
+    private final File mFile;
+    private final File mPartFile;
+    private final File mCheckpointFile;
+    private final int mMaxSegments;
+    private final DownloadListener mListener;
+    private final Object mTag = new Object();
+    private final AtomicBoolean mDone = new AtomicBoolean();
+    private final AtomicInteger mRemainingSegments = new AtomicInteger();
+    private final AtomicLong mDownloadedBytes = new AtomicLong();
+    private volatile boolean isCanceled;
+    private volatile DownloadCheckpoint mCheckpoint;
+    /**
+     * 断点已经作废（文件已变化或者已经下载完成），不再保存
+     */
+    private boolean mCheckpointDiscarded;
+    private RandomAccessFile mRandomAccessFile;
+    private volatile FileChannel mChannel;
+
+    /**
+     * 通过{@link OptimusNetClient#download(String, File, int, DownloadListener)}创建
+     */
+    public DownloadTask(OptimusNetClient client, String url, File file, int maxSegments,
+                        DownloadListener listener) {
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("maxSegments < 1 : " + maxSegments);
+        }
+        this.mClient = client;
+        this.mUrl = url;
+        this.mFile = file;
+        this.mPartFile = new File(file.getPath() + PART_SUFFIX);
+        this.mCheckpointFile = new File(file.getPath() + CHECKPOINT_SUFFIX);
+        this.mMaxSegments = maxSegments;
+        this.mListener = listener;
+    }
+
+    /**
+     * 开始下载：先探测文件大小
+     */
+    public void start() {
+        Request probe = newRequestBuilder().header("Range", "bytes=0-0").build();
+        mClient.execute(probe, new RequestListener() {
+            @Override
+            public void onSuccess(OriginalResponse response) {
+                onProbed(response);
+            }
+
+            @Override
+            public void onFailure(int errCode, String errMsg) {
+                fail(errCode, errMsg);
+            }
+        });
+    }
+
+    /**
+     * 取消下载，已经下载的部分会保留，可以再次下载续传
+     */
+    public void cancel() {
+        isCanceled = true;
+        mClient.cancel(mTag);
+        fail(ErrorCode.CODE_ERROR_USER_CANCEL, "user cancel");
+    }
+
+    public boolean isCanceled() {
+        return isCanceled;
+    }
+
+    /**
+     * 已经下载的字节数
+     */
+    public long getDownloadedBytes() {
+        return mDownloadedBytes.get();
+    }
+
+    private Request.Builder newRequestBuilder() {
+        // 分段的位置是针对原始内容的，不能让服务端压缩；探测和分段的响应必须来自服务端，不能使用HttpCache
+        return new Request.Builder()
+                .url(mUrl)
+                .header("Accept-Encoding", "identity")
+                .skipCache()
+                .tag(mTag);
+    }
+
+    private void onProbed(OriginalResponse response) {
+        int statusCode = response.getStatusCode();
+        if (statusCode == HttpURLConnection.HTTP_OK) {
+            // 服务端不支持分段，直接使用这个响应顺序下载
+            downloadWhole(response);
+            return;
+        }
+        long totalBytes = (statusCode == HttpURLConnection.HTTP_PARTIAL)
+                ? parseTotalBytes(header(response, "Content-Range")) : -1;
+        if (totalBytes <= 0) {
+            // 响应只有部分内容（如bytes 0-0/*）或者不是200/206，不带Range重新请求整个文件
+            IOUtils.close(response);
+            fetchWhole();
+            return;
+        }
+        String validator = header(response, "ETag");
+        if (TextUtils.isEmpty(validator)) {
+            validator = header(response, "Last-Modified");
+        }
+        try {
+            DownloadCheckpoint checkpoint = DownloadCheckpoint.read(mCheckpointFile);
+            if (checkpoint == null || !mPartFile.exists()
+                    || !checkpoint.matches(mUrl, totalBytes, validator)) {
+                int segments = (int) Math.max(1, Math.min(mMaxSegments,
+                        totalBytes / MIN_SEGMENT_SIZE));
+                checkpoint = new DownloadCheckpoint(mUrl, totalBytes, validator, segments);
+            }
+            mCheckpoint = checkpoint;
+            openPartFile(totalBytes);
+            saveCheckpoint();
+        } catch (IOException e) {
+            fail(ErrorCode.CODE_ERROR_IO_EXCEPTION, e.getMessage());
+            return;
+        }
+
+        long downloaded = 0;
+        int remaining = 0;
+        for (int i = 0; i < mCheckpoint.getSegmentCount(); i++) {
+            downloaded += mCheckpoint.downloaded[i];
+            if (mCheckpoint.downloaded[i] < mCheckpoint.getSegmentLength(i)) {
+                remaining++;
+            }
+        }
+        mDownloadedBytes.set(downloaded);
+        mRemainingSegments.set(remaining);
+        if (remaining == 0) {
+            complete();
+            return;
+        }
+        for (int i = 0; i < mCheckpoint.getSegmentCount(); i++) {
+            if (mCheckpoint.downloaded[i] < mCheckpoint.getSegmentLength(i)) {
+                submitSegment(i, 0, 0);
+            }
+        }
+    }
+
+    /**
+     * 提交一个分段请求，从这一段当前的进度开始下载
+     */
+    private void submitSegment(int segment, int retries, long delayMillis) {
+        if (mDone.get()) {
+            return;
+        }
+        long start;
+        synchronized (this) {
+            start = mCheckpoint.starts[segment] + mCheckpoint.downloaded[segment];
+        }
+        Request.Builder builder = newRequestBuilder()
+                .header("Range", "bytes=" + start + "-" + mCheckpoint.ends[segment]);
+        if (!TextUtils.isEmpty(mCheckpoint.validator)) {
+            // 服务端文件变化时返回200和完整内容，而不是206
+            builder.header("If-Range", mCheckpoint.validator);
+        }
+        NetworkRunnable runnable = new NetworkRunnable(mClient, builder.build(),
+                new SegmentListener(segment, retries));
+        if (delayMillis > 0) {
+            mClient.getDispatcher().submitDelayed(runnable, delayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            mClient.getDispatcher().submit(runnable);
+        }
+    }
+
+    private final class SegmentListener implements RequestListener {
+        private final int mSegment;
+        private final int mRetries;
+
+        private SegmentListener(int segment, int retries) {
+            this.mSegment = segment;
+            this.mRetries = retries;
+        }
+
+        @Override
+        public void onSuccess(OriginalResponse response) {
+            if (response.getStatusCode() != HttpURLConnection.HTTP_PARTIAL) {
+                // 文件已经变化，断点作废
+                resetCheckpoint();
+                fail(ErrorCode.CODE_ERROR_RESOURCE_CHANGED, "resource changed, status code:"
+                        + response.getStatusCode());
+                return;
+            }
+            try {
+                readSegment(mSegment, response.getContent());
+            } catch (IOException e) {
+                if (!retry()) {
+                    fail(ErrorCode.CODE_ERROR_IO_EXCEPTION, e.getMessage());
+                }
+                return;
+            }
+            if (mRemainingSegments.decrementAndGet() == 0) {
+                complete();
+            }
+        }
+
+        @Override
+        public void onFailure(int errCode, String errMsg) {
+            if (errCode != ErrorCode.CODE_ERROR_IO_EXCEPTION || !retry()) {
+                fail(errCode, errMsg);
+            }
+        }
+
+        /**
+         * 从这一段当前的进度重新下载
+         */
+        private boolean retry() {
+            if (isCanceled || mDone.get() || mRetries >= MAX_SEGMENT_RETRIES) {
+                return false;
+            }
+            Log.w(TAG, "retry segment " + mSegment + ", retries:" + (mRetries + 1));
+            RetryPolicy policy = mClient.getRetryPolicy();
+            submitSegment(mSegment, mRetries + 1,
+                    policy.getBackoffMillis(mRetries));
+            return true;
+        }
+    }
+
+    /**
+     * 读取一段的响应体，按位置写入临时文件
+     */
+    private void readSegment(int segment, InputStream in) throws IOException {
+        if (in == null) {
+            throw new IOException("empty response");
+        }
+        FileChannel channel = mChannel;
+        long segmentEnd = mCheckpoint.ends[segment];
+        long position;
+        synchronized (this) {
+            position = mCheckpoint.starts[segment] + mCheckpoint.downloaded[segment];
+        }
+        ByteArrayPool pool = ByteArrayPool.getDefault();
+        byte[] buffer = pool.getBuf(ByteArrayPool.MAX_BUFFER_SIZE);
+        long unsaved = 0;
+        try {
+            int len;
+            while (position <= segmentEnd && (len = in.read(buffer)) != -1) {
+                if (isCanceled || mDone.get()) {
+                    throw new IOException("download stopped");
+                }
+                len = (int) Math.min(len, segmentEnd - position + 1);
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, len);
+                while (byteBuffer.hasRemaining()) {
+                    position += channel.write(byteBuffer, position);
+                }
+                synchronized (this) {
+                    mCheckpoint.downloaded[segment] += len;
+                }
+                mDownloadedBytes.addAndGet(len);
+                unsaved += len;
+                if (unsaved >= CHECKPOINT_INTERVAL) {
+                    unsaved = 0;
+                    saveCheckpoint();
+                    mListener.onProgress(mDownloadedBytes.get(), mCheckpoint.totalBytes);
+                }
+            }
+        } finally {
+            pool.returnBuf(buffer);
+            if (unsaved > 0) {
+                saveCheckpointQuietly();
+            }
+        }
+        if (position <= segmentEnd) {
+            throw new IOException("unexpected end of segment " + segment);
+        }
+    }
+
+    /**
+     * 不带Range请求整个文件，只有200的响应才会被当作完整的文件
+     */
+    private void fetchWhole() {
+        if (isCanceled || mDone.get()) {
+            return;
+        }
+        mClient.execute(newRequestBuilder().build(), new RequestListener() {
+            @Override
+            public void onSuccess(OriginalResponse response) {
+                if (response.getStatusCode() != HttpURLConnection.HTTP_OK) {
+                    IOUtils.close(response);
+                    fail(ErrorCode.CODE_ERROR_IO_EXCEPTION, "unexpected status code:"
+                            + response.getStatusCode());
+                    return;
+                }
+                downloadWhole(response);
+            }
+
+            @Override
+            public void onFailure(int errCode, String errMsg) {
+                fail(errCode, errMsg);
+            }
+        });
+    }
+
+    /**
+     * 服务端不支持分段时顺序下载整个文件，response必须是200的完整响应
+     */
+    private void downloadWhole(OriginalResponse response) {
+        InputStream in = response.getContent();
+        long totalBytes = response.getContentLength();
+        ByteArrayPool pool = ByteArrayPool.getDefault();
+        byte[] buffer = pool.getBuf(ByteArrayPool.MAX_BUFFER_SIZE);
+        try {
+            if (in == null) {
+                throw new IOException("empty response");
+            }
+            openPartFile(totalBytes);
+            long position = 0;
+            long reported = 0;
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                if (isCanceled || mDone.get()) {
+                    throw new IOException("download stopped");
+                }
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, len);
+                while (byteBuffer.hasRemaining()) {
+                    position += mChannel.write(byteBuffer, position);
+                }
+                mDownloadedBytes.set(position);
+                if (position - reported >= CHECKPOINT_INTERVAL) {
+                    reported = position;
+                    mListener.onProgress(position, totalBytes);
+                }
+            }
+            if (totalBytes >= 0 && position != totalBytes) {
+                throw new IOException("unexpected end of file, " + position + "/" + totalBytes);
+            }
+            // 断点对不能续传的文件没有意义
+            resetCheckpoint();
+        } catch (IOException e) {
+            fail(ErrorCode.CODE_ERROR_IO_EXCEPTION, e.getMessage());
+            return;
+        } finally {
+            pool.returnBuf(buffer);
+        }
+        complete();
+    }
+
+    /**
+     * 打开临时文件，大小已知时预先分配好空间
+     */
+    private synchronized void openPartFile(long totalBytes) throws IOException {
+        File parent = mPartFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("mkdirs failed:" + parent);
+        }
+        mRandomAccessFile = new RandomAccessFile(mPartFile, "rw");
+        if (totalBytes >= 0) {
+            mRandomAccessFile.setLength(totalBytes);
+        } else {
+            mRandomAccessFile.setLength(0);
+        }
+        mChannel = mRandomAccessFile.getChannel();
+    }
+
+    private synchronized void saveCheckpoint() throws IOException {
+        if (mCheckpoint != null && !mCheckpointDiscarded) {
+            mCheckpoint.write(mCheckpointFile);
+        }
+    }
+
+    private void saveCheckpointQuietly() {
+        try {
+            saveCheckpoint();
+        } catch (IOException e) {
+            Log.e(TAG, "save checkpoint failed:" + e.getMessage());
+        }
+    }
+
+    private synchronized void resetCheckpoint() {
+        mCheckpointDiscarded = true;
+        if (mCheckpointFile.exists() && !mCheckpointFile.delete()) {
+            Log.e(TAG, "delete checkpoint failed:" + mCheckpointFile);
+        }
+    }
+
+    /**
+     * 所有分段都下载完成：刷新到磁盘，重命名为目标文件，删除断点文件
+     */
+    private void complete() {
+        if (!mDone.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            synchronized (this) {
+                mChannel.force(false);
+                IOUtils.close(mRandomAccessFile);
+            }
+            if (mFile.exists() && !mFile.delete()) {
+                throw new IOException("delete old file failed:" + mFile);
+            }
+            if (!mPartFile.renameTo(mFile)) {
+                throw new IOException("rename failed:" + mPartFile);
+            }
+            resetCheckpoint();
+        } catch (IOException e) {
+            mListener.onFailure(ErrorCode.CODE_ERROR_IO_EXCEPTION, e.getMessage());
+            return;
+        }
+        mListener.onProgress(mDownloadedBytes.get(), mFile.length());
+        mListener.onSuccess(mFile);
+    }
+
+    /**
+     * 下载失败：取消其他分段，保存断点，只回调一次
+     */
+    private void fail(int errCode, String errMsg) {
+        if (!mDone.compareAndSet(false, true)) {
+            return;
+        }
+        mClient.cancel(mTag);
+        saveCheckpointQuietly();
+        synchronized (this) {
+            // 其他分段正在写入时会收到ClosedChannelException，然后结束
+            if (mRandomAccessFile != null) {
+                IOUtils.close(mRandomAccessFile);
+            }
+        }
+        mListener.onFailure(errCode, errMsg);
+    }
+
+    /**
+     * 从"bytes 0-0/12345"中解析文件总大小
+     */
+    private static long parseTotalBytes(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String header(OriginalResponse response, String name) {
+        Map<String, List<String>> headers = response.getHeaders();
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey()) && entry.getValue() != null
+                    && !entry.getValue().isEmpty()) {
+                return entry.getValue().get(0);
+            }
+        }
+        return null;
+    }
+}
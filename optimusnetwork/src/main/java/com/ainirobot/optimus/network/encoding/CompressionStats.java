@@ -0,0 +1,81 @@
+package com.ainirobot.optimus.network.encoding;
+
+/**
+ * @filename: CompressionStats
+ * @introduction: 单个请求的压缩统计：请求体和响应体压缩前后的字节数。
+ * 响应体的统计随着读取增加，读完响应体之后才是最终结果
+ * @author: Frewen.Wong
+ * @time: 2019/4/21 14:05
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class CompressionStats {
+    private volatile long mRequestBytes;
+    private volatile long mRequestWireBytes;
+    private volatile long mResponseBytes;
+    private volatile long mResponseWireBytes;
+
+    public void setRequestBytes(long requestBytes, long requestWireBytes) {
+        this.mRequestBytes = requestBytes;
+        this.mRequestWireBytes = requestWireBytes;
+    }
+
+    void addResponseBytes(long bytes) {
+        mResponseBytes += bytes;
+    }
+
+    void addResponseWireBytes(long bytes) {
+        mResponseWireBytes += bytes;
+    }
+
+    /**
+     * 压缩前的请求体字节数
+     */
+    public long getRequestBytes() {
+        return mRequestBytes;
+    }
+
+    /**
+     * 实际发送的请求体字节数
+     */
+    public long getRequestWireBytes() {
+        return mRequestWireBytes;
+    }
+
+    /**
+     * 解压后的响应体字节数
+     */
+    public long getResponseBytes() {
+        return mResponseBytes;
+    }
+
+    /**
+     * 实际接收的响应体字节数
+     */
+    public long getResponseWireBytes() {
+        return mResponseWireBytes;
+    }
+
+    /**
+     * 请求体压缩率（实际发送/压缩前），没有请求体时为1
+     */
+    public double getRequestRatio() {
+        return ratio(mRequestWireBytes, mRequestBytes);
+    }
+
+    /**
+     * 响应体压缩率（实际接收/解压后），没有响应体时为1
+     */
+    public double getResponseRatio() {
+        return ratio(mResponseWireBytes, mResponseBytes);
+    }
+
+    private static double ratio(long wireBytes, long bytes) {
+        return bytes > 0 ? wireBytes / (double) bytes : 1;
+    }
+
+    @Override
+    public String toString() {
+        return "request " + mRequestWireBytes + "/" + mRequestBytes
+                + ", response " + mResponseWireBytes + "/" + mResponseBytes;
+    }
+}
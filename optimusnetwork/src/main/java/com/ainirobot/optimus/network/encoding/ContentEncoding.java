@@ -0,0 +1,76 @@
+package com.ainirobot.optimus.network.encoding;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * @filename: ContentEncoding
+ * @introduction: HTTP内容编码（Content-Encoding）的协商和流式解压
+ * @author: Frewen.Wong
+ * @time: 2019/4/21 14:20
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class ContentEncoding {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    public static final String IDENTITY = "identity";
+    /**
+     * 请求时发送的Accept-Encoding
+     */
+    public static final String ACCEPT_ENCODING = GZIP + ", " + DEFLATE;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * 是否是可以解压的编码
+     */
+    public static boolean isSupported(String contentEncoding) {
+        return GZIP.equalsIgnoreCase(contentEncoding) || DEFLATE.equalsIgnoreCase(contentEncoding);
+    }
+
+    /**
+     * 按照内容编码包装响应体，读取时边接收边解压，同时统计压缩前后的字节数
+     *
+     * @param in              原始的响应体
+     * @param contentEncoding 响应的Content-Encoding
+     * @param stats           压缩统计
+     * @return 解压后的响应体，空的响应体（如HEAD、204）直接返回原始的流
+     */
+    public static InputStream decode(InputStream in, String contentEncoding,
+                                     CompressionStats stats) throws IOException {
+        InputStream wire = new CountingInputStream(in, stats, true);
+        if (!isSupported(contentEncoding)) {
+            return new CountingInputStream(wire, stats, false);
+        }
+        PushbackInputStream pushback = new PushbackInputStream(wire, 2);
+        int first = pushback.read();
+        if (first == -1) {
+            return pushback;
+        }
+        InputStream decoded;
+        if (GZIP.equalsIgnoreCase(contentEncoding)) {
+            pushback.unread(first);
+            decoded = new GZIPInputStream(pushback, BUFFER_SIZE);
+        } else {
+            // deflate按照规范是zlib格式，但有的服务端发送的是没有zlib头的原始deflate数据
+            int second = pushback.read();
+            if (second != -1) {
+                pushback.unread(second);
+            }
+            pushback.unread(first);
+            boolean zlib = second != -1 && (first & 0x0F) == 8 && ((first << 8) | second) % 31 == 0;
+            decoded = new InflaterInputStream(pushback, new Inflater(!zlib), BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    // 自己创建的Inflater不会在close时释放，需要手动释放native内存
+                    inf.end();
+                    super.close();
+                }
+            };
+        }
+        return new CountingInputStream(decoded, stats, false);
+    }
+}
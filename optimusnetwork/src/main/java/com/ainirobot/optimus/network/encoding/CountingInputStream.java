@@ -0,0 +1,66 @@
+package com.ainirobot.optimus.network.encoding;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @filename: CountingInputStream
+ * @introduction: 统计读取字节数的输入流，计入{@link CompressionStats}
+ * @author: Frewen.Wong
+ * @time: 2019/4/21 14:12
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+class CountingInputStream extends FilterInputStream {
+    private final CompressionStats mStats;
+    private final boolean mWire;
+
+    /**
+     * @param wire 统计的是实际接收的字节数还是解压后的字节数
+     */
+    CountingInputStream(InputStream in, CompressionStats stats, boolean wire) {
+        super(in);
+        this.mStats = stats;
+        this.mWire = wire;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            count(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = super.read(b, off, len);
+        if (count > 0) {
+            count(count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) {
+            count(skipped);
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void count(long bytes) {
+        if (mWire) {
+            mStats.addResponseWireBytes(bytes);
+        } else {
+            mStats.addResponseBytes(bytes);
+        }
+    }
+}
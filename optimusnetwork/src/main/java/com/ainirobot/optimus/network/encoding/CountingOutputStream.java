@@ -0,0 +1,36 @@
+package com.ainirobot.optimus.network.encoding;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * @filename: CountingOutputStream
+ * @introduction: 统计写入字节数的输出流
+ * @author: Frewen.Wong
+ * @time: 2019/4/21 14:36
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class CountingOutputStream extends FilterOutputStream {
+    private long mCount;
+
+    public CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        mCount++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        mCount += len;
+    }
+}
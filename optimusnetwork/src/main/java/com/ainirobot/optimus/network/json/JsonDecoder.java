@@ -0,0 +1,21 @@
+package com.ainirobot.optimus.network.json;
+
+import android.util.JsonReader;
+
+import java.io.IOException;
+
+/**
+ * @filename: JsonDecoder
+ * @introduction: 从JsonReader中直接解析出对象，响应体不会先转成字符串
+ * @author: Frewen.Wong
+ * @time: 2019/4/24 11:05
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public interface JsonDecoder<T> {
+    /**
+     * @param reader 位于响应体开头的JsonReader，由调用方关闭
+     * @return 解析出的对象
+     * @throws IOException JSON格式错误（抛出{@link android.util.MalformedJsonException}）或者读取失败
+     */
+    T decode(JsonReader reader) throws IOException;
+}
@@ -0,0 +1,47 @@
+package com.ainirobot.optimus.network.json;
+
+import android.util.MalformedJsonException;
+
+import com.ainirobot.optimus.network.OriginalResponse;
+import com.ainirobot.optimus.network.RequestListener;
+import com.ainirobot.optimus.network.constant.ErrorCode;
+
+import java.io.IOException;
+
+/**
+ * @filename: JsonListener
+ * @introduction: 在网络线程中边读取边解析响应体的回调。JSON格式错误时回调{@link ErrorCode#CODE_ERROR_JSON_EXCEPTION}，
+ * 边读取边解析时连接断开、超时等读取失败回调{@link ErrorCode#CODE_ERROR_IO_EXCEPTION}
+ * @author: Frewen.Wong
+ * @time: 2019/4/24 11:20
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public abstract class JsonListener<T> implements RequestListener {
+    private final JsonDecoder<T> mDecoder;
+
+    public JsonListener(JsonDecoder<T> decoder) {
+        this.mDecoder = decoder;
+    }
+
+    @Override
+    public final void onSuccess(OriginalResponse response) {
+        T value;
+        try {
+            value = response.decodeJson(mDecoder);
+        } catch (MalformedJsonException e) {
+            onFailure(ErrorCode.CODE_ERROR_JSON_EXCEPTION, e.getMessage());
+            return;
+        } catch (IOException e) {
+            // 读取响应体失败是网络错误，和NetworkRunnable中的读取失败一致
+            onFailure(ErrorCode.CODE_ERROR_IO_EXCEPTION, e.getMessage());
+            return;
+        }
+        onResponse(value, response);
+    }
+
+    /**
+     * @param value    解析出的对象
+     * @param response 响应，响应体已经读完
+     */
+    public abstract void onResponse(T value, OriginalResponse response);
+}
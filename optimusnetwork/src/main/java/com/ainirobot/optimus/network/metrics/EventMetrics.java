@@ -0,0 +1,242 @@
+package com.ainirobot.optimus.network.metrics;
+
+import com.ainirobot.optimus.network.EventListener;
+import com.ainirobot.optimus.network.Request;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @filename: EventMetrics
+ * @introduction: 默认的请求事件统计，按Host和接口（请求方法 + 不带参数的URL）分别记录每个阶段的耗时直方图：
+ * 排队、连接、首字节、响应体传输和总耗时，以及失败次数。
+ * 接口数量超过{@link #MAX_ENDPOINTS}之后，新的接口合并到同一个Host的"其他"中，避免URL中带有ID时无限增长
+ * @author: Frewen.Wong
+ * @time: 2019/4/23 15:40
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class EventMetrics implements EventListener.Factory {
+    private static final int MAX_ENDPOINTS = 256;
+    private static final String OTHER_ENDPOINTS = " *";
+
+    private final ConcurrentMap<String, PhaseHistograms> mHosts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, PhaseHistograms> mEndpoints = new ConcurrentHashMap<>();
+
+    @Override
+    public EventListener create(Request request) {
+        String host = request.getHost();
+        if (host == null) {
+            host = "";
+        }
+        String endpoint = endpoint(request);
+        if (mEndpoints.size() >= MAX_ENDPOINTS && !mEndpoints.containsKey(endpoint)) {
+            endpoint = host + OTHER_ENDPOINTS;
+        }
+        return new CallTimer(histograms(mHosts, host), histograms(mEndpoints, endpoint));
+    }
+
+    /**
+     * 某个Host的统计，没有记录时返回null
+     */
+    public PhaseHistograms getHostHistograms(String host) {
+        return mHosts.get(host);
+    }
+
+    /**
+     * 某个接口的统计，没有记录时返回null
+     *
+     * @param endpoint 请求方法 + 空格 + 不带参数的URL，如"GET http://host/path"
+     */
+    public PhaseHistograms getEndpointHistograms(String endpoint) {
+        return mEndpoints.get(endpoint);
+    }
+
+    public void reset() {
+        mHosts.clear();
+        mEndpoints.clear();
+    }
+
+    /**
+     * 按Host和接口输出所有统计，用于日志输出
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[hosts]\n");
+        dump(builder, mHosts);
+        builder.append("[endpoints]\n");
+        dump(builder, mEndpoints);
+        return builder.toString();
+    }
+
+    private static void dump(StringBuilder builder, Map<String, PhaseHistograms> histograms) {
+        for (Map.Entry<String, PhaseHistograms> entry : new TreeMap<>(histograms).entrySet()) {
+            builder.append(entry.getKey()).append('\n').append(entry.getValue());
+        }
+    }
+
+    private static String endpoint(Request request) {
+        String url = request.getUrl();
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            url = url.substring(0, query);
+        }
+        return request.getMethod() + ' ' + url;
+    }
+
+    private static PhaseHistograms histograms(ConcurrentMap<String, PhaseHistograms> map, String key) {
+        PhaseHistograms histograms = map.get(key);
+        if (histograms == null) {
+            PhaseHistograms created = new PhaseHistograms();
+            histograms = map.putIfAbsent(key, created);
+            if (histograms == null) {
+                histograms = created;
+            }
+        }
+        return histograms;
+    }
+
+    /**
+     * 一组请求各个阶段的耗时直方图
+     */
+    public static final class PhaseHistograms {
+        private final LatencyHistogram mQueue = new LatencyHistogram();
+        private final LatencyHistogram mConnect = new LatencyHistogram();
+        private final LatencyHistogram mTimeToFirstByte = new LatencyHistogram();
+        private final LatencyHistogram mResponseBody = new LatencyHistogram();
+        private final LatencyHistogram mTotal = new LatencyHistogram();
+        private final AtomicLong mFailures = new AtomicLong();
+
+        /**
+         * 从放入等待队列到开始执行
+         */
+        public LatencyHistogram getQueue() {
+            return mQueue;
+        }
+
+        /**
+         * 建立连接，包括DNS解析、TCP连接和TLS握手
+         */
+        public LatencyHistogram getConnect() {
+            return mConnect;
+        }
+
+        /**
+         * 从请求发送完成（没有请求体时为连接建立完成）到收到响应头
+         */
+        public LatencyHistogram getTimeToFirstByte() {
+            return mTimeToFirstByte;
+        }
+
+        /**
+         * 从收到响应头到响应体读取完成
+         */
+        public LatencyHistogram getResponseBody() {
+            return mResponseBody;
+        }
+
+        /**
+         * 成功的请求从第一次放入等待队列到结束的总耗时，包括重试
+         */
+        public LatencyHistogram getTotal() {
+            return mTotal;
+        }
+
+        public long getFailureCount() {
+            return mFailures.get();
+        }
+
+        @Override
+        public String toString() {
+            return "  queue: " + mQueue
+                    + "\n  connect: " + mConnect
+                    + "\n  ttfb: " + mTimeToFirstByte
+                    + "\n  body: " + mResponseBody
+                    + "\n  total: " + mTotal
+                    + "\n  failures: " + mFailures.get() + '\n';
+        }
+    }
+
+    /**
+     * 一个请求的事件，记录每个阶段开始的时间，阶段结束时同时记录到Host和接口的直方图中
+     */
+    private static final class CallTimer extends EventListener {
+        private final PhaseHistograms mHost;
+        private final PhaseHistograms mEndpoint;
+        private volatile long mFirstQueued;
+        private volatile long mQueued;
+        private volatile long mConnectStart;
+        private volatile long mRequestSent;
+        private volatile long mHeaders;
+
+        private CallTimer(PhaseHistograms host, PhaseHistograms endpoint) {
+            this.mHost = host;
+            this.mEndpoint = endpoint;
+        }
+
+        @Override
+        public void requestQueued(long nanoTime) {
+            if (mFirstQueued == 0) {
+                mFirstQueued = nanoTime;
+            }
+            mQueued = nanoTime;
+            mRequestSent = 0;
+            mHeaders = 0;
+        }
+
+        @Override
+        public void requestDispatched(long nanoTime) {
+            if (mQueued != 0) {
+                mHost.mQueue.record(nanoTime - mQueued);
+                mEndpoint.mQueue.record(nanoTime - mQueued);
+            }
+        }
+
+        @Override
+        public void connectStart(long nanoTime) {
+            mConnectStart = nanoTime;
+        }
+
+        @Override
+        public void connectEnd(long nanoTime) {
+            mHost.mConnect.record(nanoTime - mConnectStart);
+            mEndpoint.mConnect.record(nanoTime - mConnectStart);
+            mRequestSent = nanoTime;
+        }
+
+        @Override
+        public void requestBodyEnd(long nanoTime, long bodyBytes) {
+            mRequestSent = nanoTime;
+        }
+
+        @Override
+        public void responseHeadersEnd(long nanoTime, int statusCode) {
+            mHeaders = nanoTime;
+            // 缓存命中时没有连接，不记录首字节时间
+            if (mRequestSent != 0) {
+                mHost.mTimeToFirstByte.record(nanoTime - mRequestSent);
+                mEndpoint.mTimeToFirstByte.record(nanoTime - mRequestSent);
+            }
+        }
+
+        @Override
+        public void responseBodyEnd(long nanoTime, long bodyBytes) {
+            if (mHeaders != 0) {
+                mHost.mResponseBody.record(nanoTime - mHeaders);
+                mEndpoint.mResponseBody.record(nanoTime - mHeaders);
+            }
+            if (mFirstQueued != 0) {
+                mHost.mTotal.record(nanoTime - mFirstQueued);
+                mEndpoint.mTotal.record(nanoTime - mFirstQueued);
+            }
+        }
+
+        @Override
+        public void requestFailed(long nanoTime, int errorCode, String errorMessage) {
+            mHost.mFailures.incrementAndGet();
+            mEndpoint.mFailures.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.ainirobot.optimus.network.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @filename: LatencyHistogram
+ * @introduction: 无锁的耗时直方图（HDR风格的对数线性分桶）。
+ * 每个2的幂区间再平均分成{@link #SUB_BUCKETS}个子桶，相对误差不超过1/SUB_BUCKETS，
+ * 记录只需要一次原子加，可以在网络线程中直接调用
+ * @author: Frewen.Wong
+ * @time: 2019/4/20 10:12
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    /**
+     * 记录一次耗时
+     *
+     * @param nanos 耗时（纳秒），小于0的值按0处理
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mCounts.incrementAndGet(bucketIndex(nanos));
+        mTotalCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = mMaxNanos.get())) {
+            if (mMaxNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return mTotalCount.get();
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos.get();
+    }
+
+    public long getMeanNanos() {
+        long count = mTotalCount.get();
+        return count > 0 ? mTotalNanos.get() / count : 0;
+    }
+
+    /**
+     * 获取某个百分位的耗时
+     *
+     * @param percentile 百分位，0~100
+     * @return 该百分位所在桶的上界（纳秒），没有数据时返回0
+     */
+    public long getPercentileNanos(double percentile) {
+        long count = mTotalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100.0);
+        target = Math.max(target, 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), mMaxNanos.get());
+            }
+        }
+        return mMaxNanos.get();
+    }
+
+    /**
+     * 清空所有记录
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mTotalCount.set(0);
+        mTotalNanos.set(0);
+        mMaxNanos.set(0);
+    }
+
+    /**
+     * 输出常用的统计值，单位为毫秒
+     */
+    @Override
+    public String toString() {
+        return "count=" + getCount()
+                + ", mean=" + toMillis(getMeanNanos())
+                + "ms, p50=" + toMillis(getPercentileNanos(50))
+                + "ms, p90=" + toMillis(getPercentileNanos(90))
+                + "ms, p99=" + toMillis(getPercentileNanos(99))
+                + "ms, max=" + toMillis(getMaxNanos()) + "ms";
+    }
+
+    private static String toMillis(long nanos) {
+        return String.valueOf(nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * 小于SUB_BUCKETS的值每个值一个桶，之后每个2的幂区间分成SUB_BUCKETS个桶
+     */
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + subBucket) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
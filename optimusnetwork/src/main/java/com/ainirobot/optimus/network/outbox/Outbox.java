@@ -0,0 +1,290 @@
+package com.ainirobot.optimus.network.outbox;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import com.ainirobot.optimus.network.OptimusNetClient;
+import com.ainirobot.optimus.network.OriginalResponse;
+import com.ainirobot.optimus.network.Request;
+import com.ainirobot.optimus.network.RequestListener;
+import com.ainirobot.optimus.network.request.RequestBody;
+import com.ainirobot.optimus.network.request.body.IntBody;
+import com.ainirobot.optimus.network.request.body.MultipartBody;
+import com.ainirobot.optimus.network.request.body.StringBody;
+import com.ainirobot.optimus.network.utils.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @filename: Outbox
+ * @introduction: 离线请求队列。非幂等的POST请求（StringBody、IntBody、MultipartBody）先写入磁盘上的日志再发送，
+ * 网络不可用或者服务端返回5xx时保留在日志中，网络恢复之后按照入队顺序分批重放，进程重启之后也不会丢失。
+ * 送达语义是至少一次：请求可能已经到达服务端但是没有收到响应，所以每个请求都带有幂等key请求头
+ * {@link #IDEMPOTENCY_KEY_HEADER}，重放时不变，服务端需要据此去重
+ * @author: Frewen.Wong
+ * @time: 2019/4/25 11:20
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class Outbox {
+    private static final String TAG = "Outbox";
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    /**
+     * 每批同时发送的请求数，请求仍然由Dispatcher调度
+     */
+    private static final int BATCH_SIZE = 8;
+    private static final long MIN_BACKOFF_MILLIS = 5000;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+    private final OptimusNetClient mClient;
+    private final OutboxLog mLog;
+    /**
+     * 正在发送的请求ID
+     */
+    private final Set<String> mInFlight = new HashSet<>();
+    private volatile OutboxListener mListener;
+    private long mBackoffMillis;
+    private ScheduledExecutorService mScheduler;
+    private ScheduledFuture<?> mPendingReplay;
+    private BroadcastReceiver mConnectivityReceiver;
+
+    /**
+     * @param client
+     * @param directory 日志目录，只能给一个Outbox使用
+     */
+    public Outbox(OptimusNetClient client, File directory) {
+        this.mClient = client;
+        this.mLog = new OutboxLog(directory);
+    }
+
+    /**
+     * 是否可以放入Outbox：请求体可以完整写入日志的POST请求
+     */
+    public static boolean isPersistable(Request request) {
+        if (!Request.Builder.POST.equals(request.getMethod())) {
+            return false;
+        }
+        RequestBody body = request.getBody();
+        return body instanceof StringBody || body instanceof IntBody || body instanceof MultipartBody;
+    }
+
+    public void setListener(OutboxListener listener) {
+        this.mListener = listener;
+    }
+
+    /**
+     * 请求写入磁盘之后返回，然后立即尝试发送。请求体（包括MultipartBody中的文件）会被完整复制到日志目录下的单独文件中，
+     * 请求完成之后删除
+     *
+     * @param request
+     * @return 请求ID，同时也是幂等key
+     * @throws IOException 写入日志失败或者请求太大，此时请求没有被保存
+     */
+    public String enqueue(Request request) throws IOException {
+        if (!isPersistable(request)) {
+            throw new IllegalArgumentException("request is not persistable:" + request.getUrl());
+        }
+        String id = UUID.randomUUID().toString();
+        mLog.add(id, request);
+        replay();
+        return id;
+    }
+
+    /**
+     * 未完成（包括正在发送）的请求数
+     */
+    public int getPendingCount() {
+        try {
+            mLog.open();
+        } catch (IOException e) {
+            Log.e(TAG, "open outbox failed:" + e.getMessage());
+        }
+        return mLog.size();
+    }
+
+    /**
+     * 立即发送未完成的请求，取消正在等待的退避重试
+     */
+    public synchronized void replay() {
+        try {
+            mLog.open();
+        } catch (IOException e) {
+            Log.e(TAG, "open outbox failed:" + e.getMessage());
+            return;
+        }
+        if (mPendingReplay != null) {
+            mPendingReplay.cancel(false);
+            mPendingReplay = null;
+        }
+        List<OutboxEntry> entries = mLog.peek(BATCH_SIZE - mInFlight.size(), mInFlight);
+        for (OutboxEntry entry : entries) {
+            mInFlight.add(entry.getId());
+        }
+        for (OutboxEntry entry : entries) {
+            mClient.execute(entry.toRequest(this), new EntryListener(entry.getId()));
+        }
+    }
+
+    /**
+     * 注册网络状态广播，网络恢复时立即重放。需要ACCESS_NETWORK_STATE权限
+     */
+    public synchronized void registerConnectivityReceiver(Context context) {
+        if (mConnectivityReceiver != null) {
+            return;
+        }
+        mConnectivityReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                ConnectivityManager manager =
+                        (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+                NetworkInfo info = (manager != null) ? manager.getActiveNetworkInfo() : null;
+                if (info != null && info.isConnected()) {
+                    Log.d(TAG, "network connected, replay outbox");
+                    synchronized (Outbox.this) {
+                        mBackoffMillis = 0;
+                    }
+                    replay();
+                }
+            }
+        };
+        context.getApplicationContext().registerReceiver(mConnectivityReceiver,
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    public synchronized void unregisterConnectivityReceiver(Context context) {
+        if (mConnectivityReceiver == null) {
+            return;
+        }
+        context.getApplicationContext().unregisterReceiver(mConnectivityReceiver);
+        mConnectivityReceiver = null;
+    }
+
+    /**
+     * 请求已经完成，从日志中移除
+     */
+    private void complete(String id) {
+        try {
+            mLog.done(id);
+        } catch (IOException e) {
+            // 没有记录成功时请求会在下次启动后再发送一次，由服务端按幂等key去重
+            Log.e(TAG, "mark outbox entry done failed:" + e.getMessage());
+        }
+    }
+
+    private void onDelivered(String id) {
+        complete(id);
+        synchronized (this) {
+            mInFlight.remove(id);
+            mBackoffMillis = 0;
+        }
+        // 继续发送下一批
+        replay();
+    }
+
+    private void onDropped(String id) {
+        complete(id);
+        synchronized (this) {
+            mInFlight.remove(id);
+        }
+        replay();
+    }
+
+    /**
+     * 网络错误或者服务端暂时不可用，请求保留在日志中，这一批都结束之后退避重试
+     */
+    private synchronized void onRetryLater(String id, int errCode, String errMsg) {
+        mInFlight.remove(id);
+        Log.w(TAG, "outbox entry " + id + " failed:" + errCode + " " + errMsg);
+        if (!mInFlight.isEmpty() || mPendingReplay != null) {
+            return;
+        }
+        mBackoffMillis = (mBackoffMillis == 0)
+                ? MIN_BACKOFF_MILLIS : Math.min(mBackoffMillis * 2, MAX_BACKOFF_MILLIS);
+        mPendingReplay = scheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (Outbox.this) {
+                    mPendingReplay = null;
+                }
+                replay();
+            }
+        }, mBackoffMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 是否是重试也不会成功的错误：4xx，408（超时）和429（限流）除外
+     */
+    private static boolean isPermanentFailure(int errCode) {
+        return errCode >= 400 && errCode < 500 && errCode != 408 && errCode != 429;
+    }
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (mScheduler == null) {
+            mScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "OptimusNetwork-Outbox");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mScheduler;
+    }
+
+    private final class EntryListener implements RequestListener {
+        private final String mId;
+
+        private EntryListener(String id) {
+            this.mId = id;
+        }
+
+        @Override
+        public void onSuccess(OriginalResponse response) {
+            OutboxListener listener = mListener;
+            try {
+                if (listener != null) {
+                    listener.onDelivered(mId, response);
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "listener error:" + Log.getStackTraceString(e));
+            } finally {
+                IOUtils.close(response);
+                onDelivered(mId);
+            }
+        }
+
+        @Override
+        public void onFailure(int errCode, String errMsg) {
+            if (!isPermanentFailure(errCode)) {
+                onRetryLater(mId, errCode, errMsg);
+                return;
+            }
+            Log.w(TAG, "drop outbox entry " + mId + ":" + errCode + " " + errMsg);
+            OutboxListener listener = mListener;
+            try {
+                if (listener != null) {
+                    listener.onDropped(mId, errCode, errMsg);
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "listener error:" + Log.getStackTraceString(e));
+            } finally {
+                onDropped(mId);
+            }
+        }
+    }
+}
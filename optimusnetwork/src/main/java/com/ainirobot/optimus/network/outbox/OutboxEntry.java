@@ -0,0 +1,249 @@
+package com.ainirobot.optimus.network.outbox;
+
+import com.ainirobot.optimus.network.Request;
+import com.ainirobot.optimus.network.RetryPolicy;
+import com.ainirobot.optimus.network.encoding.CountingOutputStream;
+import com.ainirobot.optimus.network.request.RequestBody;
+
+import com.ainirobot.optimus.network.utils.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * @filename: OutboxEntry
+ * @introduction: Outbox中的一个请求，入队时把请求体完整写入日志目录下单独的文件，之后与原来的RequestBody没有关系。
+ * 内存中只保留请求的元数据和请求体文件
+ * @author: Frewen.Wong
+ * @time: 2019/4/25 10:30
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class OutboxEntry {
+    static final String BODY_FILE_SUFFIX = ".body";
+
+    private final String mId;
+    private final long mCreatedMillis;
+    private final String mUrl;
+    private final String mSessionId;
+    private final int mPriority;
+    private final boolean mGzipBody;
+    private final long mUploadRateLimit;
+    private final String[] mHeaders;
+    private final String[] mUrlParams;
+    private final String mContentType;
+    /**
+     * 请求体文件，没有请求体时为null
+     */
+    private final File mBodyFile;
+    private final long mBodyLength;
+
+    private OutboxEntry(String id, long createdMillis, String url, String sessionId, int priority,
+                        boolean gzipBody, long uploadRateLimit, String[] headers, String[] urlParams,
+                        String contentType, File bodyFile, long bodyLength) {
+        this.mId = id;
+        this.mCreatedMillis = createdMillis;
+        this.mUrl = url;
+        this.mSessionId = sessionId;
+        this.mPriority = priority;
+        this.mGzipBody = gzipBody;
+        this.mUploadRateLimit = uploadRateLimit;
+        this.mHeaders = headers;
+        this.mUrlParams = urlParams;
+        this.mContentType = contentType;
+        this.mBodyFile = bodyFile;
+        this.mBodyLength = bodyLength;
+    }
+
+    /**
+     * 请求体文件的位置：日志目录下以请求ID命名
+     */
+    static File bodyFile(File directory, String id) {
+        return new File(directory, id + BODY_FILE_SUFFIX);
+    }
+
+    /**
+     * 保存请求，请求头中加上幂等key，请求体写入directory下的文件并同步到磁盘
+     *
+     * @param id        同时作为幂等key
+     * @param directory 日志目录
+     */
+    static OutboxEntry fromRequest(String id, Request request, File directory) throws IOException {
+        String[] headers = new String[(request.headerCount() + 1) * 2];
+        int index = 0;
+        for (int i = 0; i < request.headerCount(); i++) {
+            if (Outbox.IDEMPOTENCY_KEY_HEADER.equalsIgnoreCase(request.headerName(i))) {
+                continue;
+            }
+            headers[index++] = request.headerName(i);
+            headers[index++] = request.headerValue(i);
+        }
+        headers[index++] = Outbox.IDEMPOTENCY_KEY_HEADER;
+        headers[index++] = id;
+        String[] trimmed = new String[index];
+        System.arraycopy(headers, 0, trimmed, 0, index);
+
+        Map<String, String> params = request.getUrlParams();
+        String[] urlParams = new String[params.size() * 2];
+        index = 0;
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            urlParams[index++] = entry.getKey();
+            urlParams[index++] = entry.getValue();
+        }
+
+        RequestBody body = request.getBody();
+        String contentType = null;
+        File bodyFile = null;
+        long bodyLength = -1;
+        if (body != null) {
+            contentType = body.getContentType();
+            bodyFile = bodyFile(directory, id);
+            bodyLength = writeBody(body, bodyFile);
+        }
+        return new OutboxEntry(id, System.currentTimeMillis(), request.getUrl(), request.getSessionId(),
+                request.getPriority(), request.isGzipBody(), request.getUploadRateLimit(), trimmed,
+                urlParams, contentType, bodyFile, bodyLength);
+    }
+
+    /**
+     * @return 写入的字节数
+     */
+    private static long writeBody(RequestBody body, File file) throws IOException {
+        FileOutputStream stream = new FileOutputStream(file);
+        boolean success = false;
+        try {
+            CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(stream));
+            body.writeTo(out);
+            out.flush();
+            stream.getFD().sync();
+            success = true;
+            return out.getCount();
+        } finally {
+            IOUtils.close(stream);
+            if (!success && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * 重新创建请求。Outbox自己负责退避重放，不再使用请求级别的重试
+     *
+     * @param tag 请求的TAG
+     */
+    Request toRequest(Object tag) {
+        Request.Builder builder = new Request.Builder()
+                .url(mUrl)
+                .session(mSessionId)
+                .priority(mPriority)
+                .uploadRateLimit(mUploadRateLimit)
+                .retryPolicy(RetryPolicy.NONE)
+                .tag(tag);
+        for (int i = 0; i < mHeaders.length; i += 2) {
+            builder.header(mHeaders[i], mHeaders[i + 1]);
+        }
+        for (int i = 0; i < mUrlParams.length; i += 2) {
+            builder.urlParam(mUrlParams[i], mUrlParams[i + 1]);
+        }
+        if (mGzipBody) {
+            builder.gzipBody();
+        }
+        builder.post((mBodyFile != null) ? new StoredBody(mContentType, mBodyFile, mBodyLength) : null);
+        return builder.build();
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public long getCreatedMillis() {
+        return mCreatedMillis;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * 保存的请求体长度
+     */
+    public long getBodyLength() {
+        return (mBodyFile != null) ? mBodyLength : 0;
+    }
+
+    /**
+     * 请求体文件，没有请求体时为null
+     */
+    File getBodyFile() {
+        return mBodyFile;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(mId);
+        out.writeLong(mCreatedMillis);
+        out.writeUTF(mUrl);
+        writeNullable(out, mSessionId);
+        out.writeInt(mPriority);
+        out.writeBoolean(mGzipBody);
+        out.writeLong(mUploadRateLimit);
+        writeStrings(out, mHeaders);
+        writeStrings(out, mUrlParams);
+        writeNullable(out, mContentType);
+        // 请求体在单独的文件中，日志中只记录长度，-1表示没有请求体
+        out.writeLong((mBodyFile != null) ? mBodyLength : -1);
+    }
+
+    /**
+     * @param directory 日志目录，请求体文件在这个目录下
+     */
+    static OutboxEntry readFrom(DataInputStream in, File directory) throws IOException {
+        String id = in.readUTF();
+        long createdMillis = in.readLong();
+        String url = in.readUTF();
+        String sessionId = readNullable(in);
+        int priority = in.readInt();
+        boolean gzipBody = in.readBoolean();
+        long uploadRateLimit = in.readLong();
+        String[] headers = readStrings(in);
+        String[] urlParams = readStrings(in);
+        String contentType = readNullable(in);
+        long bodyLength = in.readLong();
+        File bodyFile = (bodyLength >= 0) ? bodyFile(directory, id) : null;
+        return new OutboxEntry(id, createdMillis, url, sessionId, priority, gzipBody, uploadRateLimit,
+                headers, urlParams, contentType, bodyFile, bodyLength);
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+        out.writeInt(values.length);
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("bad string count:" + count);
+        }
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readUTF();
+        }
+        return values;
+    }
+}
@@ -0,0 +1,29 @@
+package com.ainirobot.optimus.network.outbox;
+
+import com.ainirobot.optimus.network.OriginalResponse;
+
+/**
+ * @filename: OutboxListener
+ * @introduction: Outbox中请求的最终结果回调。请求可能在进程重启之后才送达，回调只能通过请求ID关联
+ * @author: Frewen.Wong
+ * @time: 2019/4/25 11:40
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public interface OutboxListener {
+    /**
+     * 服务端返回2xx，请求已经从Outbox中移除
+     *
+     * @param id       {@link Outbox#enqueue}返回的请求ID
+     * @param response
+     */
+    void onDelivered(String id, OriginalResponse response);
+
+    /**
+     * 服务端返回不可重试的错误（4xx，408和429除外），请求已经从Outbox中移除，不会再发送
+     *
+     * @param id
+     * @param errCode HTTP状态码
+     * @param errMsg
+     */
+    void onDropped(String id, int errCode, String errMsg);
+}
@@ -0,0 +1,347 @@
+package com.ainirobot.optimus.network.outbox;
+
+import android.util.Log;
+
+import com.ainirobot.optimus.network.Request;
+import com.ainirobot.optimus.network.utils.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * @filename: OutboxLog
+ * @introduction: Outbox的只追加写日志。每条记录是[长度][CRC32][内容]，内容是ADD（请求的元数据）或者DONE（请求ID），
+ * 每次追加都同步到磁盘。请求体在ADD之前写入同一目录下的单独文件，请求完成之后删除。
+ * 启动时重放日志恢复未完成的请求，进程被杀掉时最后一条记录可能不完整，校验失败时丢弃并截断，
+ * 没有对应记录的请求体文件和请求体文件不完整的请求也会被删除；DONE记录太多时只保留未完成的请求重写日志
+ * @author: Frewen.Wong
+ * @time: 2019/4/25 11:05
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+class OutboxLog {
+    private static final String TAG = "OutboxLog";
+    private static final String LOG_FILE = "outbox.log";
+    private static final String LOG_FILE_TMP = "outbox.log.tmp";
+    private static final String MAGIC = "optimus.outbox";
+    private static final int VERSION = 2;
+    private static final byte ADD = 1;
+    private static final byte DONE = 2;
+    /**
+     * 单条记录的最大长度，读取时超过这个长度认为日志已经损坏，所以写入时也不能超过
+     */
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+    /**
+     * DONE记录超过这个数量并且超过未完成的请求数时重写日志
+     */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 64;
+
+    private final File mDirectory;
+    /**
+     * 未完成的请求，按照入队顺序排列
+     */
+    private final LinkedHashMap<String, OutboxEntry> mEntries = new LinkedHashMap<>();
+    private int mRedundantOpCount;
+    private FileOutputStream mLogStream;
+
+    OutboxLog(File directory) {
+        this.mDirectory = directory;
+    }
+
+    /**
+     * 第一次使用时读取日志，恢复未完成的请求
+     */
+    synchronized void open() throws IOException {
+        if (mLogStream != null) {
+            return;
+        }
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            throw new IOException("mkdirs failed:" + mDirectory);
+        }
+        File log = new File(mDirectory, LOG_FILE);
+        if (log.exists() && readLog(log)) {
+            if (dropIncompleteEntries()) {
+                rebuildLog();
+            } else {
+                mLogStream = new FileOutputStream(log, true);
+            }
+        } else {
+            mEntries.clear();
+            rebuildLog();
+        }
+        deleteOrphanBodyFiles();
+    }
+
+    /**
+     * 请求体写入单独的文件，然后追加ADD记录
+     *
+     * @throws IOException 写入失败，或者记录超过{@link #MAX_RECORD_BYTES}（写入之后重启时无法读回）
+     */
+    synchronized void add(String id, Request request) throws IOException {
+        open();
+        OutboxEntry entry = null;
+        boolean success = false;
+        try {
+            entry = OutboxEntry.fromRequest(id, request, mDirectory);
+            byte[] record = addRecord(entry);
+            if (record.length > MAX_RECORD_BYTES) {
+                throw new IOException("outbox record too large:" + record.length);
+            }
+            appendRecord(record);
+            success = true;
+        } finally {
+            if (!success && entry != null) {
+                deleteBodyFile(entry);
+            }
+        }
+        mEntries.put(entry.getId(), entry);
+    }
+
+    /**
+     * 请求已经完成（送达或者被丢弃），之后不再重放
+     */
+    synchronized void done(String id) throws IOException {
+        open();
+        OutboxEntry entry = mEntries.remove(id);
+        if (entry == null) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(DONE);
+        out.writeUTF(id);
+        out.flush();
+        appendRecord(bytes.toByteArray());
+        // DONE已经写入之后才删除，删除之前进程被杀掉时由下次open清理
+        deleteBodyFile(entry);
+        // ADD和DONE两条记录都已经无效
+        mRedundantOpCount += 2;
+        if (mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+                && mRedundantOpCount >= mEntries.size()) {
+            rebuildLog();
+        }
+    }
+
+    synchronized boolean contains(String id) {
+        return mEntries.containsKey(id);
+    }
+
+    /**
+     * 按照入队顺序返回最多limit个未完成的请求，exclude中的请求跳过
+     */
+    synchronized List<OutboxEntry> peek(int limit, Set<String> exclude) {
+        List<OutboxEntry> entries = new ArrayList<>(Math.min(limit, mEntries.size()));
+        for (OutboxEntry entry : mEntries.values()) {
+            if (entries.size() >= limit) {
+                break;
+            }
+            if (!exclude.contains(entry.getId())) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return 日志是否有效
+     */
+    private boolean readLog(File log) {
+        DataInputStream in = null;
+        long validLength;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)));
+            if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) {
+                return false;
+            }
+            validLength = headerLength();
+            int recordCount = 0;
+            CRC32 crc = new CRC32();
+            for (; ; ) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_BYTES) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    crc.reset();
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    // 进程被杀掉时最后一条记录可能不完整，直接忽略
+                    break;
+                }
+                applyRecord(payload);
+                recordCount++;
+                validLength += 8 + payload.length;
+            }
+            mRedundantOpCount = recordCount - mEntries.size();
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "read outbox log failed:" + e);
+            return false;
+        } finally {
+            IOUtils.close(in);
+        }
+        if (validLength < log.length()) {
+            Log.w(TAG, "truncate outbox log from " + log.length() + " to " + validLength);
+            RandomAccessFile file = null;
+            try {
+                file = new RandomAccessFile(log, "rw");
+                file.setLength(validLength);
+            } catch (IOException e) {
+                Log.e(TAG, "truncate outbox log failed:" + e.getMessage());
+                return false;
+            } finally {
+                IOUtils.close(file);
+            }
+        }
+        return true;
+    }
+
+    private void applyRecord(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        if (type == ADD) {
+            OutboxEntry entry = OutboxEntry.readFrom(in, mDirectory);
+            mEntries.put(entry.getId(), entry);
+        } else if (type == DONE) {
+            mEntries.remove(in.readUTF());
+        } else {
+            throw new IOException("unknown record type:" + type);
+        }
+    }
+
+    /**
+     * 只保留未完成的请求，重写日志
+     */
+    private void rebuildLog() throws IOException {
+        IOUtils.close(mLogStream);
+        mLogStream = null;
+        File tmp = new File(mDirectory, LOG_FILE_TMP);
+        FileOutputStream stream = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            writeHeader(out);
+            for (OutboxEntry entry : mEntries.values()) {
+                writeRecord(out, addRecord(entry));
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            IOUtils.close(stream);
+        }
+        File log = new File(mDirectory, LOG_FILE);
+        if (!tmp.renameTo(log)) {
+            throw new IOException("rename outbox log failed:" + log);
+        }
+        mRedundantOpCount = 0;
+        mLogStream = new FileOutputStream(log, true);
+    }
+
+    /**
+     * 删除请求体文件丢失或者长度不对的请求，例如请求体写入之后没有同步到磁盘就断电
+     *
+     * @return 是否删除了请求
+     */
+    private boolean dropIncompleteEntries() {
+        boolean dropped = false;
+        Iterator<OutboxEntry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            OutboxEntry entry = iterator.next();
+            File bodyFile = entry.getBodyFile();
+            if (bodyFile != null && (!bodyFile.isFile() || bodyFile.length() != entry.getBodyLength())) {
+                Log.w(TAG, "drop outbox entry " + entry.getId() + ", body file missing or truncated");
+                deleteBodyFile(entry);
+                iterator.remove();
+                dropped = true;
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * 删除没有未完成请求对应的请求体文件：写入请求体之后ADD记录写入失败，或者DONE之后没有来得及删除
+     */
+    private void deleteOrphanBodyFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(OutboxEntry.BODY_FILE_SUFFIX)) {
+                continue;
+            }
+            String id = name.substring(0, name.length() - OutboxEntry.BODY_FILE_SUFFIX.length());
+            if (!mEntries.containsKey(id) && !file.delete()) {
+                Log.w(TAG, "delete outbox body failed:" + file);
+            }
+        }
+    }
+
+    private static void deleteBodyFile(OutboxEntry entry) {
+        File bodyFile = entry.getBodyFile();
+        if (bodyFile != null && bodyFile.exists() && !bodyFile.delete()) {
+            Log.w(TAG, "delete outbox body failed:" + bodyFile);
+        }
+    }
+
+    private static byte[] addRecord(OutboxEntry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(ADD);
+        entry.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void appendRecord(byte[] payload) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(mLogStream,
+                payload.length + 8));
+        writeRecord(out, payload);
+        out.flush();
+        // 返回之前保证记录已经写入磁盘，之后断电或者进程被杀掉都不会丢失
+        mLogStream.getFD().sync();
+    }
+
+    private static void writeRecord(DataOutputStream out, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeUTF(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    private static long headerLength() {
+        // writeUTF：2字节长度加上ASCII内容
+        return 2 + MAGIC.length() + 4;
+    }
+}
@@ -0,0 +1,62 @@
+package com.ainirobot.optimus.network.outbox;
+
+import com.ainirobot.optimus.network.request.RequestBody;
+import com.ainirobot.optimus.network.utils.ByteArrayPool;
+import com.ainirobot.optimus.network.utils.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * @filename: StoredBody
+ * @introduction: Outbox中保存的请求体：入队时写入单独文件的完整字节和当时的Content-Type，发送时从文件中分段读出，
+ * 不会一次性读入内存。MultipartBody的boundary每次进程启动都不同，所以必须保存原来的Content-Type
+ * @author: Frewen.Wong
+ * @time: 2019/4/25 10:20
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+class StoredBody implements RequestBody {
+    private final String mContentType;
+    private final File mFile;
+    private final long mLength;
+
+    StoredBody(String contentType, File file, long length) {
+        this.mContentType = contentType;
+        this.mFile = file;
+        this.mLength = length;
+    }
+
+    @Override
+    public String getContentType() {
+        return mContentType;
+    }
+
+    @Override
+    public long getContentLength() {
+        return mLength;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        InputStream in = new FileInputStream(mFile);
+        ByteArrayPool pool = ByteArrayPool.getDefault();
+        byte[] buffer = pool.getBuf(ByteArrayPool.bufferSizeFor(mLength));
+        try {
+            long remaining = mLength;
+            int len;
+            while (remaining > 0 && (len = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                out.write(buffer, 0, len);
+                remaining -= len;
+            }
+            if (remaining > 0) {
+                throw new IOException("outbox body truncated:" + mFile);
+            }
+        } finally {
+            pool.returnBuf(buffer);
+            IOUtils.close(in);
+        }
+    }
+}
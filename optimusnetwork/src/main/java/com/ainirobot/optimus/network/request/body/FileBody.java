@@ -22,6 +22,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 public class FileBody implements RequestBody {
 
@@ -53,17 +56,26 @@ public class FileBody implements RequestBody {
         return mFileName;
     }
 
+    /**
+     * 通过FileChannel把文件传输到输出流，不在Java堆上逐段复制。
+     * 写出的字节数必须和{@link #getContentLength()}一致，所以读写异常直接抛出
+     */
     @Override
     public void writeTo(OutputStream out) throws IOException {
         FileInputStream fis = new FileInputStream(mFile);
         try {
-            byte[] buffer = new byte[4096];
-            int length;
-            while ((length = fis.read(buffer)) != -1) {
-                out.write(buffer, 0, length);
+            FileChannel channel = fis.getChannel();
+            // 不能关闭target，否则会关闭外层的输出流
+            WritableByteChannel target = Channels.newChannel(out);
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = channel.transferTo(position, size - position, target);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         } finally {
             fis.close();
         }
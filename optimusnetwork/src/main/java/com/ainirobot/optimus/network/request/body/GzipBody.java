@@ -0,0 +1,71 @@
+package com.ainirobot.optimus.network.request.body;
+
+import com.ainirobot.optimus.network.encoding.CountingOutputStream;
+import com.ainirobot.optimus.network.request.RequestBody;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @filename: GzipBody
+ * @introduction: 对请求体进行gzip压缩，请求头需要带上Content-Encoding: gzip，并且服务端支持解压。
+ * 压缩后的长度无法提前知道，所以{@link #getContentLength()}返回-1
+ * @author: Frewen.Wong
+ * @time: 2019/4/21 14:40
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class GzipBody implements RequestBody {
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private final RequestBody mBody;
+    private volatile long mBytesWritten;
+
+    public GzipBody(RequestBody body) {
+        this.mBody = body;
+    }
+
+    @Override
+    public String getContentType() {
+        return mBody.getContentType();
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * 最近一次写入时压缩前的字节数
+     */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(new NonClosingOutputStream(out), BUFFER_SIZE);
+        CountingOutputStream counting = new CountingOutputStream(gzip);
+        mBody.writeTo(counting);
+        // 只结束压缩，外层的输出流由调用方关闭
+        gzip.finish();
+        gzip.flush();
+        mBytesWritten = counting.getCount();
+    }
+
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+        private NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -35,11 +35,12 @@ public class IntBody implements RequestBody {
 
     @Override
     public long getContentLength() {
-        return 4;
+        return 1;
     }
 
     @Override
     public void writeTo(OutputStream out) throws IOException {
+        // 服务端按照1个字节读取，只写出低8位，与getContentLength()一致
         out.write(mContent);
         out.flush();
     }
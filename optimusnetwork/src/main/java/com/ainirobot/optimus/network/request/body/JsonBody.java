@@ -0,0 +1,133 @@
+package com.ainirobot.optimus.network.request.body;
+
+import android.util.JsonWriter;
+
+import com.ainirobot.optimus.network.request.RequestBody;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * @filename: JsonBody
+ * @introduction: 流式的JSON请求体，通过JsonWriter直接写入连接的输出流，不会先拼成字符串。
+ * 长度无法提前知道，使用chunked方式发送。请求重试时会再次调用{@link Source#writeTo(JsonWriter)}，
+ * 所以Source需要可以重复写出相同的内容
+ * @author: Frewen.Wong
+ * @time: 2019/4/24 10:30
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class JsonBody implements RequestBody {
+    private static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+    private static final String CHARSET = "UTF-8";
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * 写出JSON内容
+     */
+    public interface Source {
+        void writeTo(JsonWriter writer) throws IOException;
+    }
+
+    private final Source mSource;
+
+    public JsonBody(Source source) {
+        this.mSource = source;
+    }
+
+    /**
+     * 把Map写成JSON对象，值可以是null、String、Number、Boolean、Map、Collection、数组、JSONObject和JSONArray，
+     * 其他类型使用toString()。写出时才遍历，Map的内容不能在请求执行期间修改
+     *
+     * @param map
+     * @return
+     */
+    public static JsonBody of(final Map<String, ?> map) {
+        return new JsonBody(new Source() {
+            @Override
+            public void writeTo(JsonWriter writer) throws IOException {
+                writeValue(writer, map);
+            }
+        });
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, CHARSET),
+                BUFFER_SIZE));
+        mSource.writeTo(writer);
+        // 只flush不close，输出流由调用方关闭
+        writer.flush();
+    }
+
+    /**
+     * 写出一个值，支持的类型见{@link #of(Map)}
+     */
+    public static void writeValue(JsonWriter writer, Object value) throws IOException {
+        if (value == null || value == JSONObject.NULL) {
+            writer.nullValue();
+        } else if (value instanceof String) {
+            writer.value((String) value);
+        } else if (value instanceof Boolean) {
+            writer.value((Boolean) value);
+        } else if (value instanceof Number) {
+            writer.value((Number) value);
+        } else if (value instanceof Map) {
+            writer.beginObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                writer.name(String.valueOf(entry.getKey()));
+                writeValue(writer, entry.getValue());
+            }
+            writer.endObject();
+        } else if (value instanceof Collection) {
+            writer.beginArray();
+            for (Object element : (Collection<?>) value) {
+                writeValue(writer, element);
+            }
+            writer.endArray();
+        } else if (value.getClass().isArray()) {
+            writer.beginArray();
+            for (int i = 0, length = Array.getLength(value); i < length; i++) {
+                writeValue(writer, Array.get(value, i));
+            }
+            writer.endArray();
+        } else if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            writer.beginObject();
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                writer.name(key);
+                writeValue(writer, object.opt(key));
+            }
+            writer.endObject();
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            writer.beginArray();
+            for (int i = 0; i < array.length(); i++) {
+                writeValue(writer, array.opt(i));
+            }
+            writer.endArray();
+        } else {
+            writer.value(value.toString());
+        }
+    }
+}
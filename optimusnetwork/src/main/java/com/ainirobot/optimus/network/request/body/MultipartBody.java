@@ -41,15 +41,37 @@ public class MultipartBody implements RequestBody {
 
     private List<Part> mParts = new ArrayList<>();
 
+    /**
+     * 整个请求体的长度，包括每个Part的分隔符和头部，与{@link #writeTo(OutputStream)}写出的字节数完全一致。
+     * 有Part的长度未知时返回-1
+     */
     @Override
     public long getContentLength() {
         long contentLength = 0;
         for (Part part : mParts) {
-            contentLength += part.body.getContentLength();
+            long bodyLength = part.body.getContentLength();
+            if (bodyLength == -1) {
+                return -1;
+            }
+            contentLength += DASHDASH.length + BOUNDARY.length + CRLF.length;
+            for (Map.Entry<String, String> entry : part.headers.entrySet()) {
+                contentLength += headerLength(entry.getKey(), entry.getValue());
+            }
+            String contentType = part.body.getContentType();
+            if (contentType != null) {
+                contentLength += headerLength("Content-Type", contentType);
+            }
+            contentLength += headerLength("Content-Length", String.valueOf(bodyLength));
+            contentLength += CRLF.length + bodyLength + CRLF.length;
         }
+        contentLength += DASHDASH.length + BOUNDARY.length + DASHDASH.length + CRLF.length;
         return contentLength;
     }
 
+    private static long headerLength(String key, String value) {
+        return key.getBytes().length + COLONSPACE.length + value.getBytes().length + CRLF.length;
+    }
+
     @Override
     public String getContentType() {
         return "multipart/form-data; boundary=" + new String(BOUNDARY);
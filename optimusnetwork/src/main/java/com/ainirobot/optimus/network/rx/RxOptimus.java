@@ -0,0 +1,61 @@
+package com.ainirobot.optimus.network.rx;
+
+import com.ainirobot.optimus.network.NetworkException;
+import com.ainirobot.optimus.network.OptimusNetClient;
+import com.ainirobot.optimus.network.OriginalResponse;
+import com.ainirobot.optimus.network.Request;
+import com.ainirobot.optimus.network.RequestListener;
+import com.ainirobot.optimus.network.ResponseFuture;
+
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.functions.Cancellable;
+
+/**
+ * @filename: RxOptimus
+ * @introduction: RxJava2适配。每次订阅执行一次请求，取消订阅时取消请求并断开连接；
+ * 请求失败时发出{@link NetworkException}。
+ * 模块对RxJava只是compileOnly依赖，使用这个类的应用需要自己依赖RxJava2
+ * @author: Frewen.Wong
+ * @time: 2019/4/23 11:05
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public final class RxOptimus {
+
+    private RxOptimus() {
+    }
+
+    /**
+     * 请求结果，响应体已经读入内存，可以在任意线程中读取
+     *
+     * @param client
+     * @param request
+     * @return
+     */
+    public static Single<OriginalResponse> single(final OptimusNetClient client, final Request request) {
+        return Single.create(new SingleOnSubscribe<OriginalResponse>() {
+            @Override
+            public void subscribe(final SingleEmitter<OriginalResponse> emitter) {
+                final ResponseFuture future = client.executeAsync(request);
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() {
+                        future.cancel(true);
+                    }
+                });
+                future.addListener(new RequestListener() {
+                    @Override
+                    public void onSuccess(OriginalResponse response) {
+                        emitter.onSuccess(response);
+                    }
+
+                    @Override
+                    public void onFailure(int errCode, String errMsg) {
+                        emitter.tryOnError(new NetworkException(errCode, errMsg));
+                    }
+                });
+            }
+        });
+    }
+}
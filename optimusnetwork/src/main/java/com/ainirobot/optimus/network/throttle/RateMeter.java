@@ -0,0 +1,52 @@
+package com.ainirobot.optimus.network.throttle;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @filename: RateMeter
+ * @introduction: 统计最近几秒的平均速率（字节/秒）和累计字节数。按秒分桶的环形数组，记录只需要很少的计算
+ * @author: Frewen.Wong
+ * @time: 2019/4/24 15:35
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class RateMeter {
+    private static final int WINDOW_SECONDS = 5;
+
+    private final long[] mBuckets = new long[WINDOW_SECONDS + 1];
+    private final long[] mBucketSeconds = new long[WINDOW_SECONDS + 1];
+    private long mTotalBytes;
+
+    public synchronized void record(long bytes) {
+        long second = currentSecond();
+        int index = (int) (((second % mBuckets.length) + mBuckets.length) % mBuckets.length);
+        if (mBucketSeconds[index] != second) {
+            mBucketSeconds[index] = second;
+            mBuckets[index] = 0;
+        }
+        mBuckets[index] += bytes;
+        mTotalBytes += bytes;
+    }
+
+    /**
+     * 最近{@link #WINDOW_SECONDS}秒（不含当前这一秒）的平均速率
+     */
+    public synchronized long getBytesPerSecond() {
+        long now = currentSecond();
+        long sum = 0;
+        for (int i = 0; i < mBuckets.length; i++) {
+            long age = now - mBucketSeconds[i];
+            if (age >= 1 && age <= WINDOW_SECONDS) {
+                sum += mBuckets[i];
+            }
+        }
+        return sum / WINDOW_SECONDS;
+    }
+
+    public synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    private static long currentSecond() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+    }
+}
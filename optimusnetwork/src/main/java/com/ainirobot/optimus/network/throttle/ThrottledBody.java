@@ -0,0 +1,96 @@
+package com.ainirobot.optimus.network.throttle;
+
+import com.ainirobot.optimus.network.request.RequestBody;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * @filename: ThrottledBody
+ * @introduction: 限速的请求体，把写入拆成小段，每段写入之前依次从单个请求、全局和让行令牌桶中取令牌
+ * @author: Frewen.Wong
+ * @time: 2019/4/24 16:20
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+class ThrottledBody implements RequestBody {
+    private static final int MAX_CHUNK_SIZE = 8 * 1024;
+
+    private final UploadThrottle mThrottle;
+    private final RequestBody mBody;
+    private final TokenBucket mRequestBucket;
+    private final int mPriority;
+
+    ThrottledBody(UploadThrottle throttle, RequestBody body, TokenBucket requestBucket, int priority) {
+        this.mThrottle = throttle;
+        this.mBody = body;
+        this.mRequestBucket = requestBucket;
+        this.mPriority = priority;
+    }
+
+    @Override
+    public String getContentType() {
+        return mBody.getContentType();
+    }
+
+    @Override
+    public long getContentLength() {
+        return mBody.getContentLength();
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        mBody.writeTo(new ThrottledOutputStream(out));
+    }
+
+    private final class ThrottledOutputStream extends FilterOutputStream {
+
+        private ThrottledOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            acquire(1);
+            out.write(b);
+            mThrottle.record(mPriority, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int chunk = chunkSize(len);
+                acquire(chunk);
+                out.write(b, off, chunk);
+                mThrottle.record(mPriority, chunk);
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        private int chunkSize(int len) {
+            int chunk = Math.min(len, MAX_CHUNK_SIZE);
+            if (mRequestBucket != null) {
+                chunk = mRequestBucket.getChunkSize(chunk);
+            }
+            chunk = mThrottle.getGlobalBucket().getChunkSize(chunk);
+            TokenBucket yieldBucket = mThrottle.yieldBucketFor(mPriority);
+            if (yieldBucket != null) {
+                chunk = yieldBucket.getChunkSize(chunk);
+            }
+            return chunk;
+        }
+
+        private void acquire(int bytes) throws IOException {
+            if (mRequestBucket != null) {
+                mRequestBucket.acquire(bytes);
+            }
+            mThrottle.getGlobalBucket().acquire(bytes);
+            // 等待全局令牌期间高优先级请求可能已经开始，最后再检查是否需要让行
+            TokenBucket yieldBucket = mThrottle.yieldBucketFor(mPriority);
+            if (yieldBucket != null) {
+                yieldBucket.acquire(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.ainirobot.optimus.network.throttle;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @filename: TokenBucket
+ * @introduction: 令牌桶限速，一个令牌对应一个字节。令牌按照速率持续补充，最多积攒capacity个，
+ * 允许短时间的突发。取令牌时先预支再等待（令牌数可以为负），多个线程共用时按照取令牌的顺序分享带宽
+ * @author: Frewen.Wong
+ * @time: 2019/4/24 15:10
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class TokenBucket {
+    /**
+     * 默认最多积攒100ms的令牌
+     */
+    private static final long DEFAULT_BURST_MILLIS = 100;
+
+    private long mBytesPerSecond;
+    private long mCapacity;
+    private double mTokens;
+    private long mLastRefillNanos;
+
+    /**
+     * @param bytesPerSecond 速率（字节/秒），小于等于0时不限速
+     */
+    public TokenBucket(long bytesPerSecond) {
+        setRate(bytesPerSecond);
+        this.mTokens = mCapacity;
+        this.mLastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * 修改速率，已经预支的令牌不受影响
+     *
+     * @param bytesPerSecond 速率（字节/秒），小于等于0时不限速
+     */
+    public synchronized void setRate(long bytesPerSecond) {
+        refill(System.nanoTime());
+        this.mBytesPerSecond = bytesPerSecond;
+        this.mCapacity = Math.max(1, bytesPerSecond * DEFAULT_BURST_MILLIS / TimeUnit.SECONDS.toMillis(1));
+        this.mTokens = Math.min(mTokens, mCapacity);
+    }
+
+    public synchronized long getRate() {
+        return mBytesPerSecond;
+    }
+
+    /**
+     * 每次写入的字节数，保证每次等待的时间在突发时间（100ms）左右，取消请求时能及时响应
+     */
+    public synchronized int getChunkSize(int maxChunkSize) {
+        if (mBytesPerSecond <= 0) {
+            return maxChunkSize;
+        }
+        return (int) Math.max(1, Math.min(maxChunkSize, mCapacity));
+    }
+
+    /**
+     * 取走bytes个令牌，令牌不够时阻塞等待
+     *
+     * @param bytes
+     * @throws InterruptedIOException 等待时线程被中断
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        long waitNanos;
+        synchronized (this) {
+            if (mBytesPerSecond <= 0) {
+                return;
+            }
+            refill(System.nanoTime());
+            mTokens -= bytes;
+            waitNanos = (mTokens < 0)
+                    ? (long) (-mTokens * TimeUnit.SECONDS.toNanos(1) / mBytesPerSecond) : 0;
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while throttling");
+            }
+        }
+    }
+
+    private void refill(long nowNanos) {
+        if (mBytesPerSecond > 0) {
+            double added = (nowNanos - mLastRefillNanos) * (double) mBytesPerSecond
+                    / TimeUnit.SECONDS.toNanos(1);
+            mTokens = Math.min(mCapacity, mTokens + added);
+        }
+        mLastRefillNanos = nowNanos;
+    }
+}
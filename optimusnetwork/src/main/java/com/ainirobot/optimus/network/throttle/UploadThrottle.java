@@ -0,0 +1,146 @@
+package com.ainirobot.optimus.network.throttle;
+
+import com.ainirobot.optimus.network.Request;
+import com.ainirobot.optimus.network.request.RequestBody;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * @filename: UploadThrottle
+ * @introduction: 请求体上传的带宽控制：
+ * 1. 全局限速，所有请求体共用一个令牌桶；
+ * 2. 单个请求限速，见{@link Request.Builder#uploadRateLimit(long)}；
+ * 3. 有更高优先级的请求正在执行时，低优先级请求的上传让出带宽，这些请求合计不超过让行速率，
+ * 小于100ms让行速率的请求体可以直接突发发送，不会被拖慢；
+ * 4. 按优先级统计上传速率（字节/秒），用于观察上行带宽的压力
+ * @author: Frewen.Wong
+ * @time: 2019/4/24 15:50
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class UploadThrottle {
+    /**
+     * 默认的让行速率
+     */
+    public static final long DEFAULT_YIELD_BYTES_PER_SECOND = 64 * 1024;
+    private static final int PRIORITY_COUNT = Request.PRIORITY_HIGH + 1;
+
+    private final TokenBucket mGlobalBucket = new TokenBucket(0);
+    private final TokenBucket mYieldBucket = new TokenBucket(DEFAULT_YIELD_BYTES_PER_SECOND);
+    /**
+     * 每个优先级正在执行的请求数
+     */
+    private final AtomicIntegerArray mActiveRequests = new AtomicIntegerArray(PRIORITY_COUNT);
+    private final RateMeter mMeter = new RateMeter();
+    private final RateMeter[] mPriorityMeters = new RateMeter[PRIORITY_COUNT];
+
+    public UploadThrottle() {
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            mPriorityMeters[i] = new RateMeter();
+        }
+    }
+
+    /**
+     * 全局上传限速
+     *
+     * @param bytesPerSecond 小于等于0时不限速
+     */
+    public void setRateLimit(long bytesPerSecond) {
+        mGlobalBucket.setRate(bytesPerSecond);
+    }
+
+    public long getRateLimit() {
+        return mGlobalBucket.getRate();
+    }
+
+    /**
+     * 有更高优先级的请求正在执行时，低优先级请求合计的上传速率
+     *
+     * @param bytesPerSecond 小于等于0时不让行
+     */
+    public void setYieldRate(long bytesPerSecond) {
+        mYieldBucket.setRate(bytesPerSecond);
+    }
+
+    public long getYieldRate() {
+        return mYieldBucket.getRate();
+    }
+
+    /**
+     * 最近几秒所有请求的平均上传速率
+     */
+    public long getBytesPerSecond() {
+        return mMeter.getBytesPerSecond();
+    }
+
+    /**
+     * 最近几秒某个优先级请求的平均上传速率
+     *
+     * @param priority {@link Request#PRIORITY_LOW}, {@link Request#PRIORITY_NORMAL}, {@link Request#PRIORITY_HIGH}
+     */
+    public long getBytesPerSecond(int priority) {
+        return mPriorityMeters[priority].getBytesPerSecond();
+    }
+
+    /**
+     * 累计上传的字节数
+     */
+    public long getTotalBytes() {
+        return mMeter.getTotalBytes();
+    }
+
+    /**
+     * 请求开始执行
+     */
+    public void requestStarted(int priority) {
+        mActiveRequests.incrementAndGet(priority);
+    }
+
+    /**
+     * 请求执行结束
+     */
+    public void requestFinished(int priority) {
+        mActiveRequests.decrementAndGet(priority);
+    }
+
+    /**
+     * 包装请求体，写入时按照限速等待
+     *
+     * @param body
+     * @param rateLimit 单个请求的限速（字节/秒），小于等于0时只受全局限速
+     * @param priority  请求的优先级
+     */
+    public RequestBody wrap(RequestBody body, long rateLimit, int priority) {
+        return new ThrottledBody(this, body, (rateLimit > 0) ? new TokenBucket(rateLimit) : null, priority);
+    }
+
+    TokenBucket getGlobalBucket() {
+        return mGlobalBucket;
+    }
+
+    /**
+     * 当前是否有比priority更高优先级的请求正在执行，有的话需要从让行令牌桶中取令牌
+     */
+    TokenBucket yieldBucketFor(int priority) {
+        for (int i = priority + 1; i < PRIORITY_COUNT; i++) {
+            if (mActiveRequests.get(i) > 0) {
+                return mYieldBucket;
+            }
+        }
+        return null;
+    }
+
+    void record(int priority, long bytes) {
+        mMeter.record(bytes);
+        mPriorityMeters[priority].record(bytes);
+    }
+
+    public String dump() {
+        return "rateLimit=" + getRateLimit()
+                + ", yieldRate=" + getYieldRate()
+                + ", bytesPerSecond=" + getBytesPerSecond()
+                + " (low=" + getBytesPerSecond(Request.PRIORITY_LOW)
+                + ", normal=" + getBytesPerSecond(Request.PRIORITY_NORMAL)
+                + ", high=" + getBytesPerSecond(Request.PRIORITY_HIGH)
+                + "), totalBytes=" + getTotalBytes();
+    }
+}
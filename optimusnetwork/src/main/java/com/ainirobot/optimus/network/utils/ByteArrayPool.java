@@ -0,0 +1,113 @@
+package com.ainirobot.optimus.network.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * @filename: ByteArrayPool
+ * @introduction: byte[]缓冲区池，读取响应体时复用缓冲区，减少大响应带来的内存分配和GC。
+ * 池中缓冲区的总大小有上限，超过上限时丢弃最久没有使用的缓冲区
+ * @author: Frewen.Wong
+ * @time: 2019/4/21 10:18
+ * Copyright ©2018 Frewen.Wong. All Rights Reserved.
+ */
+public class ByteArrayPool {
+    /**
+     * 最小的缓冲区大小
+     */
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;
+    /**
+     * 最大的缓冲区大小，更大的响应体也只使用这么大的缓冲区分段读取
+     */
+    public static final int MAX_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_SIZE_LIMIT = 512 * 1024;
+    private static final ByteArrayPool DEFAULT = new ByteArrayPool(DEFAULT_SIZE_LIMIT);
+
+    private static final Comparator<byte[]> BUF_COMPARATOR = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] lhs, byte[] rhs) {
+            return lhs.length - rhs.length;
+        }
+    };
+
+    /**
+     * 按照最近使用顺序排列的缓冲区
+     */
+    private final List<byte[]> mBuffersByLastUse = new LinkedList<>();
+    /**
+     * 按照大小排列的缓冲区
+     */
+    private final List<byte[]> mBuffersBySize = new ArrayList<>(64);
+    private final int mSizeLimit;
+    private int mCurrentSize = 0;
+
+    /**
+     * @param sizeLimit 池中缓冲区的总大小上限
+     */
+    public ByteArrayPool(int sizeLimit) {
+        this.mSizeLimit = sizeLimit;
+    }
+
+    /**
+     * 全局共用的缓冲区池
+     */
+    public static ByteArrayPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 根据响应体长度计算读取时使用的缓冲区大小
+     *
+     * @param contentLength 响应体长度，未知时小于0
+     */
+    public static int bufferSizeFor(long contentLength) {
+        if (contentLength < 0) {
+            return MIN_BUFFER_SIZE * 2;
+        }
+        return (int) Math.max(MIN_BUFFER_SIZE, Math.min(contentLength, MAX_BUFFER_SIZE));
+    }
+
+    /**
+     * 获取一个不小于len的缓冲区，池中没有合适的缓冲区时新建
+     */
+    public synchronized byte[] getBuf(int len) {
+        for (int i = 0; i < mBuffersBySize.size(); i++) {
+            byte[] buf = mBuffersBySize.get(i);
+            if (buf.length >= len) {
+                mCurrentSize -= buf.length;
+                mBuffersBySize.remove(i);
+                mBuffersByLastUse.remove(buf);
+                return buf;
+            }
+        }
+        return new byte[len];
+    }
+
+    /**
+     * 归还缓冲区
+     */
+    public synchronized void returnBuf(byte[] buf) {
+        if (buf == null || buf.length > mSizeLimit) {
+            return;
+        }
+        mBuffersByLastUse.add(buf);
+        int pos = Collections.binarySearch(mBuffersBySize, buf, BUF_COMPARATOR);
+        if (pos < 0) {
+            pos = -pos - 1;
+        }
+        mBuffersBySize.add(pos, buf);
+        mCurrentSize += buf.length;
+        trim();
+    }
+
+    private synchronized void trim() {
+        while (mCurrentSize > mSizeLimit) {
+            byte[] buf = mBuffersByLastUse.remove(0);
+            mBuffersBySize.remove(buf);
+            mCurrentSize -= buf.length;
+        }
+    }
+}
@@ -8,6 +8,17 @@ package com.ainirobot.optimus.network.utils;
  * Copyright ©2018 Frewen.Wong. All Rights Reserved.
  */
 public class HttpUtils {
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    /**
+     * 拼接URL时复用的StringBuilder，超过这个容量时不再复用，避免长期占用内存
+     */
+    private static final int MAX_CACHED_BUILDER_CAPACITY = 8 * 1024;
+    private static final ThreadLocal<StringBuilder> URL_BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
     private static final int HTTPS_LEN = 5;
     private static final String HTTPS = "https";
 
@@ -18,4 +29,147 @@ public class HttpUtils {
             return false;
         }
     }
+
+    /**
+     * 是否是成功的返回码（2xx），如分段下载时的206
+     */
+    public static boolean isSuccessful(int statusCode) {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * 从URL中解析出Host（包含端口），用于按Host进行请求调度
+     *
+     * @param url 请求的URL
+     * @return host, 无法解析时返回空字符串
+     */
+    public static String getHost(String url) {
+        if (url == null) {
+            return "";
+        }
+        int start = url.indexOf("://");
+        start = (start < 0) ? 0 : start + 3;
+        int end = start;
+        int length = url.length();
+        while (end < length) {
+            char c = url.charAt(end);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+            end++;
+        }
+        return url.substring(start, end);
+    }
+
+    /**
+     * 从Content-Type中解析字符集，如"application/json; charset=utf-8"
+     *
+     * @param contentType    响应的Content-Type
+     * @param defaultCharset 没有指定字符集时使用的字符集
+     * @return
+     */
+    public static String getCharset(String contentType, String defaultCharset) {
+        if (contentType == null) {
+            return defaultCharset;
+        }
+        int length = contentType.length();
+        int index = contentType.indexOf(';');
+        while (index >= 0 && index < length) {
+            int start = index + 1;
+            int end = contentType.indexOf(';', start);
+            if (end < 0) {
+                end = length;
+            }
+            String param = contentType.substring(start, end).trim();
+            if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+                String charset = param.substring(8).trim();
+                if (charset.length() >= 2 && charset.startsWith("\"") && charset.endsWith("\"")) {
+                    charset = charset.substring(1, charset.length() - 1);
+                }
+                return charset.isEmpty() ? defaultCharset : charset;
+            }
+            index = end;
+        }
+        return defaultCharset;
+    }
+
+    /**
+     * 拼接带有查询参数的URL，参数按照application/x-www-form-urlencoded编码（与URLEncoder的结果相同），
+     * 使用线程内复用的StringBuilder，只在最后生成一次字符串
+     *
+     * @param url            不带参数的URL，已经带有参数时追加在后面
+     * @param namesAndValues key、value交替存放的参数
+     * @return
+     */
+    public static String buildUrl(String url, String[] namesAndValues) {
+        if (namesAndValues.length == 0) {
+            return url;
+        }
+        StringBuilder builder = URL_BUILDER.get();
+        builder.setLength(0);
+        builder.append(url).append(url.indexOf('?') < 0 ? '?' : '&');
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (i > 0) {
+                builder.append('&');
+            }
+            appendUrlEncoded(builder, namesAndValues[i]);
+            builder.append('=');
+            appendUrlEncoded(builder, namesAndValues[i + 1]);
+        }
+        String result = builder.toString();
+        if (builder.capacity() > MAX_CACHED_BUILDER_CAPACITY) {
+            URL_BUILDER.remove();
+        }
+        return result;
+    }
+
+    /**
+     * 按照application/x-www-form-urlencoded编码（UTF-8）追加字符串，不创建中间对象
+     */
+    public static void appendUrlEncoded(StringBuilder builder, String value) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '.' || c == '-' || c == '*' || c == '_') {
+                builder.append(c);
+            } else if (c == ' ') {
+                builder.append('+');
+            } else {
+                int codePoint = c;
+                if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    codePoint = Character.toCodePoint(c, value.charAt(++i));
+                } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+                    // 与URLEncoder一致，不成对的代理字符替换为'?'
+                    codePoint = '?';
+                }
+                appendUtf8PercentEncoded(builder, codePoint);
+            }
+        }
+    }
+
+    private static void appendUtf8PercentEncoded(StringBuilder builder, int codePoint) {
+        if (codePoint < 0x80) {
+            appendPercentEncoded(builder, codePoint);
+        } else if (codePoint < 0x800) {
+            appendPercentEncoded(builder, 0xC0 | (codePoint >> 6));
+            appendPercentEncoded(builder, 0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            appendPercentEncoded(builder, 0xE0 | (codePoint >> 12));
+            appendPercentEncoded(builder, 0x80 | ((codePoint >> 6) & 0x3F));
+            appendPercentEncoded(builder, 0x80 | (codePoint & 0x3F));
+        } else {
+            appendPercentEncoded(builder, 0xF0 | (codePoint >> 18));
+            appendPercentEncoded(builder, 0x80 | ((codePoint >> 12) & 0x3F));
+            appendPercentEncoded(builder, 0x80 | ((codePoint >> 6) & 0x3F));
+            appendPercentEncoded(builder, 0x80 | (codePoint & 0x3F));
+        }
+    }
+
+    private static void appendPercentEncoded(StringBuilder builder, int b) {
+        builder.append('%').append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+    }
 }
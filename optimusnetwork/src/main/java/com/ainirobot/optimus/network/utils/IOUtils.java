@@ -4,6 +4,7 @@ import android.util.Log;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * @filename: IOUtils
@@ -46,4 +47,30 @@ public class IOUtils {
             throw new RuntimeException(TAG, e);
         }
     }
+
+    /**
+     * 读完输入流中剩余的数据并丢弃，出现异常时不抛出。
+     * 响应体被完整读完之后，底层的keep-alive连接才能放回连接池被后续请求复用
+     *
+     * @param in
+     * @param maxBytes 最多读取的字节数，超过之后放弃读取
+     * @return 是否已经读到流的末尾
+     */
+    public static boolean drain(InputStream in, long maxBytes) {
+        if (null == in) {
+            return true;
+        }
+        byte[] buffer = new byte[4096];
+        long total = 0;
+        try {
+            int len;
+            while (total <= maxBytes && (len = in.read(buffer)) != -1) {
+                total += len;
+            }
+            return total <= maxBytes;
+        } catch (IOException e) {
+            Log.e(TAG, "an error occur when drain InputStream:" + e.getMessage());
+            return false;
+        }
+    }
 }
@@ -0,0 +1,256 @@
+package com.ainirobot.optimus.network;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Dispatcher的submit/finished吞吐量微基准测试。
+ * <p>
+ * 线程池被替换成只记录任务的Executor，每个线程循环提交一个请求，再结束一个已经被调度的请求，
+ * 这样测到的只有调度器本身的开销和锁竞争。LockedDispatcher是改造之前基于synchronized的实现，作为对照。
+ * 锁竞争只有在多核设备上才会体现出来，单核环境下两者的差别主要是调度器本身的开销。
+ * <p>
+ * 运行时间较长，不参与默认的单元测试，需要在多核机器上去掉@Ignore后手动运行，
+ * 按照线程数输出两种实现的吞吐量（ops/ms），每个线程数取多轮中最好的一次。
+ * 调度规则的正确性由{@link DispatcherTest}覆盖
+ */
+@Ignore("微基准测试，在多核机器上手动运行")
+public class DispatcherBenchmark {
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+    private static final int OPERATIONS_PER_THREAD = 20000;
+    private static final int ROUNDS = 5;
+    private static final int HOSTS = 16;
+
+    @Test
+    public void submitAndFinishThroughput() throws Exception {
+        OptimusNetClient client = new OptimusNetClient();
+        System.out.println("available processors: " + Runtime.getRuntime().availableProcessors());
+
+        for (int threads : THREAD_COUNTS) {
+            double bestLocked = 0;
+            double bestLockFree = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                RecordingExecutor lockedExecutor = new RecordingExecutor();
+                LockedDispatcher locked = new LockedDispatcher(lockedExecutor);
+                long lockedNanos = run(new LockedTarget(locked, lockedExecutor), client, threads);
+                assertEquals(0, locked.runningCount());
+
+                RecordingExecutor executor = new RecordingExecutor();
+                Dispatcher dispatcher = new Dispatcher(executor);
+                long lockFreeNanos = run(new LockFreeTarget(dispatcher, executor), client, threads);
+                assertEquals(0, dispatcher.getRunningCount());
+                assertEquals(0, dispatcher.getWaitingCount());
+
+                bestLocked = Math.max(bestLocked, throughput(lockedNanos, threads));
+                bestLockFree = Math.max(bestLockFree, throughput(lockFreeNanos, threads));
+            }
+            System.out.println(String.format("%d threads: synchronized %.0f ops/ms, lock-free %.0f ops/ms",
+                    threads, bestLocked, bestLockFree));
+        }
+    }
+
+    private static double throughput(long nanos, int threads) {
+        return threads * (double) OPERATIONS_PER_THREAD / TimeUnit.NANOSECONDS.toMillis(Math.max(nanos, 1000000));
+    }
+
+    private static long run(final Target target, final OptimusNetClient client, int threads)
+            throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            final String url = "http://host" + (i % HOSTS) + "/benchmark";
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int op = 0; op < OPERATIONS_PER_THREAD; op++) {
+                            // 每个请求使用默认TAG（Request本身），和实际使用时一致
+                            Request request = new Request.Builder().url(url).build();
+                            target.submit(new NetworkRunnable(client, request, null));
+                            // 每个线程最多只有一个未结束的请求，保证所有请求都能立即被调度
+                            while (!target.finishOne()) {
+                                Thread.yield();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        target.finishAll();
+        return elapsed;
+    }
+
+    private interface Target {
+        void submit(NetworkRunnable runnable);
+
+        boolean finishOne();
+
+        void finishAll();
+    }
+
+    private static final class LockFreeTarget implements Target {
+        private final Dispatcher dispatcher;
+        private final RecordingExecutor executor;
+
+        LockFreeTarget(Dispatcher dispatcher, RecordingExecutor executor) {
+            this.dispatcher = dispatcher;
+            this.executor = executor;
+        }
+
+        @Override
+        public void submit(NetworkRunnable runnable) {
+            dispatcher.submit(runnable);
+        }
+
+        @Override
+        public boolean finishOne() {
+            Runnable runnable = executor.executed.poll();
+            return runnable != null && dispatcher.finished((NetworkRunnable) runnable);
+        }
+
+        @Override
+        public void finishAll() {
+            Runnable runnable;
+            while ((runnable = executor.executed.poll()) != null) {
+                dispatcher.finished((NetworkRunnable) runnable);
+            }
+        }
+    }
+
+    private static final class LockedTarget implements Target {
+        private final LockedDispatcher dispatcher;
+        private final RecordingExecutor executor;
+
+        LockedTarget(LockedDispatcher dispatcher, RecordingExecutor executor) {
+            this.dispatcher = dispatcher;
+            this.executor = executor;
+        }
+
+        @Override
+        public void submit(NetworkRunnable runnable) {
+            dispatcher.submit(runnable);
+        }
+
+        @Override
+        public boolean finishOne() {
+            Runnable runnable = executor.executed.poll();
+            return runnable != null && dispatcher.finished((NetworkRunnable) runnable);
+        }
+
+        @Override
+        public void finishAll() {
+            Runnable runnable;
+            while ((runnable = executor.executed.poll()) != null) {
+                dispatcher.finished((NetworkRunnable) runnable);
+            }
+        }
+    }
+
+    /**
+     * 只记录被调度的任务，由测试线程自己结束它们
+     */
+    private static final class RecordingExecutor extends AbstractExecutorService {
+        private final Queue<Runnable> executed = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void execute(Runnable command) {
+            executed.offer(command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return null;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    /**
+     * 改造之前的调度器：两个ArrayDeque共用一个synchronized监视器
+     */
+    private static final class LockedDispatcher {
+        private final int mMaxRequests = 64;
+        private final RecordingExecutor mExecutor;
+        private final Deque<NetworkRunnable> mRunningRunnables = new ArrayDeque<>();
+        private final Deque<NetworkRunnable> mWaitingRunnables = new ArrayDeque<>();
+
+        LockedDispatcher(RecordingExecutor executor) {
+            mExecutor = executor;
+        }
+
+        synchronized int runningCount() {
+            return mRunningRunnables.size();
+        }
+
+        private void performRunnable() {
+            if (mRunningRunnables.size() >= mMaxRequests || mWaitingRunnables.isEmpty()) {
+                return;
+            }
+            Iterator<NetworkRunnable> iterator = mWaitingRunnables.iterator();
+            while (iterator.hasNext()) {
+                NetworkRunnable runnable = iterator.next();
+                mRunningRunnables.add(runnable);
+                mExecutor.execute(runnable);
+                iterator.remove();
+                if (mRunningRunnables.size() > mMaxRequests) {
+                    return;
+                }
+            }
+        }
+
+        synchronized void submit(NetworkRunnable runnable) {
+            if (mRunningRunnables.size() < mMaxRequests) {
+                mRunningRunnables.add(runnable);
+                mExecutor.execute(runnable);
+            } else {
+                mWaitingRunnables.add(runnable);
+            }
+        }
+
+        synchronized boolean finished(NetworkRunnable runnable) {
+            if (mRunningRunnables.remove(runnable)) {
+                performRunnable();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.ainirobot.optimus.network;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Dispatcher的调度规则测试。线程池被替换成只记录任务的Executor，由测试自己结束被调度的请求
+ */
+public class DispatcherTest {
+    private RecordingExecutor mExecutor;
+    private OptimusNetClient mClient;
+    private Dispatcher mDispatcher;
+
+    @Before
+    public void setUp() {
+        mExecutor = new RecordingExecutor();
+        mClient = new OptimusNetClient(mExecutor);
+        mDispatcher = mClient.getDispatcher();
+    }
+
+    @Test
+    public void slotsReturnToZeroAfterAllFinished() {
+        mDispatcher.setMaxRequests(8);
+        mDispatcher.setMaxRequestsPerHost(3);
+        for (int i = 0; i < 100; i++) {
+            mDispatcher.submit(runnable("http://host" + (i % 4) + "/a", Request.PRIORITY_NORMAL, null));
+        }
+        assertEquals(8, mDispatcher.getRunningCount());
+        assertEquals(92, mDispatcher.getWaitingCount());
+
+        int finished = 0;
+        NetworkRunnable runnable;
+        while ((runnable = mExecutor.executed.poll()) != null) {
+            assertTrue(mDispatcher.finished(runnable));
+            finished++;
+        }
+        assertEquals(100, finished);
+        assertEquals(0, mDispatcher.getRunningCount());
+        assertEquals(0, mDispatcher.getWaitingCount());
+        assertTrue(mDispatcher.getRunningCountPerHost().isEmpty());
+        assertTrue(mDispatcher.getWaitingCountPerHost().isEmpty());
+    }
+
+    @Test
+    public void finishedTwiceReleasesSlotOnce() {
+        NetworkRunnable runnable = runnable("http://host/a", Request.PRIORITY_NORMAL, null);
+        mDispatcher.submit(runnable);
+        assertSame(runnable, mExecutor.executed.poll());
+        assertTrue(mDispatcher.finished(runnable));
+        assertFalse(mDispatcher.finished(runnable));
+        assertEquals(0, mDispatcher.getRunningCount());
+    }
+
+    @Test
+    public void perHostLimit() {
+        mDispatcher.setMaxRequestsPerHost(2);
+        for (int i = 0; i < 5; i++) {
+            mDispatcher.submit(runnable("http://a/" + i, Request.PRIORITY_NORMAL, null));
+        }
+        mDispatcher.submit(runnable("http://b/0", Request.PRIORITY_NORMAL, null));
+
+        assertEquals(3, mExecutor.executed.size());
+        assertEquals(2, mDispatcher.getRunningCount("a"));
+        assertEquals(3, mDispatcher.getWaitingCount("a"));
+        assertEquals(1, mDispatcher.getRunningCount("b"));
+
+        NetworkRunnable first = mExecutor.executed.poll();
+        assertEquals("a", first.getHost());
+        mDispatcher.finished(first);
+        assertEquals(2, mDispatcher.getRunningCount("a"));
+        assertEquals(2, mDispatcher.getWaitingCount("a"));
+    }
+
+    @Test
+    public void higherPriorityRunsFirst() {
+        mDispatcher.setMaxRequests(1);
+        NetworkRunnable blocker = runnable("http://a/blocker", Request.PRIORITY_NORMAL, null);
+        NetworkRunnable low = runnable("http://a/low", Request.PRIORITY_LOW, null);
+        NetworkRunnable normal = runnable("http://b/normal", Request.PRIORITY_NORMAL, null);
+        NetworkRunnable high = runnable("http://c/high", Request.PRIORITY_HIGH, null);
+        mDispatcher.submit(blocker);
+        mDispatcher.submit(low);
+        mDispatcher.submit(normal);
+        mDispatcher.submit(high);
+
+        assertSame(blocker, mExecutor.executed.poll());
+        assertNull(mExecutor.executed.poll());
+        mDispatcher.finished(blocker);
+        assertSame(high, mExecutor.executed.poll());
+        mDispatcher.finished(high);
+        assertSame(normal, mExecutor.executed.poll());
+        mDispatcher.finished(normal);
+        assertSame(low, mExecutor.executed.poll());
+        mDispatcher.finished(low);
+        assertEquals(0, mDispatcher.getRunningCount());
+    }
+
+    @Test
+    public void cancelTagRemovesWaitingRequests() {
+        mDispatcher.setMaxRequests(1);
+        NetworkRunnable blocker = runnable("http://a/blocker", Request.PRIORITY_NORMAL, null);
+        mDispatcher.submit(blocker);
+        NetworkRunnable first = runnable("http://a/1", Request.PRIORITY_NORMAL, "tag");
+        NetworkRunnable second = runnable("http://b/2", Request.PRIORITY_HIGH, "tag");
+        mDispatcher.submit(first);
+        mDispatcher.submit(second);
+        assertEquals(2, mDispatcher.getWaitingCount());
+
+        mDispatcher.cancel("tag");
+        assertTrue(first.isCanceled());
+        assertTrue(second.isCanceled());
+        assertEquals(0, mDispatcher.getWaitingCount());
+
+        mExecutor.executed.clear();
+        mDispatcher.finished(blocker);
+        assertNull(mExecutor.executed.poll());
+        assertEquals(0, mDispatcher.getRunningCount());
+    }
+
+    @Test
+    public void cancelTagReleasesRunningRequest() {
+        mDispatcher.setMaxRequests(1);
+        NetworkRunnable running = runnable("http://a/1", Request.PRIORITY_NORMAL, "tag");
+        NetworkRunnable waiting = runnable("http://a/2", Request.PRIORITY_NORMAL, null);
+        mDispatcher.submit(running);
+        mDispatcher.submit(waiting);
+        assertSame(running, mExecutor.executed.poll());
+
+        mDispatcher.cancel("tag");
+        assertTrue(running.isCanceled());
+        // 槽位立即释放，等待中的请求被调度，执行线程之后再结束也不会重复释放
+        assertSame(waiting, mExecutor.executed.poll());
+        assertFalse(mDispatcher.finished(running));
+        assertEquals(1, mDispatcher.getRunningCount());
+        mDispatcher.finished(waiting);
+        assertEquals(0, mDispatcher.getRunningCount());
+    }
+
+    @Test
+    public void cancelRacingFinishReleasesSlotOnce() throws Exception {
+        for (int i = 0; i < 2000; i++) {
+            final NetworkRunnable runnable = runnable("http://a/" + i, Request.PRIORITY_NORMAL, "tag" + i);
+            mDispatcher.submit(runnable);
+            assertSame(runnable, mExecutor.executed.poll());
+
+            final CyclicBarrier barrier = new CyclicBarrier(2);
+            final String tag = "tag" + i;
+            Thread canceler = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(barrier);
+                    mDispatcher.cancel(tag);
+                }
+            });
+            canceler.start();
+            await(barrier);
+            mDispatcher.finished(runnable);
+            canceler.join();
+            // 取消和结束都会尝试释放槽位，只能释放一次，多释放时计数会变成负数
+            assertEquals(0, mDispatcher.getRunningCount());
+            assertEquals(0, mDispatcher.getRunningCount("a"));
+        }
+    }
+
+    @Test
+    public void delayedSubmitCanBeCanceledWhileWaiting() throws Exception {
+        final CountDownLatch scheduled = new CountDownLatch(1);
+        NetworkRunnable canceled = runnable("http://a/1", Request.PRIORITY_NORMAL, "retry");
+        NetworkRunnable delayed = runnable("http://a/2", Request.PRIORITY_NORMAL, null);
+        mDispatcher.submitDelayed(canceled, 50, TimeUnit.MILLISECONDS);
+        mDispatcher.submitDelayed(delayed, 50, TimeUnit.MILLISECONDS);
+        mExecutor.onExecute = scheduled;
+        mDispatcher.cancel("retry");
+
+        assertTrue(scheduled.await(5, TimeUnit.SECONDS));
+        assertSame(delayed, mExecutor.executed.poll());
+        Thread.sleep(100);
+        assertNull(mExecutor.executed.poll());
+        mDispatcher.finished(delayed);
+        assertEquals(0, mDispatcher.getRunningCount());
+        assertEquals(0, mDispatcher.getWaitingCount());
+    }
+
+    private NetworkRunnable runnable(String url, int priority, Object tag) {
+        Request request = new Request.Builder().url(url).priority(priority).tag(tag).build();
+        return new NetworkRunnable(mClient, request, null);
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * 只记录被调度的任务
+     */
+    private static final class RecordingExecutor extends AbstractExecutorService {
+        private final ConcurrentLinkedQueue<NetworkRunnable> executed = new ConcurrentLinkedQueue<>();
+        private volatile CountDownLatch onExecute;
+
+        @Override
+        public void execute(Runnable command) {
+            executed.offer((NetworkRunnable) command);
+            CountDownLatch latch = onExecute;
+            if (latch != null) {
+                latch.countDown();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
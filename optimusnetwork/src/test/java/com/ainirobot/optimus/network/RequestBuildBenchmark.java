@@ -0,0 +1,116 @@
+package com.ainirobot.optimus.network;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 构建请求、拼接查询参数和遍历请求头的单线程内存分配测试。
+ * <p>
+ * 通过com.sun.management.ThreadMXBean统计当前线程分配的字节数，除以请求数得到每个请求的分配量。
+ * LegacyRequest是改造之前的实现：HashMap保存参数和请求头，构造时拼接日志字符串，
+ * 执行时用StringBuffer和URLEncoder拼接URL，作为对照。
+ * 分配量与机器的速度无关，每个请求的分配量至少要比改造之前少一半。编码结果的正确性由HttpUtilsTest覆盖
+ */
+public class RequestBuildBenchmark {
+    private static final int REQUESTS = 20000;
+    private static final int ROUNDS = 3;
+    private static final String URL = "http://api.example.com/v1/robot/status";
+
+    private static volatile Object sink;
+
+    @Test
+    public void allocatesLessThanLegacyPerRequest() throws Exception {
+        assertEquals(URL + "?sn=OR1234567890&lang=zh_CN&query=" + URLEncoder.encode("你好 机器人", "UTF-8"),
+                current(0).getFullUrl());
+
+        // 第一轮包含类加载和JIT的分配，取各轮中最小的一次
+        long legacyBytes = Long.MAX_VALUE;
+        long currentBytes = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = allocatedBytes();
+            for (int i = 0; i < REQUESTS; i++) {
+                LegacyRequest request = legacy(i);
+                sink = request.buildUrl();
+                for (Map.Entry<String, String> header : request.headers.entrySet()) {
+                    sink = header.getValue();
+                }
+            }
+            legacyBytes = Math.min(legacyBytes, (allocatedBytes() - before) / REQUESTS);
+
+            before = allocatedBytes();
+            for (int i = 0; i < REQUESTS; i++) {
+                Request request = current(i);
+                sink = request.getFullUrl();
+                for (int h = 0, count = request.headerCount(); h < count; h++) {
+                    sink = request.headerValue(h);
+                }
+            }
+            currentBytes = Math.min(currentBytes, (allocatedBytes() - before) / REQUESTS);
+        }
+        assertTrue("legacy " + legacyBytes + " bytes/request, current " + currentBytes + " bytes/request",
+                currentBytes * 2 <= legacyBytes);
+    }
+
+    private static Request current(int i) {
+        return new Request.Builder()
+                .url(URL)
+                .header("Authorization", "Bearer 0123456789abcdef")
+                .header("X-Robot-Id", "robot-42")
+                .urlParam("sn", "OR1234567890")
+                .urlParam("lang", "zh_CN")
+                .urlParam("query", "你好 机器人")
+                .get()
+                .build();
+    }
+
+    private static LegacyRequest legacy(int i) {
+        LegacyRequest request = new LegacyRequest();
+        request.url = URL;
+        request.headers.put("Authorization", "Bearer 0123456789abcdef");
+        request.headers.put("X-Robot-Id", "robot-42");
+        request.urlParams.put("sn", "OR1234567890");
+        request.urlParams.put("lang", "zh_CN");
+        request.urlParams.put("query", "你好 机器人");
+        sink = "tag:" + request;
+        return request;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static final class LegacyRequest {
+        String url;
+        HashMap<String, String> headers = new HashMap<>();
+        HashMap<String, String> urlParams = new HashMap<>();
+
+        String buildUrl() throws Exception {
+            String url = this.url;
+            StringBuffer stringBuffer = new StringBuffer();
+            Set<Map.Entry<String, String>> entites = urlParams.entrySet();
+            int i = 0;
+            for (Map.Entry<String, String> entry : entites) {
+                if (i > 0) {
+                    stringBuffer.append("&");
+                }
+                String key = entry.getKey();
+                String value = URLEncoder.encode(entry.getValue(), "UTF-8");
+                stringBuffer.append(key).append("=").append(value);
+                i++;
+            }
+            if (stringBuffer.toString().length() > 0) {
+                url += "?" + stringBuffer.toString();
+            }
+            return url;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.ainirobot.optimus.network;
+
+import com.ainirobot.optimus.network.constant.ErrorCode;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 相同GET请求合并的测试。线程池被替换成只记录任务的Executor，由测试直接回调合并请求的结果
+ */
+public class RequestCoalescerTest {
+    private static final String URL = "http://host/a";
+
+    private RecordingExecutor mExecutor;
+    private OptimusNetClient mClient;
+
+    @Before
+    public void setUp() {
+        mExecutor = new RecordingExecutor();
+        mClient = new OptimusNetClient(mExecutor);
+        mClient.setRequestCoalescing(true);
+    }
+
+    @Test
+    public void identicalRequestsShareOneResponse() {
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        mClient.execute(get(URL), first);
+        mClient.execute(get(URL), second);
+        assertEquals(1, mClient.getCoalescedRequestCount());
+
+        flight(mExecutor.executed.poll()).onSuccess(response("body".getBytes()));
+        assertNull(mExecutor.executed.poll());
+        assertEquals("body", first.body);
+        assertEquals("body", second.body);
+    }
+
+    @Test
+    public void failedBodyReadFailsEveryListener() {
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        mClient.execute(get(URL), first);
+        mClient.execute(get(URL), second);
+
+        InputStream broken = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("connection reset");
+            }
+        };
+        flight(mExecutor.executed.poll()).onSuccess(new OriginalResponse(200, broken, -1));
+        assertFalse(first.succeeded);
+        assertFalse(second.succeeded);
+        assertEquals(ErrorCode.CODE_ERROR_IO_EXCEPTION, first.errCode);
+        assertEquals(ErrorCode.CODE_ERROR_IO_EXCEPTION, second.errCode);
+    }
+
+    @Test
+    public void differentHeadersAreNotCoalesced() {
+        mClient.execute(get(URL), null);
+        mClient.execute(new Request.Builder().url(URL).header("X-Token", "b").build(), null);
+        assertEquals(2, mExecutor.executed.size());
+        assertEquals(0, mClient.getCoalescedRequestCount());
+    }
+
+    @Test
+    public void requestIsCanceledWhenEveryCallerCancels() {
+        Object firstTag = new Object();
+        Object secondTag = new Object();
+        mClient.execute(new Request.Builder().url(URL).tag(firstTag).build(), null);
+        mClient.execute(new Request.Builder().url(URL).tag(secondTag).build(), null);
+        NetworkRunnable runnable = mExecutor.executed.poll();
+
+        mClient.cancel(firstTag);
+        assertFalse(runnable.isCanceled());
+        mClient.cancel(secondTag);
+        assertTrue(runnable.isCanceled());
+    }
+
+    @Test
+    public void cancelAllSilencesCoalescedCallers() {
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        mClient.execute(get(URL), first);
+        mClient.execute(get(URL), second);
+        NetworkRunnable runnable = mExecutor.executed.poll();
+
+        mClient.cancelAll();
+        assertTrue(runnable.isCanceled());
+        flight(runnable).onFailure(ErrorCode.CODE_ERROR_USER_CANCEL, "user cancel");
+        assertEquals(0, first.errCode);
+        assertEquals(0, second.errCode);
+
+        // 取消之后相同的请求重新发送
+        mClient.execute(get(URL), first);
+        assertEquals(1, mExecutor.executed.size());
+    }
+
+    private static Request get(String url) {
+        return new Request.Builder().url(url).build();
+    }
+
+    private static OriginalResponse response(byte[] body) {
+        return new OriginalResponse(200, new ByteArrayInputStream(body), body.length);
+    }
+
+    /**
+     * 合并的请求使用Flight作为TAG，Flight同时也是请求的回调
+     */
+    private static RequestListener flight(NetworkRunnable runnable) {
+        return (RequestListener) runnable.getTag();
+    }
+
+    private static final class RecordingListener implements RequestListener {
+        private boolean succeeded;
+        private String body;
+        private int errCode;
+
+        @Override
+        public void onSuccess(OriginalResponse response) {
+            succeeded = true;
+            body = response.getContentString();
+        }
+
+        @Override
+        public void onFailure(int errCode, String errMsg) {
+            this.errCode = errCode;
+        }
+    }
+
+    /**
+     * 只记录被调度的任务
+     */
+    private static final class RecordingExecutor extends AbstractExecutorService {
+        private final ConcurrentLinkedQueue<NetworkRunnable> executed = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void execute(Runnable command) {
+            executed.offer((NetworkRunnable) command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.ainirobot.optimus.network.batch;
+
+import com.ainirobot.optimus.network.NetworkRunnable;
+import com.ainirobot.optimus.network.OptimusNetClient;
+import com.ainirobot.optimus.network.OriginalResponse;
+import com.ainirobot.optimus.network.Request;
+import com.ainirobot.optimus.network.RequestListener;
+import com.ainirobot.optimus.network.request.body.StringBody;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RequestBatcher的分组和发送测试。线程池被替换成只记录任务的Executor，只检查交给Dispatcher的请求，不访问网络
+ */
+public class RequestBatcherTest {
+    private static final String BATCH_URL = "http://batch.host/batch";
+
+    private RecordingExecutor mExecutor;
+    private OptimusNetClient mClient;
+    private RequestBatcher mBatcher;
+
+    @Before
+    public void setUp() {
+        mExecutor = new RecordingExecutor();
+        mClient = new OptimusNetClient(mExecutor);
+        mBatcher = new RequestBatcher(mClient, BATCH_URL);
+        mClient.setRequestBatcher(mBatcher);
+    }
+
+    @Test
+    public void loneRequestIsSentAfterWindow() throws Exception {
+        CountDownLatch executed = new CountDownLatch(1);
+        mExecutor.onExecute = executed;
+        Object tag = new Object();
+        mClient.execute(request(tag), null);
+
+        assertTrue(executed.await(5, TimeUnit.SECONDS));
+        NetworkRunnable runnable = mExecutor.executed.poll();
+        // 单独发送的是原来的请求，不会再次放入分组
+        assertSame(tag, runnable.getTag());
+        assertEquals("api.host", runnable.getHost());
+        Thread.sleep(3 * RequestBatcher.DEFAULT_WINDOW_MILLIS);
+        assertNull(mExecutor.executed.poll());
+        assertEquals(0, mBatcher.getBatchCount());
+    }
+
+    @Test
+    public void loneRequestWithoutWindowIsSentImmediately() {
+        mBatcher.setWindow(0, TimeUnit.MILLISECONDS);
+        Object tag = new Object();
+        mClient.execute(request(tag), null);
+
+        NetworkRunnable runnable = mExecutor.executed.poll();
+        assertSame(tag, runnable.getTag());
+        assertNull(mExecutor.executed.poll());
+    }
+
+    @Test
+    public void fullGroupIsSentAsOneBatch() {
+        mBatcher.setMaxBatchSize(3);
+        for (int i = 0; i < 3; i++) {
+            mClient.execute(request(new Object()), null);
+        }
+
+        NetworkRunnable runnable = mExecutor.executed.poll();
+        assertEquals("batch.host", runnable.getHost());
+        assertNull(mExecutor.executed.poll());
+        assertEquals(1, mBatcher.getBatchCount());
+        assertEquals(3, mBatcher.getBatchedRequestCount());
+    }
+
+    @Test
+    public void cancelByListenerReachesLoneRequest() {
+        mBatcher.setWindow(0, TimeUnit.MILLISECONDS);
+        RecordingListener listener = new RecordingListener();
+        mClient.execute(request(new Object()), listener);
+        NetworkRunnable runnable = mExecutor.executed.poll();
+
+        mBatcher.cancel(listener);
+        assertTrue(runnable.isCanceled());
+    }
+
+    @Test
+    public void cancelByTagRemovesWaitingRequest() throws Exception {
+        Object tag = new Object();
+        mClient.execute(request(tag), null);
+        mClient.execute(request(new Object()), null);
+        mBatcher.cancel(tag);
+        mBatcher.flush();
+
+        // 只剩一个请求，单独发送
+        NetworkRunnable runnable = mExecutor.executed.poll();
+        assertNotSame(tag, runnable.getTag());
+        assertEquals("api.host", runnable.getHost());
+        assertNull(mExecutor.executed.poll());
+    }
+
+    @Test
+    public void cancelAllSilencesWaitingAndInFlightRequests() {
+        mBatcher.setMaxBatchSize(2);
+        RecordingListener sent = new RecordingListener();
+        mClient.execute(request(new Object()), sent);
+        mClient.execute(request(new Object()), sent);
+        NetworkRunnable batch = mExecutor.executed.poll();
+        RecordingListener waiting = new RecordingListener();
+        mClient.execute(request(new Object()), waiting);
+
+        mClient.cancelAll();
+        assertTrue(batch.isCanceled());
+        // 批量请求被取消之后的失败回调不会再传给调用方
+        ((RequestListener) batch.getTag()).onFailure(-1, "canceled");
+        assertEquals(0, sent.calls);
+        mBatcher.flush();
+        assertNull(mExecutor.executed.poll());
+        assertEquals(0, waiting.calls);
+    }
+
+    private static Request request(Object tag) {
+        return new Request.Builder()
+                .url("http://api.host/event")
+                .post(new StringBody("{\"event\":1}"))
+                .batchable()
+                .tag(tag)
+                .build();
+    }
+
+    private static final class RecordingListener implements RequestListener {
+        private int calls;
+
+        @Override
+        public void onSuccess(OriginalResponse response) {
+            calls++;
+        }
+
+        @Override
+        public void onFailure(int errCode, String errMsg) {
+            calls++;
+        }
+    }
+
+    /**
+     * 只记录被调度的任务
+     */
+    private static final class RecordingExecutor extends AbstractExecutorService {
+        private final ConcurrentLinkedQueue<NetworkRunnable> executed = new ConcurrentLinkedQueue<>();
+        private volatile CountDownLatch onExecute;
+
+        @Override
+        public void execute(Runnable command) {
+            executed.offer((NetworkRunnable) command);
+            CountDownLatch latch = onExecute;
+            if (latch != null) {
+                latch.countDown();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.ainirobot.optimus.network.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DiskCacheStore的淘汰顺序测试：读取过的缓存最后被淘汰，重启之后顺序不变
+ */
+public class DiskCacheStoreTest {
+    private static final int BODY_BYTES = 1000;
+
+    private File mDirectory;
+    private long mEntryBytes;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("disk-cache", "");
+        assertTrue(mDirectory.delete());
+        // 用一个单独的缓存测出每条缓存文件的大小
+        DiskCacheStore probe = new DiskCacheStore(new File(mDirectory, "probe"), Long.MAX_VALUE);
+        probe.put("a", entry("a"));
+        mEntryBytes = probe.size();
+        probe.clear();
+    }
+
+    @After
+    public void tearDown() {
+        delete(mDirectory);
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        DiskCacheStore store = newStore();
+        store.put("a", entry("a"));
+        store.put("b", entry("b"));
+        store.put("c", entry("c"));
+        assertNotNull(store.get("a"));
+
+        store.put("d", entry("d"));
+        assertNull(store.get("b"));
+        assertNotNull(store.get("a"));
+        assertNotNull(store.get("c"));
+        assertNotNull(store.get("d"));
+        assertEquals(3 * mEntryBytes, store.size());
+    }
+
+    @Test
+    public void accessOrderSurvivesRestart() {
+        DiskCacheStore store = newStore();
+        store.put("a", entry("a"));
+        store.put("b", entry("b"));
+        store.put("c", entry("c"));
+        assertNotNull(store.get("a"));
+
+        DiskCacheStore reopened = newStore();
+        reopened.put("d", entry("d"));
+        assertNull(reopened.get("b"));
+        assertNotNull(reopened.get("a"));
+        assertEquals(3 * mEntryBytes, reopened.size());
+    }
+
+    @Test
+    public void missDoesNotChangeOrder() {
+        DiskCacheStore store = newStore();
+        store.put("a", entry("a"));
+        store.put("b", entry("b"));
+        store.put("c", entry("c"));
+        assertNull(store.get("x"));
+
+        store.put("d", entry("d"));
+        assertNull(store.get("a"));
+        assertNotNull(store.get("b"));
+    }
+
+    private DiskCacheStore newStore() {
+        // 最多放下3条缓存
+        return new DiskCacheStore(mDirectory, 3 * mEntryBytes);
+    }
+
+    private static CacheEntry entry(String key) {
+        Map<String, List<String>> headers = Collections.emptyMap();
+        return new CacheEntry("http://host/" + key, 200, headers, new byte[BODY_BYTES], 0, 60000);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,78 @@
+package com.ainirobot.optimus.network.cache;
+
+import com.ainirobot.optimus.network.Request;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * HttpCache的缓存key和可缓存判断的测试
+ */
+public class HttpCacheTest {
+    private static final String URL = "http://host/a";
+
+    @Test
+    public void keyIgnoresParamAndHeaderOrder() {
+        Request first = new Request.Builder().url(URL)
+                .urlParam("a", "1").urlParam("b", "2")
+                .header("Accept", "application/json").header("X-Token", "t")
+                .build();
+        Request second = new Request.Builder().url(URL)
+                .urlParam("b", "2").urlParam("a", "1")
+                .header("x-token", "t").header("accept", "application/json")
+                .build();
+        assertEquals(HttpCache.key(first), HttpCache.key(second));
+    }
+
+    @Test
+    public void keyDiffersByHeaderValue() {
+        assertDifferentKeys(new Request.Builder().url(URL).header("X-Token", "a").build(),
+                new Request.Builder().url(URL).header("X-Token", "b").build());
+        assertDifferentKeys(new Request.Builder().url(URL).header("Accept-Language", "zh").build(),
+                new Request.Builder().url(URL).header("Accept-Language", "en").build());
+        assertDifferentKeys(new Request.Builder().url(URL).build(),
+                new Request.Builder().url(URL).header("Accept", "text/html").build());
+    }
+
+    @Test
+    public void keyDiffersBySession() {
+        assertDifferentKeys(new Request.Builder().url(URL).session("a").build(),
+                new Request.Builder().url(URL).session("b").build());
+        assertDifferentKeys(new Request.Builder().url(URL).build(),
+                new Request.Builder().url(URL).session("a").build());
+    }
+
+    @Test
+    public void shouldStore() {
+        HttpCache cache = new HttpCache(new MemoryCacheStore(1024));
+        assertTrue(cache.shouldStore(200, headers("ETag", "\"v1\""), -1));
+        assertTrue(cache.shouldStore(200, headers("Cache-Control", "max-age=60"), 10));
+        assertFalse(cache.shouldStore(200, headers("Cache-Control", "max-age=60, no-store"), 10));
+        assertFalse(cache.shouldStore(200, headers("ETag", "\"v1\"", "Vary", "*"), 10));
+        assertTrue(cache.shouldStore(200, headers("ETag", "\"v1\"", "Vary", "Accept-Encoding"), 10));
+        assertFalse(cache.shouldStore(206, headers("ETag", "\"v1\""), 10));
+        assertFalse(cache.shouldStore(200, headers("ETag", "\"v1\""), HttpCache.MAX_ENTRY_BYTES + 1));
+        assertFalse(cache.shouldStore(200, Collections.<String, List<String>>emptyMap(), 10));
+    }
+
+    private static void assertDifferentKeys(Request first, Request second) {
+        assertFalse(HttpCache.key(first).equals(HttpCache.key(second)));
+    }
+
+    private static Map<String, List<String>> headers(String... namesAndValues) {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.put(namesAndValues[i], Arrays.asList(namesAndValues[i + 1]));
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,67 @@
+package com.ainirobot.optimus.network.utils;
+
+import org.junit.Test;
+
+import java.net.URLEncoder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * HttpUtils的URL编码必须和URLEncoder.encode(value, "UTF-8")的结果一致
+ */
+public class HttpUtilsTest {
+    private static final String URL = "http://api.example.com/v1";
+
+    @Test
+    public void encodesLikeUrlEncoder() throws Exception {
+        String[] values = {
+                "", " ", "a b", "*", "~", ".-_", "+", "a+b&c=d", "100%", "/?#[]@!$'(),;",
+                "你好 机器人", "é", "\u0000\u007f", "߿ࠀ￿",
+                // 成对的代理字符（4字节UTF-8）
+                "😀", "a😀b🤖",
+                // 不成对的代理字符
+                "\ud83d", "\ude00", "a\ud83db", "\ude00\ud83d", "\ud83d😀"
+        };
+        for (String value : values) {
+            assertEncoded(value);
+        }
+        StringBuilder ascii = new StringBuilder();
+        for (char c = 0; c < 128; c++) {
+            ascii.append(c);
+        }
+        assertEncoded(ascii.toString());
+    }
+
+    @Test
+    public void encodesRandomStringsLikeUrlEncoder() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            char[] chars = new char[random.nextInt(16)];
+            for (int j = 0; j < chars.length; j++) {
+                // 偏向ASCII，同时覆盖代理字符区间
+                chars[j] = random.nextBoolean() ? (char) random.nextInt(128) : (char) random.nextInt(0x10000);
+            }
+            assertEncoded(new String(chars));
+        }
+    }
+
+    @Test
+    public void nullAndEmptyValues() {
+        assertEquals(URL + "?a=&b=", HttpUtils.buildUrl(URL, new String[]{"a", null, "b", ""}));
+    }
+
+    @Test
+    public void buildUrl() throws Exception {
+        assertEquals(URL, HttpUtils.buildUrl(URL, new String[0]));
+        assertEquals(URL + "?k=v&q=" + URLEncoder.encode("a b", "UTF-8"),
+                HttpUtils.buildUrl(URL, new String[]{"k", "v", "q", "a b"}));
+        assertEquals(URL + "?x=1&k=v", HttpUtils.buildUrl(URL + "?x=1", new String[]{"k", "v"}));
+    }
+
+    private static void assertEncoded(String value) throws Exception {
+        StringBuilder builder = new StringBuilder();
+        HttpUtils.appendUrlEncoded(builder, value);
+        assertEquals(value, URLEncoder.encode(value, "UTF-8"), builder.toString());
+    }
+}